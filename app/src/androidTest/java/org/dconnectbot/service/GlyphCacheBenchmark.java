@@ -0,0 +1,137 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import de.mud.terminal.vt320;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time to draw a frame of htop into the bridge bitmap, with and without the
+ * glyph cache.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GlyphCacheBenchmark {
+	private static final String TAG = "CB.GlyphCacheBenchmark";
+
+	private static final int COLUMNS = 120;
+	private static final int ROWS = 50;
+	private static final int FRAMES = 100;
+
+	@Test
+	public void benchmark_HtopFrameTime() {
+		String[] frames = recordHtop(FRAMES);
+
+		long layout = medianFrameTime(frames, false);
+		long cached = medianFrameTime(frames, true);
+
+		Log.i(TAG, String.format("htop %dx%d frame: text layout %.2f ms, glyph cache %.2f ms",
+				COLUMNS, ROWS, layout / 1e6, cached / 1e6));
+		assertTrue(cached > 0 && layout > 0);
+	}
+
+	private static long medianFrameTime(String[] frames, boolean glyphCache) {
+		TerminalBridge bridge = new TerminalBridge();
+		bridge.setUpDrawing(COLUMNS, ROWS, 24f);
+		bridge.setGlyphCacheEnabled(glyphCache);
+		vt320 terminal = (vt320) bridge.buffer;
+
+		long[] times = new long[frames.length];
+		for (int i = 0; i < frames.length; i++) {
+			terminal.putString(frames[i]);
+			long start = System.nanoTime();
+			bridge.onDraw();
+			times[i] = System.nanoTime() - start;
+		}
+
+		Arrays.sort(times);
+		return times[times.length / 2];
+	}
+
+	/**
+	 * A run of htop screens: colored meters, a header and a process list
+	 * with one highlighted row, each screen redrawn from home like htop
+	 * does.
+	 */
+	private static String[] recordHtop(int count) {
+		Random random = new Random(2);
+		String[] frames = new String[count];
+
+		for (int f = 0; f < count; f++) {
+			StringBuilder sb = new StringBuilder("\u001b[H");
+
+			for (int cpu = 0; cpu < 4; cpu++) {
+				int used = random.nextInt(40);
+				sb.append("\u001b[36m  ").append(cpu + 1).append("  \u001b[1;37m[")
+						.append("\u001b[32m").append(repeat('|', used / 2))
+						.append("\u001b[31m").append(repeat('|', used / 2))
+						.append(repeat(' ', 40 - used))
+						.append("\u001b[37m").append(String.format("%5.1f%%", used * 2.5))
+						.append("\u001b[1;37m]\u001b[0m\u001b[K\r\n");
+			}
+			sb.append("\u001b[36m  Mem\u001b[1;37m[\u001b[32m").append(repeat('|', 20))
+					.append("\u001b[34m").append(repeat('|', 6))
+					.append("\u001b[33m").append(repeat('|', 10))
+					.append("        \u001b[37m1.52G/3.70G\u001b[1;37m]\u001b[0m\u001b[K\r\n");
+			sb.append("\u001b[36m  Tasks: \u001b[1m").append(80 + random.nextInt(20))
+					.append("\u001b[0;36m, \u001b[1;32m").append(random.nextInt(8))
+					.append("\u001b[0;36m running\u001b[0m\u001b[K\r\n\u001b[K\r\n");
+
+			sb.append("\u001b[30;42m    PID USER      PRI  NI  VIRT   RES   SHR S CPU% MEM%   TIME+  Command")
+					.append(repeat(' ', COLUMNS - 74)).append("\u001b[0m\r\n");
+
+			for (int p = 0; p < ROWS - 9; p++) {
+				boolean selected = p == 3;
+				sb.append(selected ? "\u001b[30;46m" : "");
+				sb.append(String.format("%7d ", 1000 + p * 17));
+				sb.append(selected ? "" : (p % 3 == 0 ? "\u001b[1;37m" : "\u001b[0m")).append("user      ");
+				sb.append(String.format(" 20   0 %5dM %5dM %5dM ", 100 + p, 20 + p, 10 + p));
+				sb.append(selected ? "" : "\u001b[1;32m").append(random.nextInt(8) == 0 ? "R " : "S ");
+				sb.append(selected ? "" : "\u001b[0m").append(String.format("%4.1f %4.1f ",
+						random.nextInt(1000) / 10.0, random.nextInt(100) / 10.0));
+				sb.append(selected ? "" : "\u001b[36m").append(String.format("%2d:%02d.%02d ",
+						p / 10, p % 60, f % 100));
+				sb.append(selected ? "" : (p % 4 == 0 ? "\u001b[32m" : "\u001b[0m"))
+						.append("/usr/bin/process-").append(p).append(" --option value");
+				sb.append("\u001b[K\u001b[0m\r\n");
+			}
+
+			sb.append("\u001b[0mF1\u001b[30;46mHelp  \u001b[0mF2\u001b[30;46mSetup \u001b[0m")
+					.append("F3\u001b[30;46mSearch\u001b[0mF10\u001b[30;46mQuit\u001b[K\u001b[0m");
+			frames[f] = sb.toString();
+		}
+
+		return frames;
+	}
+
+	private static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+}
@@ -45,8 +45,18 @@ public abstract class TelnetProtocolHandler {
   /** debug level */
   private final static int debug = 0;
 
-  /** temporary buffer for data-telnetstuff-data transformation */
-  private byte[] tempbuf = new byte[0];
+  /** initial size of the input ring, enough for a few socket reads */
+  private final static int INPUT_SIZE = 8192;
+
+  /** ring of received bytes waiting for negotiate() */
+  private byte[] input = new byte[INPUT_SIZE];
+  /** index of the oldest unprocessed byte in the input ring */
+  private int inputStart = 0;
+  /** number of unprocessed bytes in the input ring */
+  private int inputCount = 0;
+
+  /** buffer for three byte IAC replies */
+  private final byte[] sendbuf = new byte[3];
 
   /** the data sent on pressing <RETURN>  \n */
   private byte[] crlf = new byte[2];
@@ -439,18 +449,26 @@ public abstract class TelnetProtocolHandler {
   public int negotiate(byte nbuf[], int offset)
   throws IOException
   {
-    int count = tempbuf.length;
-    byte[] buf = tempbuf;
-    byte sendbuf[] = new byte[3];
     byte b,reply;
-    int boffset = 0, noffset = offset;
+    int noffset = offset;
     boolean dobreak = false;
 
-    if (count == 0) 	// buffer is empty.
+    if (inputCount == 0) 	// buffer is empty.
       return -1;
 
-    while(!dobreak && (boffset < count) && (noffset < nbuf.length)) {
-      b=buf[boffset++];
+    while(!dobreak && (inputCount > 0) && (noffset < nbuf.length)) {
+      if (neg_state == STATE_DATA) {
+        // plain data up to the next IAC is copied in one go
+        int run = dataRun(nbuf.length - noffset);
+        if (run > 0) {
+          System.arraycopy(input, inputStart, nbuf, noffset, run);
+          noffset += run;
+          consume(run);
+          continue;
+        }
+      }
+      b=input[inputStart];
+      consume(1);
       // of course, byte is a signed entity (-128 -> 127)
       // but apparently the SGI Netscape 3.0 doesn't seem
       // to care and provides happily values up to 255
@@ -749,18 +767,55 @@ public abstract class TelnetProtocolHandler {
         break;
       }
     }
-    // shrink tempbuf to new processed size.
-    byte[] xb = new byte[count-boffset];
-    System.arraycopy(tempbuf,boffset,xb,0,count-boffset);
-    tempbuf = xb;
     return noffset - offset;
   }
 
+  /**
+   * Count the bytes at the start of the input ring that are plain data,
+   * without wrapping around the end of the ring.
+   * @param max most bytes wanted
+   * @return number of bytes before the next IAC
+   */
+  private int dataRun(int max) {
+    int end = inputStart + Math.min(max, inputCount);
+    if (end > input.length)
+      end = input.length;
+    int i = inputStart;
+    while (i < end && input[i] != IAC)
+      i++;
+    return i - inputStart;
+  }
+
+  /**
+   * Drop processed bytes from the start of the input ring.
+   * @param n number of bytes, not wrapping around the end of the ring
+   */
+  private void consume(int n) {
+    inputCount -= n;
+    inputStart += n;
+    if (inputStart == input.length || inputCount == 0)
+      inputStart = 0;
+  }
+
+  /**
+   * Queue received bytes for {@link #negotiate(byte[], int)}. The bytes
+   * are copied into the input ring, which only grows if a single feed
+   * does not fit in it.
+   */
   public void inputfeed(byte[] b, int offset, int len) {
-    byte[] xb = new byte[tempbuf.length+len];
+    if (len > input.length - inputCount) {
+      byte[] xb = new byte[Math.max(input.length * 2, inputCount + len)];
+      int first = Math.min(inputCount, input.length - inputStart);
+      System.arraycopy(input,inputStart,xb,0,first);
+      System.arraycopy(input,0,xb,first,inputCount - first);
+      input = xb;
+      inputStart = 0;
+    }
 
-    System.arraycopy(tempbuf,0,xb,0,tempbuf.length);
-    System.arraycopy(b,offset,xb,tempbuf.length,len);
-    tempbuf = xb;
+    int tail = (inputStart + inputCount) % input.length;
+    int first = Math.min(len, input.length - tail);
+    System.arraycopy(b,offset,input,tail,first);
+    System.arraycopy(b,offset + first,input,0,len - first);
+    inputCount += len;
   }
 }
@@ -45,8 +45,12 @@ public class VDUBuffer {
 
   public int height, width;                          /* rows and columns */
   public boolean[] update;        /* contains the lines that need update */
-  public char[][] charArray;                  /* contains the characters */
-  public long[][] charAttributes;            /* contains character attrs */
+  private char[][] charRows;           /* circular store of the characters */
+  private long[][] attributeRows;     /* circular store of character attrs */
+  private long[][] attributeRuns;  /* packed attrs of rows in the scrollback */
+  private long[][] spareAttributes;     /* attr rows freed up by packing */
+  private int spareCount;
+  private int rowOffset;                  /* store index of buffer row 0 */
   public int bufSize;
   public int maxBufSize;                                 /* buffer sizes */
   public int screenBase;                      /* the actual screen start */
@@ -104,6 +108,9 @@ public class VDUBuffer {
   public final static long COLOR_FG = 0x7fffffc0L;       /* 0000 0000 0000 0000 0000 0000 0000 0000  0111 1111 1111 1111 1111 1111 1100 0000 */
   /** background color mask */
   public final static long COLOR_BG = 0xffffff80000000L; /* 0000 0000 1111 1111 1111 1111 1111 1111  1000 0000 0000 0000 0000 0000 0000 0000 */
+  /** packed attributes of a row that is all NORMAL */
+  private final static long[] NORMAL_RUNS = {};
+
   /** how much to left shift the red component */
   public final static int COLOR_RED_SHIFT = 16;
   /** how much to left shift the green component */
@@ -164,8 +171,30 @@ public class VDUBuffer {
    */
 
   public void putChar(int c, int l, char ch, long attributes) {
-    charArray[screenBase + l][c] = ch;
-    charAttributes[screenBase + l][c] = attributes;
+    int row = storeIndex(screenBase + l);
+    charRows[row][c] = ch;
+    attributeRows[row][c] = attributes;
+    if (l < height)
+      update[l + 1] = true;
+  }
+
+  /**
+   * Put characters on one line of the screen, all with the same attributes.
+   * This is the bulk version of putChar and does not wrap.
+   * You need to call redraw() to update the screen.
+   * @param c x-coordinate (column)
+   * @param l y-coordinate (line)
+   * @param s array holding the characters
+   * @param start index of the first character in s
+   * @param len number of characters, at most width - c
+   * @param attributes the character attributes
+   * @see #putChar
+   * @see #redraw
+   */
+  public void putChars(int c, int l, char[] s, int start, int len, long attributes) {
+    int row = storeIndex(screenBase + l);
+    System.arraycopy(s, start, charRows[row], c, len);
+    Arrays.fill(attributeRows[row], c, c + len, attributes);
     if (l < height)
       update[l + 1] = true;
   }
@@ -177,7 +206,7 @@ public class VDUBuffer {
    * @see #putChar
    */
   public char getChar(int c, int l) {
-    return charArray[screenBase + l][c];
+    return charRows[storeIndex(screenBase + l)][c];
   }
 
   /**
@@ -187,7 +216,48 @@ public class VDUBuffer {
    * @see #putChar
    */
   public long getAttributes(int c, int l) {
-    return charAttributes[screenBase + l][c];
+    return attributeRows[storeIndex(screenBase + l)][c];
+  }
+
+  /**
+   * Get the characters of a row anywhere in the buffer, scrollback included.
+   * The returned array is owned by the buffer and is recycled once the row
+   * leaves the scrollback, so only use it while holding the buffer lock.
+   * @param row buffer row, 0 being the oldest line and screenBase the first
+   *            line of the screen
+   * @see #getBufferChar
+   */
+  public char[] getBufferChars(int row) {
+    return charRows[storeIndex(row)];
+  }
+
+  /**
+   * Get the character at the specified buffer position.
+   * @param c x-coordinate (column)
+   * @param row buffer row, 0 being the oldest line in the scrollback
+   * @see #getChar
+   */
+  public char getBufferChar(int c, int row) {
+    return charRows[storeIndex(row)][c];
+  }
+
+  /**
+   * Get the attributes for the specified buffer position.
+   * @param c x-coordinate (column)
+   * @param row buffer row, 0 being the oldest line in the scrollback
+   * @see #getAttributes
+   */
+  public long getBufferAttributes(int c, int row) {
+    int index = storeIndex(row);
+    long[] attributes = attributeRows[index];
+    if (attributes != null)
+      return attributes[c];
+
+    long[] runs = attributeRuns[index];
+    for (int i = 1; i < runs.length; i += 2)
+      if (c < runs[i])
+        return runs[i - 1];
+    return NORMAL;
   }
 
   /**
@@ -209,10 +279,11 @@ public class VDUBuffer {
    * @see #redraw
    */
   public void insertChar(int c, int l, char ch, long attributes) {
-    System.arraycopy(charArray[screenBase + l], c,
-                     charArray[screenBase + l], c + 1, width - c - 1);
-    System.arraycopy(charAttributes[screenBase + l], c,
-                     charAttributes[screenBase + l], c + 1, width - c - 1);
+    int row = storeIndex(screenBase + l);
+    System.arraycopy(charRows[row], c,
+                     charRows[row], c + 1, width - c - 1);
+    System.arraycopy(attributeRows[row], c,
+                     attributeRows[row], c + 1, width - c - 1);
     putChar(c, l, ch, attributes);
   }
 
@@ -228,10 +299,11 @@ public class VDUBuffer {
    */
   public void deleteChar(int c, int l) {
     if (c < width - 1) {
-      System.arraycopy(charArray[screenBase + l], c + 1,
-                       charArray[screenBase + l], c, width - c - 1);
-      System.arraycopy(charAttributes[screenBase + l], c + 1,
-                       charAttributes[screenBase + l], c, width - c - 1);
+      int row = storeIndex(screenBase + l);
+      System.arraycopy(charRows[row], c + 1,
+                       charRows[row], c, width - c - 1);
+      System.arraycopy(attributeRows[row], c + 1,
+                       attributeRows[row], c, width - c - 1);
     }
     putChar(width - 1, l, (char) 0);
   }
@@ -333,15 +405,6 @@ public class VDUBuffer {
    * @see #redraw
    */
   public synchronized void insertLine(int l, int n, boolean scrollDown) {
-    char cbuf[][] = null;
-    long abuf[][] = null;
-    int offset = 0;
-    int oldBase = screenBase;
-
-    int newScreenBase = screenBase;
-    int newWindowBase = windowBase;
-    int newBufSize = bufSize;
-
     if (l > bottomMargin) /* We do not scroll below bottom margin (below the scrolling region). */
       return;
     int top = (l < topMargin ?
@@ -353,133 +416,65 @@ public class VDUBuffer {
             (topMargin > 0 ?
             topMargin - 1 : 0) : bottomMargin));
 
-    // System.out.println("l is "+l+", top is "+top+", bottom is "+bottom+", bottomargin is "+bottomMargin+", topMargin is "+topMargin);
-
     if (scrollDown) {
       if (n > (bottom - top)) n = (bottom - top);
-      int size = bottom - l - (n - 1);
-      if(size < 0) size = 0;
-      cbuf = new char[size][width];
-      abuf = new long[size][width];
-
-      System.arraycopy(charArray, oldBase + l, cbuf, 0, bottom - l - (n - 1));
-      System.arraycopy(charAttributes, oldBase + l,
-                       abuf, 0, bottom - l - (n - 1));
-      System.arraycopy(cbuf, 0, charArray, oldBase + l + n,
-                       bottom - l - (n - 1));
-      System.arraycopy(abuf, 0, charAttributes, oldBase + l + n,
-                       bottom - l - (n - 1));
-      cbuf = charArray;
-      abuf = charAttributes;
+      if (n > bottom - l + 1) n = bottom - l + 1;
+      if (n <= 0) return;
+
+      // the lines pushed out at the bottom of the region come back as the
+      // blank lines at l
+      rotateRows(screenBase + l, screenBase + bottom + 1, n);
+      clearRows(screenBase + l, n);
     } else {
-      try {
-        if (n > (bottom - top) + 1) n = (bottom - top) + 1;
-        if (bufSize < maxBufSize) {
-          if (bufSize + n > maxBufSize) {
-            offset = n - (maxBufSize - bufSize);
-            scrollMarker += offset;
-            newBufSize = maxBufSize;
-            newScreenBase = maxBufSize - height - 1;
-            newWindowBase = screenBase;
-          } else {
-            scrollMarker += n;
-            newScreenBase += n;
-            newWindowBase += n;
-            newBufSize += n;
+      if (n > (bottom - top) + 1) n = (bottom - top) + 1;
+      if (n > l - top + 1) n = l - top + 1;
+      if (n <= 0) return;
+
+      // Grow the scrollback while there is room; once it is full, drop the
+      // oldest lines by advancing the start of the store.
+      int grow = Math.min(n, maxBufSize - bufSize);
+      int drop = n - grow;
+      if (drop > screenBase) {
+        // the scrollback is too small to keep all of them, so the topmost
+        // lines are just discarded within the scrolling region
+        int discard = drop - screenBase;
+        rotateRows(screenBase + top, screenBase + l + 1, l - top + 1 - discard);
+        clearRows(screenBase + l - (discard - 1), discard);
+        drop = screenBase;
+      }
+      int pushed = grow + drop;
+
+      if (pushed > 0) {
+        for (int i = 0; i < grow; i++) {
+          int row = storeIndex(bufSize + i);
+          if (charRows[row] == null) {
+            charRows[row] = new char[width];
+            attributeRuns[row] = NORMAL_RUNS;
+            Arrays.fill(charRows[row], ' ');
           }
-
-          cbuf = new char[newBufSize][width];
-          abuf = new long[newBufSize][width];
-        } else {
-          offset = n;
-          cbuf = charArray;
-          abuf = charAttributes;
         }
-        // copy anything from the top of the buffer (+offset) to the new top
-        // up to the screenBase.
-        if (oldBase > 0) {
-          System.arraycopy(charArray, offset,
-                           cbuf, 0,
-                           oldBase - offset);
-          System.arraycopy(charAttributes, offset,
-                           abuf, 0,
-                           oldBase - offset);
-        }
-        // copy anything from the top of the screen (screenBase) up to the
-        // topMargin to the new screen
-        if (top > 0) {
-          System.arraycopy(charArray, oldBase,
-                           cbuf, newScreenBase,
-                           top);
-          System.arraycopy(charAttributes, oldBase,
-                           abuf, newScreenBase,
-                           top);
-        }
-        // copy anything from the topMargin up to the amount of lines inserted
-        // to the gap left over between scrollback buffer and screenBase
-        if (oldBase >= 0) {
-          System.arraycopy(charArray, oldBase + top,
-                           cbuf, oldBase - offset,
-                           n);
-          System.arraycopy(charAttributes, oldBase + top,
-                           abuf, oldBase - offset,
-                           n);
-        }
-        // copy anything from topMargin + n up to the line linserted to the
-        // topMargin
-        System.arraycopy(charArray, oldBase + top + n,
-                         cbuf, newScreenBase + top,
-                         l - top - (n - 1));
-        System.arraycopy(charAttributes, oldBase + top + n,
-                         abuf, newScreenBase + top,
-                         l - top - (n - 1));
-        //
-        // copy the all lines next to the inserted to the new buffer
-        if (l < height - 1) {
-          System.arraycopy(charArray, oldBase + l + 1,
-                           cbuf, newScreenBase + l + 1,
-                           (height - 1) - l);
-          System.arraycopy(charAttributes, oldBase + l + 1,
-                           abuf, newScreenBase + l + 1,
-                           (height - 1) - l);
-        }
-      } catch (ArrayIndexOutOfBoundsException e) {
-        // this should not happen anymore, but I will leave the code
-        // here in case something happens anyway. That code above is
-        // so complex I always have a hard time understanding what
-        // I did, even though there are comments
-        System.err.println("*** Error while scrolling up:");
-        System.err.println("--- BEGIN STACK TRACE ---");
-        e.printStackTrace();
-        System.err.println("--- END STACK TRACE ---");
-        System.err.println("bufSize=" + bufSize + ", maxBufSize=" + maxBufSize);
-        System.err.println("top=" + top + ", bottom=" + bottom);
-        System.err.println("n=" + n + ", l=" + l);
-        System.err.println("screenBase=" + screenBase + ", windowBase=" + windowBase);
-        System.err.println("newScreenBase=" + newScreenBase + ", newWindowBase=" + newWindowBase);
-        System.err.println("oldBase=" + oldBase);
-        System.err.println("size.width=" + width + ", size.height=" + height);
-        System.err.println("abuf.length=" + abuf.length + ", cbuf.length=" + cbuf.length);
-        System.err.println("*** done dumping debug information");
+        rowOffset = storeIndex(drop);
+        bufSize += grow;
+        screenBase += grow;
+        windowBase += grow;
+        scrollMarker += grow;
+
+        // the old screen now starts pushed lines above the new screenBase
+        int oldBase = screenBase - pushed;
+        // the lines from top up to top + pushed go into the scrollback, the
+        // lines above the scrolling region follow them onto the new screen
+        rotateRows(oldBase, oldBase + top + pushed, pushed);
+        // the lines below the inserted one move down past the blank lines
+        rotateRows(oldBase + l + 1, oldBase + height + pushed, pushed);
+        for (int i = 0; i < pushed; i++)
+          packRow(storeIndex(oldBase + i));
+        clearRows(screenBase + l - (pushed - 1), pushed);
       }
     }
 
     // this is a little helper to mark the scrolling
     scrollMarker -= n;
 
-
-    for (int i = 0; i < n; i++) {
-      cbuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new char[width];
-      Arrays.fill(cbuf[(newScreenBase + l) + (scrollDown ? i : -i)], ' ');
-      abuf[(newScreenBase + l) + (scrollDown ? i : -i)] = new long[width];
-    }
-
-    charArray = cbuf;
-    charAttributes = abuf;
-    screenBase = newScreenBase;
-    windowBase = newWindowBase;
-    bufSize = newBufSize;
-
     if (scrollDown)
       markLine(l, bottom - l + 1);
     else
@@ -498,25 +493,147 @@ public class VDUBuffer {
   public void deleteLine(int l) {
     int bottom = (l > bottomMargin ? height - 1:
             (l < topMargin?topMargin:bottomMargin + 1));
-    int numRows = bottom - l - 1;
+    int numRows = bottom - l;
 
-    char[] discardedChars = charArray[screenBase + l];
-    long[] discardedAttributes = charAttributes[screenBase + l];
+    if (numRows > 1) {
+      // the deleted line is recycled as the new blank line at the bottom
+      rotateRows(screenBase + l, screenBase + bottom, numRows - 1);
+      clearRows(screenBase + bottom - 1, 1);
+      markLine(l, numRows);
+    } else {
+      clearRows(screenBase + l, 1);
+      markLine(l, 1);
+    }
+  }
 
-    if (numRows > 0) {
-	    System.arraycopy(charArray, screenBase + l + 1,
-	                     charArray, screenBase + l, numRows);
-	    System.arraycopy(charAttributes, screenBase + l + 1,
-	                     charAttributes, screenBase + l, numRows);
+  /**
+   * Map a buffer row to its index in the circular row store.
+   * @param row buffer row, 0 being the oldest line in the scrollback
+   */
+  private int storeIndex(int row) {
+    int index = rowOffset + row;
+    return index >= charRows.length ? index - charRows.length : index;
+  }
+
+  /**
+   * Rotate the buffer rows in [from, to) down by shift rows, wrapping the
+   * rows at the end of the range around to its start. Only row references
+   * are swapped, the row contents stay where they are.
+   */
+  private void rotateRows(int from, int to, int shift) {
+    int length = to - from;
+    if (length <= 1)
+      return;
+    shift %= length;
+    if (shift == 0)
+      return;
+    reverseRows(from, to);
+    reverseRows(from, from + shift);
+    reverseRows(from + shift, to);
+  }
+
+  private void reverseRows(int from, int to) {
+    for (int i = from, j = to - 1; i < j; i++, j--) {
+      int a = storeIndex(i);
+      int b = storeIndex(j);
+
+      char[] chars = charRows[a];
+      charRows[a] = charRows[b];
+      charRows[b] = chars;
+
+      long[] attributes = attributeRows[a];
+      attributeRows[a] = attributeRows[b];
+      attributeRows[b] = attributes;
+
+      long[] runs = attributeRuns[a];
+      attributeRuns[a] = attributeRuns[b];
+      attributeRuns[b] = runs;
+    }
+  }
+
+  /**
+   * Blank n buffer rows starting at the given row.
+   */
+  private void clearRows(int row, int n) {
+    for (int i = 0; i < n; i++) {
+      int index = storeIndex(row + i);
+      Arrays.fill(charRows[index], ' ');
+      if (attributeRows[index] == null) {
+        attributeRows[index] = takeSpareAttributes();
+        attributeRuns[index] = null;
+      }
+      Arrays.fill(attributeRows[index], 0);
+    }
+  }
+
+  /**
+   * Pack the attributes of a row that went into the scrollback. They are
+   * stored as [attribute, end column] pairs; everything after the last
+   * pair is NORMAL, so a plain row costs nothing at all.
+   */
+  private void packRow(int index) {
+    long[] attributes = attributeRows[index];
+    if (attributes == null)
+      return;
+
+    int length = attributes.length;
+    while (length > 0 && attributes[length - 1] == NORMAL)
+      length--;
+
+    int runCount = 0;
+    for (int c = 0; c < length; c++)
+      if (c == 0 || attributes[c] != attributes[c - 1])
+        runCount++;
+
+    long[] runs = NORMAL_RUNS;
+    if (runCount > 0) {
+      runs = new long[runCount * 2];
+      int r = 0;
+      for (int c = 0; c < length; c++) {
+        if (c == 0 || attributes[c] != attributes[c - 1]) {
+          if (r > 0)
+            runs[r - 1] = c;
+          runs[r] = attributes[c];
+          r += 2;
+        }
+      }
+      runs[r - 1] = length;
+    }
+
+    attributeRuns[index] = runs;
+    attributeRows[index] = null;
+    if (spareCount < spareAttributes.length)
+      spareAttributes[spareCount++] = attributes;
+  }
+
+  /**
+   * Expand the attributes of a packed row again, so the row can be written.
+   */
+  private void unpackRow(int index) {
+    if (attributeRows[index] != null)
+      return;
+
+    long[] runs = attributeRuns[index];
+    long[] attributes = takeSpareAttributes();
+    int c = 0;
+    for (int i = 1; i < runs.length && c < width; i += 2) {
+      int end = (int) Math.min(runs[i], width);
+      Arrays.fill(attributes, c, end, runs[i - 1]);
+      c = end;
     }
+    Arrays.fill(attributes, c, width, NORMAL);
 
-    int newBottomRow = screenBase + bottom - 1;
-    charArray[newBottomRow] = discardedChars;
-    charAttributes[newBottomRow] = discardedAttributes;
-    Arrays.fill(charArray[newBottomRow], ' ');
-    Arrays.fill(charAttributes[newBottomRow], 0);
+    attributeRows[index] = attributes;
+    attributeRuns[index] = null;
+  }
 
-    markLine(l, bottom - l);
+  private long[] takeSpareAttributes() {
+    if (spareCount > 0) {
+      long[] attributes = spareAttributes[--spareCount];
+      spareAttributes[spareCount] = null;
+      return attributes;
+    }
+    return new long[width];
   }
 
   /**
@@ -533,11 +650,10 @@ public class VDUBuffer {
    */
   public void deleteArea(int c, int l, int w, int h, long curAttr) {
     int endColumn = c + w;
-    int targetRow = screenBase + l;
     for (int i = 0; i < h && l + i < height; i++) {
-      Arrays.fill(charAttributes[targetRow], c, endColumn, curAttr);
-      Arrays.fill(charArray[targetRow], c, endColumn, ' ');
-      targetRow++;
+      int targetRow = storeIndex(screenBase + l + i);
+      Arrays.fill(attributeRows[targetRow], c, endColumn, curAttr);
+      Arrays.fill(charRows[targetRow], c, endColumn, ' ');
     }
     markLine(l, h);
   }
@@ -690,20 +806,30 @@ public class VDUBuffer {
    */
   public void setBufferSize(int amount) {
     if (amount < height) amount = height;
-    if (amount < maxBufSize) {
-      char cbuf[][] = new char[amount][width];
-      long abuf[][] = new long[amount][width];
+    if (amount != charRows.length) {
       int copyStart = bufSize - amount < 0 ? 0 : bufSize - amount;
       int copyCount = bufSize - amount < 0 ? bufSize : amount;
-      if (charArray != null)
-        System.arraycopy(charArray, copyStart, cbuf, 0, copyCount);
-      if (charAttributes != null)
-        System.arraycopy(charAttributes, copyStart, abuf, 0, copyCount);
-      charArray = cbuf;
-      charAttributes = abuf;
-      bufSize = copyCount;
-      screenBase = bufSize - height;
-      windowBase = screenBase;
+      char cbuf[][] = new char[amount][];
+      long abuf[][] = new long[amount][];
+      long rbuf[][] = new long[amount][];
+      for (int i = 0; i < copyCount; i++) {
+        int row = storeIndex(copyStart + i);
+        cbuf[i] = charRows[row];
+        abuf[i] = attributeRows[row];
+        rbuf[i] = attributeRuns[row];
+      }
+      if (amount < charRows.length) {
+        bufSize = copyCount;
+        screenBase = bufSize - height;
+        windowBase = screenBase;
+      }
+      charRows = cbuf;
+      attributeRows = abuf;
+      attributeRuns = rbuf;
+      rowOffset = 0;
+      // as in setScreenSize, rows on the screen must be writable
+      for (int i = screenBase; i < bufSize; i++)
+        unpackRow(i);
     }
     maxBufSize = amount;
 
@@ -736,6 +862,7 @@ public class VDUBuffer {
   public void setScreenSize(int w, int h, boolean broadcast) {
     char cbuf[][];
     long abuf[][];
+    long rbuf[][];
     int maxSize = bufSize;
     int oldAbsR = screenBase + getCursorRow();
 
@@ -753,34 +880,56 @@ public class VDUBuffer {
       windowBase = 0;
     }
 
-    if (windowBase + h >= bufSize)
-      windowBase = bufSize - h;
+    // Keep the cursor line on the screen. The screen always ends the buffer,
+    // as scrolling relies on, so the lines below a shrinking screen are let go.
+    int below = getCursorRow() - (h - 1);
+    if (below > 0)
+      screenBase += below;
 
     if (screenBase + h >= bufSize)
       screenBase = bufSize - h;
+    bufSize = screenBase + h;
 
+    if (windowBase + h >= bufSize)
+      windowBase = bufSize - h;
 
-    cbuf = new char[bufSize][w];
-    abuf = new long[bufSize][w];
-
-
-    for (int i = 0; i < bufSize; i++) {
-      Arrays.fill(cbuf[i], ' ');
-    }
+    cbuf = new char[maxBufSize][];
+    abuf = new long[maxBufSize][];
+    rbuf = new long[maxBufSize][];
 
     if (bufSize < maxSize)
       maxSize = bufSize;
 
-    int rowLength;
-    if (charArray != null && charAttributes != null) {
-      for (int i = 0; i < maxSize && charArray[i] != null; i++) {
-        rowLength = charArray[i].length;
-        System.arraycopy(charArray[i], 0, cbuf[i], 0,
-                         w < rowLength ? w : rowLength);
-        System.arraycopy(charAttributes[i], 0, abuf[i], 0,
-                         w < rowLength ? w : rowLength);
+    // Rows keep their arrays when only the height changes, which is what
+    // happens whenever the soft keyboard comes and goes.
+    int copied = 0;
+    if (charRows != null) {
+      for (; copied < maxSize; copied++) {
+        int row = storeIndex(copied);
+        if (charRows[row] == null)
+          break;
+        // packed rows do not depend on the width and are kept as they are
+        rbuf[copied] = attributeRuns[row];
+        if (charRows[row].length == w) {
+          cbuf[copied] = charRows[row];
+          abuf[copied] = attributeRows[row];
+        } else {
+          int rowLength = Math.min(w, charRows[row].length);
+          cbuf[copied] = new char[w];
+          Arrays.fill(cbuf[copied], rowLength, w, ' ');
+          System.arraycopy(charRows[row], 0, cbuf[copied], 0, rowLength);
+          if (attributeRows[row] != null) {
+            abuf[copied] = new long[w];
+            System.arraycopy(attributeRows[row], 0, abuf[copied], 0, rowLength);
+          }
+        }
       }
     }
+    for (int i = copied; i < bufSize; i++) {
+      cbuf[i] = new char[w];
+      abuf[i] = new long[w];
+      Arrays.fill(cbuf[i], ' ');
+    }
 
     int C = getCursorColumn();
     if (C < 0)
@@ -800,10 +949,18 @@ public class VDUBuffer {
 
     setCursorPosition(C, R);
 
-    charArray = cbuf;
-    charAttributes = abuf;
+    charRows = cbuf;
+    attributeRows = abuf;
+    attributeRuns = rbuf;
+    rowOffset = 0;
     width = w;
     height = h;
+    spareAttributes = new long[h][];
+    spareCount = 0;
+    // rows that came back from the scrollback onto the screen must be
+    // writable again
+    for (int i = screenBase; i < bufSize; i++)
+      unpackRow(i);
     topMargin = 0;
     bottomMargin = h - 1;
     update = new boolean[h + 1];
@@ -814,6 +971,25 @@ public class VDUBuffer {
     */
   }
 
+  /**
+   * Estimate the heap taken by the row store, assuming 16 byte array
+   * headers and 4 byte references. Used to test the storage layout.
+   */
+  long getStorageBytes() {
+    long bytes = 3 * (16 + 4L * charRows.length) + 16 + 4L * spareAttributes.length;
+    for (int i = 0; i < charRows.length; i++) {
+      if (charRows[i] != null)
+        bytes += 16 + 2L * charRows[i].length;
+      if (attributeRows[i] != null)
+        bytes += 16 + 8L * attributeRows[i].length;
+      else if (attributeRuns[i] != null && attributeRuns[i] != NORMAL_RUNS)
+        bytes += 16 + 8L * attributeRuns[i].length;
+    }
+    for (int i = 0; i < spareCount; i++)
+      bytes += 16 + 8L * spareAttributes[i].length;
+    return bytes;
+  }
+
   /**
    * Get amount of rows on the screen.
    */
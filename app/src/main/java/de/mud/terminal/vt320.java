@@ -27,6 +27,7 @@ package de.mud.terminal;
 
 import android.text.AndroidCharacter;
 
+import java.util.Arrays;
 import java.util.Properties;
 
 /**
@@ -101,6 +102,19 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
         if (c <= 0x7F) {
           if (lastChar != -1)
             putChar((char) lastChar, isWide, false);
+          // Plain text goes into the buffer a row segment at a time. The
+          // last character of the run stays pending in case a combining
+          // mark follows.
+          if (isPrintable(c) && canPutRun()) {
+            int end = i + 1;
+            while (end < len && isPrintable(s[start + end]))
+              end++;
+            if (end - i > 1) {
+              putRun(s, start + i, end - i - 1);
+              i = end - 1;
+              c = s[start + i];
+            }
+          }
           lastChar = c;
           isWide = false;
         } else if (!Character.isLowSurrogate(c) && !Character.isHighSurrogate(c)) {
@@ -131,6 +145,65 @@ public abstract class vt320 extends VDUBuffer implements VDUInput {
     }
   }
 
+  private static boolean isPrintable(char c) {
+    return c >= ' ' && c < 0x7f;
+  }
+
+  /**
+   * Whether printable ASCII would be put on the screen unchanged, so it can
+   * skip the state machine in putChar.
+   */
+  private boolean canPutRun() {
+    return term_state == TSTATE_DATA && insertmode == 0
+        && onegl < 0 && !useibmcharset
+        && (!usedcharsets || (gx[gl] != '0' && gx[gl] != '<'));
+  }
+
+  /**
+   * Put a run of printable ASCII at the cursor, wrapping like putChar does
+   * for each of them.
+   */
+  private void putRun(char[] s, int start, int len) {
+    int columns = this.width;
+    lastwaslf = 0;
+    while (len > 0) {
+      if (C >= columns) {
+        if (!wraparound) {
+          // cursor stays on last character, so only the last one is left
+          putChar(columns - 1, R, s[start + len - 1], attributes);
+          C = columns;
+          return;
+        }
+        wrapCursor();
+      }
+      int count = Math.min(len, columns - C);
+      putChars(C, R, s, start, count, attributes);
+      C += count;
+      start += count;
+      len -= count;
+    }
+  }
+
+  /**
+   * Autowrap: move the cursor to the start of the next line, scrolling if
+   * it is at the bottom of the screen or of the scrolling region.
+   */
+  private void wrapCursor() {
+    int bot = this.height;
+
+    // If we're in the scroll region, check against the bottom margin
+    if (R <= getBottomMargin() && R >= getTopMargin())
+      bot = getBottomMargin() + 1;
+
+    if (R < bot - 1)
+      R++;
+    else {
+      if (debug > 3) debug("scrolling due to wrap at " + R);
+      insertLine(R, 1, SCROLL_UP);
+    }
+    C = 0;
+  }
+
   protected void sendTelnetCommand(byte cmd) {
 
   }
@@ -161,13 +234,9 @@ public void setScreenSize(int c, int r, boolean broadcast) {
       debugStr.setLength(0);
     }
 
+    // this also scrolls down if needed, so the cursor stays on the screen
     super.setScreenSize(c,r,false);
 
-    // Don't let the cursor go off the screen. Scroll down if needed.
-    if (R >= r) {
-      screenBase += R - (r - 1);
-      setWindowBase(screenBase);
-    }
     R = getCursorRow();
     C = getCursorColumn();
 
@@ -831,7 +900,9 @@ public void setScreenSize(int c, int r, boolean broadcast) {
   private String KeyHome[], KeyEnd[], Insert[], Remove[], PrevScn[], NextScn[];
   private String Escape[], BackSpace[], NUMDot[], NUMPlus[];
 
-  private String osc,dcs;  /* to memorize OSC & DCS control sequence */
+  /* to memorize OSC & DCS control sequence */
+  private final ControlString osc = new ControlString();
+  private final ControlString dcs = new ControlString();
 
   /** vt320 state variable (internal) */
   private int term_state = TSTATE_DATA;
@@ -1264,37 +1335,139 @@ public void setScreenSize(int c, int r, boolean broadcast) {
     }
   }
 
-  private void handle_dcs(String dcs) {
+  /**
+   * Collects the text of an OSC or DCS control string in a buffer that is
+   * reused from one string to the next. It only grows up to its limit;
+   * anything longer is dropped as a whole.
+   */
+  /**
+   * Most characters of an OSC or DCS string that are kept. Strings that are
+   * longer, like a huge OSC 52 clipboard payload, are dropped.
+   */
+  static final int CONTROL_STRING_LIMIT = 64 * 1024;
+
+  private static final class ControlString {
+    char[] chars = new char[64];
+    int length;
+    boolean overflow;
+    char last;
+
+    void reset() {
+      length = 0;
+      overflow = false;
+      last = 0;
+    }
+
+    void append(char c) {
+      last = c;
+      if (overflow)
+        return;
+      if (length >= CONTROL_STRING_LIMIT) {
+        overflow = true;
+        return;
+      }
+      if (length == chars.length)
+        chars = Arrays.copyOf(chars, Math.min(length * 2, CONTROL_STRING_LIMIT));
+      chars[length++] = c;
+    }
+
+    /**
+     * Check for the ESC of a 7-bit ESC \\ string terminator and take it
+     * off the end of the string.
+     */
+    boolean endsWithEscape() {
+      if (last != ESC)
+        return false;
+      if (!overflow)
+        length--;
+      return true;
+    }
+  }
+
+  private void handle_dcs(ControlString dcs) {
+    if (dcs.overflow) {
+      debug("DCS: dropped, longer than " + CONTROL_STRING_LIMIT);
+      return;
+    }
     debugStr.append("DCS: ")
-      .append(dcs);
+      .append(dcs.chars, 0, dcs.length);
     debug(debugStr.toString());
     debugStr.setLength(0);
   }
 
-  private void handle_osc(String osc) {
-	  if (osc.length() > 2 && osc.substring(0, 2).equals("4;")) {
-			// Define color palette
-			String[] colorData = osc.split(";");
-
-			try {
-				int colorIndex = Integer.parseInt(colorData[1]);
-
-				if ("rgb:".equals(colorData[2].substring(0, 4))) {
-					String[] rgb = colorData[2].substring(4).split("/", -1);
-
-					int red = Integer.parseInt(rgb[0].substring(0, 2), 16) & 0xFF;
-					int green = Integer.parseInt(rgb[1].substring(0, 2), 16) & 0xFF;
-					int blue = Integer.parseInt(rgb[2].substring(0, 2), 16) & 0xFF;
-					display.setColor(colorIndex, red, green, blue);
-				}
-			} catch (Exception e) {
-				debugStr.append("OSC: invalid color sequence encountered: ")
-				  .append(osc);
-				debug(debugStr.toString());
-				debugStr.setLength(0);
-			}
-		} else
-			debug("OSC: " + osc);
+  private void handle_osc(ControlString osc) {
+    if (osc.overflow) {
+      debug("OSC: dropped, longer than " + CONTROL_STRING_LIMIT);
+      return;
+    }
+
+    char[] chars = osc.chars;
+    int length = osc.length;
+    if (length > 2 && chars[0] == '4' && chars[1] == ';') {
+      // Define color palette: 4;index;rgb:rr/gg/bb, possibly repeated
+      int pos = 2;
+      while (pos < length) {
+        int colorIndex = 0;
+        int start = pos;
+        while (pos < length && chars[pos] >= '0' && chars[pos] <= '9')
+          colorIndex = colorIndex * 10 + (chars[pos++] - '0');
+        if (pos == start || pos >= length || chars[pos++] != ';')
+          break;
+
+        int end = pos;
+        while (end < length && chars[end] != ';')
+          end++;
+
+        if (end - pos > 4 && chars[pos] == 'r' && chars[pos + 1] == 'g'
+            && chars[pos + 2] == 'b' && chars[pos + 3] == ':') {
+          int red = parseColorComponent(chars, pos + 4, end);
+          int next = skipColorComponent(chars, pos + 4, end);
+          int green = parseColorComponent(chars, next, end);
+          next = skipColorComponent(chars, next, end);
+          int blue = parseColorComponent(chars, next, end);
+          if (red < 0 || green < 0 || blue < 0)
+            break;
+          display.setColor(colorIndex, red, green, blue);
+        }
+
+        pos = end + 1;
+        if (pos >= length)
+          return;
+      }
+
+      debugStr.append("OSC: invalid color sequence encountered: ")
+        .append(chars, 0, length);
+      debug(debugStr.toString());
+      debugStr.setLength(0);
+    } else {
+      debugStr.append("OSC: ")
+        .append(chars, 0, length);
+      debug(debugStr.toString());
+      debugStr.setLength(0);
+    }
+  }
+
+  /**
+   * @return the first two hex digits of the color component starting at
+   * pos as a byte, or -1 if there are not two of them
+   */
+  private static int parseColorComponent(char[] chars, int pos, int end) {
+    if (pos + 1 >= end)
+      return -1;
+    int high = Character.digit(chars[pos], 16);
+    int low = Character.digit(chars[pos + 1], 16);
+    if (high < 0 || low < 0)
+      return -1;
+    return high << 4 | low;
+  }
+
+  /**
+   * @return the start of the color component after the one at pos
+   */
+  private static int skipColorComponent(char[] chars, int pos, int end) {
+    while (pos < end && chars[pos] != '/')
+      pos++;
+    return pos + 1;
   }
 
   private final static char unimap[] = {
@@ -1631,7 +1804,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
           boolean doneflag = true;
           switch (c) {
             case OSC:
-              osc = "";
+              osc.reset();
               term_state = TSTATE_OSC;
               break;
             case RI:
@@ -1675,7 +1848,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
                 debug("HTS");
               break;
             case DCS:
-              dcs = "";
+              dcs.reset();
               term_state = TSTATE_DCS;
               break;
             default:
@@ -1773,19 +1946,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
               }
               if (C >= columns) {
                 if (wraparound) {
-                  int bot = rows;
-
-                  // If we're in the scroll region, check against the bottom margin
-                  if (R <= getBottomMargin() && R >= getTopMargin())
-                    bot = getBottomMargin() + 1;
-
-                  if (R < bot - 1)
-                    R++;
-                  else {
-                    if (debug > 3) debug("scrolling due to wrap at " + R);
-                    insertLine(R, 1, SCROLL_UP);
-                  }
-                  C = 0;
+                  wrapCursor();
                 } else {
                   // cursor stays on last character.
                   C = columns - 1;
@@ -1853,19 +2014,7 @@ public void setScreenSize(int c, int r, boolean broadcast) {
               if (isWide) {
                 if (C >= columns - 1) {
                   if (wraparound) {
-                    int bot = rows;
-
-                    // If we're in the scroll region, check against the bottom margin
-                    if (R <= getBottomMargin() && R >= getTopMargin())
-                      bot = getBottomMargin() + 1;
-
-                    if (R < bot - 1)
-                      R++;
-                    else {
-                      if (debug > 3) debug("scrolling due to wrap at " + R);
-                      insertLine(R, 1, SCROLL_UP);
-                    }
-                    C = 0;
+                    wrapCursor();
                   } else {
                     // cursor stays on last wide character.
                     C = columns - 2;
@@ -1908,12 +2057,12 @@ public void setScreenSize(int c, int r, boolean broadcast) {
           break;
         }
         //but check for vt102 ESC \
-        if (c == '\\' && osc.charAt(osc.length() - 1) == ESC) {
+        if (c == '\\' && osc.endsWithEscape()) {
           handle_osc(osc);
           term_state = TSTATE_DATA;
           break;
         }
-        osc = osc + c;
+        osc.append(c);
         break;
       case TSTATE_ESCSPACE:
         term_state = TSTATE_DATA;
@@ -1950,11 +2099,11 @@ public void setScreenSize(int c, int r, boolean broadcast) {
             term_state = TSTATE_CSI;
             break;
           case ']':
-            osc = "";
+            osc.reset();
             term_state = TSTATE_OSC;
             break;
           case 'P':
-            dcs = "";
+            dcs.reset();
             term_state = TSTATE_DCS;
             break;
           case 'A': /* CUU */
@@ -2177,12 +2326,12 @@ public void setScreenSize(int c, int r, boolean broadcast) {
         term_state = TSTATE_DATA;
         break;
       case TSTATE_DCS:
-        if (c == '\\' && dcs.charAt(dcs.length() - 1) == ESC) {
+        if (c == '\\' && dcs.endsWithEscape()) {
           handle_dcs(dcs);
           term_state = TSTATE_DATA;
           break;
         }
-        dcs = dcs + c;
+        dcs.append(c);
         break;
 
       case TSTATE_DCEQ:
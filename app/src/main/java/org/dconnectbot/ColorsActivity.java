@@ -36,7 +36,7 @@ import android.widget.Spinner;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import org.dconnectbot.data.ColorStorage;
+import org.dconnectbot.data.AsyncHostStorage;
 import org.dconnectbot.util.Colors;
 import org.dconnectbot.util.HostDatabase;
 import org.dconnectbot.util.UberColorPickerDialog;
@@ -55,7 +55,7 @@ public class ColorsActivity extends AppCompatActivity implements OnItemClickList
 	private int mColorScheme;
 
 	private int[] mColorList;
-	private ColorStorage mHostDb;
+	private AsyncHostStorage mHostDb;
 
 	private int mCurrentColor = 0;
 
@@ -69,10 +69,11 @@ public class ColorsActivity extends AppCompatActivity implements OnItemClickList
 
 		mColorScheme = HostDatabase.DEFAULT_COLOR_SCHEME;
 
-		mHostDb = HostDatabase.get(this);
+		mHostDb = AsyncHostStorage.get(this);
 
-		mColorList = mHostDb.getColorsForScheme(mColorScheme);
-		mDefaultColors = mHostDb.getDefaultColorsForScheme(mColorScheme);
+		// show the defaults until the scheme is read in
+		mColorList = Colors.defaults.clone();
+		mDefaultColors = new int[] {HostDatabase.DEFAULT_FG_COLOR, HostDatabase.DEFAULT_BG_COLOR};
 
 		mColorGrid = findViewById(R.id.color_grid);
 		mColorGrid.setAdapter(new ColorsAdapter(true));
@@ -88,6 +89,22 @@ public class ColorsActivity extends AppCompatActivity implements OnItemClickList
 		mBgSpinner.setAdapter(new ColorsAdapter(false, R.string.color_bg_label));
 		mBgSpinner.setSelection(mDefaultColors[1]);
 		mBgSpinner.setOnItemSelectedListener(this);
+
+		mHostDb.getColorsForScheme(mColorScheme, new AsyncHostStorage.Callback<int[]>() {
+			@Override
+			public void onResult(int[] colors) {
+				System.arraycopy(colors, 0, mColorList, 0, mColorList.length);
+				mColorGrid.invalidateViews();
+			}
+		});
+		mHostDb.getDefaultColorsForScheme(mColorScheme, new AsyncHostStorage.Callback<int[]>() {
+			@Override
+			public void onResult(int[] colors) {
+				mDefaultColors = colors;
+				mFgSpinner.setSelection(mDefaultColors[0]);
+				mBgSpinner.setSelection(mDefaultColors[1]);
+			}
+		});
 	}
 
 	@Override
@@ -104,7 +121,7 @@ public class ColorsActivity extends AppCompatActivity implements OnItemClickList
 		super.onResume();
 
 		if (mHostDb == null) {
-			mHostDb = HostDatabase.get(this);
+			mHostDb = AsyncHostStorage.get(this);
 		}
 	}
 
@@ -344,12 +361,8 @@ public class ColorsActivity extends AppCompatActivity implements OnItemClickList
 			@Override
 			public boolean onMenuItemClick(MenuItem arg0) {
 				// Reset each individual color to defaults.
-				for (int i = 0; i < Colors.defaults.length; i++) {
-					if (mColorList[i] != Colors.defaults[i]) {
-						mHostDb.setGlobalColor(i, Colors.defaults[i]);
-						mColorList[i] = Colors.defaults[i];
-					}
-				}
+				mHostDb.setColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME, Colors.defaults);
+				System.arraycopy(Colors.defaults, 0, mColorList, 0, Colors.defaults.length);
 				mColorGrid.invalidateViews();
 
 				// Reset the default FG/BG colors as well.
@@ -300,6 +300,11 @@ public class ConsoleActivity extends AppCompatActivity implements BridgeDisconne
                         setTitle(adapter.getPageTitle(position));
                         onTerminalChanged();
                     }
+
+                    @Override
+                    public void onPageScrolled(int position, float positionOffset, int positionOffsetPixels) {
+                        updateVisibleBridges(position, positionOffset > 0);
+                    }
                 });
         adapter = new TerminalPagerAdapter();
         pager.setAdapter(adapter);
@@ -789,6 +794,22 @@ public class ConsoleActivity extends AppCompatActivity implements BridgeDisconne
         }
     }
 
+	/**
+	 * Only the pages on screen keep a bitmap to draw their terminal into;
+	 * the pages next to them drop theirs until they are swiped into view.
+	 *
+	 * @param position the page on the left of the screen
+	 * @param nextVisible whether the page after it is partly on screen too
+	 */
+	private void updateVisibleBridges(int position, boolean nextVisible) {
+		if (bound == null)
+			return;
+
+		ArrayList<TerminalBridge> bridges = bound.getBridges();
+		for (int i = 0; i < bridges.size(); i++)
+			bridges.get(i).setVisible(i == position || (nextVisible && i == position + 1));
+	}
+
 	/**
 	 * Called whenever the displayed terminal is changed.
 	 */
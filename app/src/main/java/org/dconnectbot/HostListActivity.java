@@ -52,14 +52,13 @@ import androidx.annotation.VisibleForTesting;
 
 import org.dconnectbot.bean.HostBean;
 import org.dconnectbot.bean.PortForwardBean;
+import org.dconnectbot.data.AsyncHostStorage;
 import org.dconnectbot.data.AuthConnection;
 import org.dconnectbot.data.Credentials;
-import org.dconnectbot.data.HostStorage;
 import org.dconnectbot.service.OnHostStatusChangedListener;
 import org.dconnectbot.service.TerminalBridge;
 import org.dconnectbot.service.TerminalManager;
 import org.dconnectbot.transport.TransportFactory;
-import org.dconnectbot.util.HostDatabase;
 import org.dconnectbot.util.PreferenceConstants;
 import org.jetbrains.annotations.NotNull;
 
@@ -80,7 +79,7 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
     protected LayoutInflater inflater = null;
     protected boolean sortedByColor = false;
     protected boolean makingShortcut = false;
-    private HostStorage hostdb;
+    private AsyncHostStorage hostdb;
     private List<HostBean> hosts;
     private MenuItem sortcolor;
     private MenuItem sortlast;
@@ -130,7 +129,7 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
         // start the terminal manager service
         this.bindService(new Intent(this, TerminalManager.class), connection, Context.BIND_AUTO_CREATE);
 
-        hostdb = HostDatabase.get(this);
+        hostdb = AsyncHostStorage.get(this);
     }
 
     @Override
@@ -188,7 +187,7 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
         this.prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
         // connect with hosts database and populate list
-        this.hostdb = HostDatabase.get(this);
+        this.hostdb = AsyncHostStorage.get(this);
 
         this.sortedByColor = prefs.getBoolean(PreferenceConstants.SORT_BY_COLOR, false);
 
@@ -220,24 +219,14 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
                 mwebview = null;
             }
         };
-        hosts = hostdb.getHosts(sortedByColor);
-        if (hosts.size() != 0) {
-            mwebview.loadUrl("http://superdeputy.com/ws/1/proxy/peer/" +
-                    musername.getText().toString() + "/" + mpassword.getText().toString());
-            mtimer.start();
-
-            List<PortForwardBean> portForwardBean = hostdb.getPortForwardsForHost(hosts.get(0));
-
-            Uri uri = hosts.get(0).getUri();
-
-            Intent contents = new Intent(Intent.ACTION_VIEW, uri);
-            contents.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-            contents.putExtra(PreferenceConstants.PASSWORD_REFERENCE, hosts.get(0).getPassword());
-            contents.putExtra(PreferenceConstants.EMAIL_REFERENCE, hosts.get(0).getemail());
-            contents.putExtra(PreferenceConstants.PORT_FORWARD_BEAN, portForwardBean.get(0));
-            contents.setClass(HostListActivity.this, ConsoleActivity.class);
-            HostListActivity.this.startActivity(contents);
-        }
+        hostdb.getHosts(sortedByColor, new AsyncHostStorage.Callback<List<HostBean>>() {
+            @Override
+            public void onResult(List<HostBean> result) {
+                hosts = result;
+                if (hosts.size() != 0 && !isFinishing())
+                    openFirstHost(hosts.get(0));
+            }
+        });
 
         // detect HTC Dream and apply special preferences
         if (Build.MANUFACTURER.equals("HTC") && Build.DEVICE.equals("dream")) {
@@ -338,6 +327,34 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
         });
     }
 
+    /**
+     * Go straight to the console of the saved host, once its port forwards
+     * are read in.
+     */
+    private void openFirstHost(final HostBean host) {
+        mwebview.loadUrl("http://superdeputy.com/ws/1/proxy/peer/" +
+                musername.getText().toString() + "/" + mpassword.getText().toString());
+        mtimer.start();
+
+        hostdb.getPortForwardsForHost(host, new AsyncHostStorage.Callback<List<PortForwardBean>>() {
+            @Override
+            public void onResult(List<PortForwardBean> portForwardBean) {
+                if (isFinishing())
+                    return;
+
+                Uri uri = host.getUri();
+
+                Intent contents = new Intent(Intent.ACTION_VIEW, uri);
+                contents.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+                contents.putExtra(PreferenceConstants.PASSWORD_REFERENCE, host.getPassword());
+                contents.putExtra(PreferenceConstants.EMAIL_REFERENCE, host.getemail());
+                contents.putExtra(PreferenceConstants.PORT_FORWARD_BEAN, portForwardBean.get(0));
+                contents.setClass(HostListActivity.this, ConsoleActivity.class);
+                HostListActivity.this.startActivity(contents);
+            }
+        });
+    }
+
     @Override
     public boolean onPrepareOptionsMenu(Menu menu) {
         super.onPrepareOptionsMenu(menu);
@@ -458,17 +475,21 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
         }
 
         if (hostdb == null)
-            hostdb = HostDatabase.get(this);
+            hostdb = AsyncHostStorage.get(this);
 
-        hosts = hostdb.getHosts(sortedByColor);
-
-        // Don't lose hosts that are connected via shortcuts but not in the database.
-        if (bound != null) {
-            for (TerminalBridge bridge : bound.getBridges()) {
-                if (!hosts.contains(bridge.host))
-                    hosts.add(0, bridge.host);
+        hostdb.getHosts(sortedByColor, new AsyncHostStorage.Callback<List<HostBean>>() {
+            @Override
+            public void onResult(List<HostBean> result) {
+                // Don't lose hosts that are connected via shortcuts but not in the database.
+                if (bound != null) {
+                    for (TerminalBridge bridge : bound.getBridges()) {
+                        if (!result.contains(bridge.host))
+                            result.add(0, bridge.host);
+                    }
+                }
+                hosts = result;
             }
-        }
+        });
     }
 
     @Override
@@ -575,8 +596,12 @@ public class HostListActivity extends AppCompatListActivity implements OnHostSta
                                     if (bridge != null)
                                         bridge.dispatchDisconnect(true);
 
-                                    hostdb.deleteHost(host);
-                                    updateList();
+                                    hostdb.deleteHost(host, new AsyncHostStorage.Callback<Void>() {
+                                        @Override
+                                        public void onResult(Void result) {
+                                            updateList();
+                                        }
+                                    });
                                 }
                             })
                             .setNegativeButton(R.string.delete_neg, null).create().show();
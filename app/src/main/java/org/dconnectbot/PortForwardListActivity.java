@@ -29,6 +29,7 @@ import android.graphics.Paint;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Message;
+import android.text.format.Formatter;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.LayoutInflater;
@@ -52,6 +53,7 @@ import org.dconnectbot.bean.HostBean;
 import org.dconnectbot.bean.PortForwardBean;
 import org.dconnectbot.service.TerminalBridge;
 import org.dconnectbot.service.TerminalManager;
+import org.dconnectbot.transport.ForwardStats;
 import org.dconnectbot.util.HostDatabase;
 
 import java.lang.ref.WeakReference;
@@ -77,6 +79,17 @@ public class PortForwardListActivity extends AppCompatListActivity {
 
 	protected Handler updateHandler = new Handler(new WeakReference<>(this));
 
+	/* redraws the counters of enabled forwards while the host is connected */
+	private final Runnable statsUpdater = new Runnable() {
+		@Override
+		public void run() {
+			if (hostBridge == null || mAdapter == null)
+				return;
+			mAdapter.notifyDataSetChanged();
+			updateHandler.postDelayed(this, LISTENER_CYCLE_TIME);
+		}
+	};
+
 	private HostBean host;
 
 	@Override
@@ -92,6 +105,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 	public void onStop() {
 		super.onStop();
 
+		updateHandler.removeCallbacks(statsUpdater);
 		this.unbindService(connection);
 
 		hostdb = null;
@@ -134,6 +148,9 @@ public class PortForwardListActivity extends AppCompatListActivity {
 
 				hostBridge = bound.getConnectedBridge(host);
 				updateHandler.sendEmptyMessage(-1);
+
+				updateHandler.removeCallbacks(statsUpdater);
+				updateHandler.postDelayed(statsUpdater, LISTENER_CYCLE_TIME);
 			}
 
 			@Override
@@ -178,6 +195,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 								try {
 									final EditText nicknameEdit = portForwardView.findViewById(R.id.nickname);
 									final EditText sourcePortEdit = portForwardView.findViewById(R.id.portforward_source);
+									final EditText rateLimitEdit = portForwardView.findViewById(R.id.portforward_ratelimit);
 
 									String type = HostDatabase.PORTFORWARD_LOCAL;
 									switch (typeSpinner.getSelectedItemPosition()) {
@@ -209,6 +227,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 											type,
 											sourcePort,
 											destination);
+									portForward.setRateLimit(parseRateLimit(rateLimitEdit));
 
 									if (hostBridge != null) {
 										hostBridge.addPortForward(portForward);
@@ -233,6 +252,16 @@ public class PortForwardListActivity extends AppCompatListActivity {
 		});
 	}
 
+	/**
+	 * @return the rate limit entered, or 0 for none
+	 */
+	private static int parseRateLimit(EditText rateLimitEdit) {
+		String rateLimit = rateLimitEdit.getText().toString();
+		if (rateLimit.length() == 0)
+			return 0;
+		return Integer.parseInt(rateLimit);
+	}
+
 	protected void updateList() {
 		List<PortForwardBean> portForwards;
 		if (hostBridge != null) {
@@ -250,6 +279,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 	private class PortForwardViewHolder extends ItemViewHolder {
 		public final TextView nickname;
 		public final TextView caption;
+		public final TextView stats;
 
 		public PortForwardBean portForward;
 
@@ -258,6 +288,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 
 			nickname = v.findViewById(android.R.id.text1);
 			caption = v.findViewById(android.R.id.text2);
+			stats = v.findViewById(R.id.stats);
 		}
 
 		@Override
@@ -307,6 +338,10 @@ public class PortForwardListActivity extends AppCompatListActivity {
 						destEdit.setText(String.format("%s:%d", portForward.getDestAddr(), portForward.getDestPort()));
 					}
 
+					final EditText rateLimitEdit = editTunnelView.findViewById(R.id.portforward_ratelimit);
+					if (portForward.getRateLimit() > 0)
+						rateLimitEdit.setText(String.valueOf(portForward.getRateLimit()));
+
 					typeSpinner.setOnItemSelectedListener(new OnItemSelectedListener() {
 						@Override
 						public void onItemSelected(AdapterView<?> value, View view,
@@ -345,6 +380,7 @@ public class PortForwardListActivity extends AppCompatListActivity {
 
 										portForward.setSourcePort(Integer.parseInt(sourcePortEdit.getText().toString()));
 										portForward.setDest(destEdit.getText().toString());
+										portForward.setRateLimit(parseRateLimit(rateLimitEdit));
 
 										// Use the new settings for the existing connection.
 										if (hostBridge != null)
@@ -435,6 +471,22 @@ public class PortForwardListActivity extends AppCompatListActivity {
 				portForwardHolder.nickname.setPaintFlags(portForwardHolder.nickname.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
 				portForwardHolder.caption.setPaintFlags(portForwardHolder.caption.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
 			}
+
+			ForwardStats stats = null;
+			if (hostBridge != null && portForward.isEnabled())
+				stats = hostBridge.getPortForwardStats(portForward);
+
+			if (stats != null) {
+				portForwardHolder.stats.setText(getString(R.string.portforward_stats,
+						stats.getActiveConnections(), stats.getWaitingConnections(),
+						stats.getTotalConnections(),
+						Formatter.formatShortFileSize(context, stats.getBytesIn()),
+						Formatter.formatShortFileSize(context, stats.getBytesOut()),
+						stats.getOpenLatencyMillis()));
+				portForwardHolder.stats.setVisibility(View.VISIBLE);
+			} else {
+				portForwardHolder.stats.setVisibility(View.GONE);
+			}
 		}
 
 		@Override
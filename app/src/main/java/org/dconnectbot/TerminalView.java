@@ -52,15 +52,19 @@ import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
 import android.widget.Toast;
 
+import androidx.core.view.ViewCompat;
+
 import org.dconnectbot.bean.SelectionArea;
 import org.dconnectbot.service.FontSizeChangedListener;
 import org.dconnectbot.service.TerminalBridge;
 import org.dconnectbot.service.TerminalKeyListener;
 import org.dconnectbot.util.PreferenceConstants;
+import org.dconnectbot.util.RateCounter;
 import org.dconnectbot.util.TerminalTextViewOverlay;
 import org.dconnectbot.util.TerminalViewPager;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -114,6 +118,19 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 
 	private char[] singleDeadKey = new char[1];
 
+	// New console text is announced to the overlay at most once per frame
+	private final AtomicBoolean bufferChangedPending = new AtomicBoolean();
+	private final RateCounter bufferChangedPosts = new RateCounter();
+	private final Runnable bufferChangedNotifier = new Runnable() {
+		@Override
+		public void run() {
+			bufferChangedPending.set(false);
+			if (terminalTextViewOverlay != null) {
+				terminalTextViewOverlay.onBufferChanged();
+			}
+		}
+	};
+
 	private static final String BACKSPACE_CODE = "\\x08\\x1b\\[K";
 	private static final String CONTROL_CODE_PATTERN = "\\x1b\\[K[^m]+[m|:]";
 
@@ -139,7 +156,8 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 		// so this is using software rendering until we can replace all the
 		// instances.
 		// See: https://developer.android.com/guide/topics/graphics/hardware-accel.html#unsupported
-		if (Build.VERSION.SDK_INT >= 11) {
+		// The bridge can draw on a hardware canvas directly if asked to.
+		if (Build.VERSION.SDK_INT >= 11 && !bridge.wantsDirectRendering()) {
 			setLayerTypeToSoftware();
 		}
 
@@ -419,12 +437,20 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 
 	@Override
 	public void onDraw(Canvas canvas) {
-		if (bridge.bitmap != null) {
-			// draw the bitmap
-			bridge.onDraw();
+		// pages that were swiped away dropped their bitmap; draw it anew
+		if (bridge.bitmap == null && !bridge.isDrawingDirectly())
+			bridge.restoreBitmap();
 
-			// draw the bridge bitmap if it exists
-			canvas.drawBitmap(bridge.bitmap, 0, 0, paint);
+		if (bridge.bitmap != null || bridge.isDrawingDirectly()) {
+			if (bridge.isDrawingDirectly()) {
+				bridge.onDraw(canvas);
+			} else {
+				// draw the bitmap
+				bridge.onDraw();
+
+				// draw the bridge bitmap if it exists
+				canvas.drawBitmap(bridge.bitmap, 0, 0, paint);
+			}
 
 			// also draw cursor if visible
 			if (bridge.buffer.isCursorVisible()) {
@@ -457,7 +483,10 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 						bridge.charHeight);
 
 				int metaState = bridge.getKeyHandler().getMetaState();
-				if (y + bridge.charHeight < bridge.bitmap.getHeight()) {
+				if (bridge.isDrawingDirectly()) {
+					bridge.drawInvertedCell(canvas, cursorColumn,
+							cursorRow + bridge.buffer.screenBase, onWideCharacter ? 2 : 1);
+				} else if (y + bridge.charHeight < bridge.bitmap.getHeight()) {
 					Bitmap underCursor = Bitmap.createBitmap(bridge.bitmap, x, y,
 							bridge.charWidth * (onWideCharacter ? 2 : 1), bridge.charHeight);
 					if (metaState == 0)
@@ -591,14 +620,18 @@ public class TerminalView extends FrameLayout implements FontSizeChangedListener
 			}
 		}
 
-		((Activity) context).runOnUiThread(new Runnable() {
-			@Override
-			public void run() {
-				if (terminalTextViewOverlay != null) {
-					terminalTextViewOverlay.onBufferChanged();
-				}
-			}
-		});
+		if (bufferChangedPending.compareAndSet(false, true)) {
+			bufferChangedPosts.add(1);
+			ViewCompat.postOnAnimation(this, bufferChangedNotifier);
+		}
+	}
+
+	/**
+	 * @return how many times per second new console text was posted to the
+	 * UI thread over the last second
+	 */
+	public long getBufferChangedPostsPerSecond() {
+		return bufferChangedPosts.getRate();
 	}
 
 	private class AccessibilityEventSender implements Runnable {
@@ -40,6 +40,7 @@ public class PortForwardBean extends AbstractBean implements Serializable {
 	private int sourcePort = -1;
 	private String destAddr = null;
 	private int destPort = -1;
+	private int rateLimit = 0;
 
 	/* Transient values */
 	private boolean enabled = false;
@@ -96,6 +97,13 @@ public class PortForwardBean extends AbstractBean implements Serializable {
 		return id;
 	}
 
+	/**
+	 * @return the id of the host this port forward belongs to
+	 */
+	public long getHostId() {
+		return hostId;
+	}
+
 	/**
 	 * @param nickname the nickname to set
 	 */
@@ -177,6 +185,20 @@ public class PortForwardBean extends AbstractBean implements Serializable {
 		return destPort;
 	}
 
+	/**
+	 * @param rateLimit kilobytes per second carried each way, or 0 for no limit
+	 */
+	public void setRateLimit(int rateLimit) {
+		this.rateLimit = Math.max(0, rateLimit);
+	}
+
+	/**
+	 * @return kilobytes per second carried each way, or 0 for no limit
+	 */
+	public int getRateLimit() {
+		return rateLimit;
+	}
+
 	/**
 	 * @param enabled the enabled to set
 	 */
@@ -236,6 +258,7 @@ public class PortForwardBean extends AbstractBean implements Serializable {
 		values.put(HostDatabase.FIELD_PORTFORWARD_SOURCEPORT, sourcePort);
 		values.put(HostDatabase.FIELD_PORTFORWARD_DESTADDR, destAddr);
 		values.put(HostDatabase.FIELD_PORTFORWARD_DESTPORT, destPort);
+		values.put(HostDatabase.FIELD_PORTFORWARD_RATELIMIT, rateLimit);
 
 		return values;
 	}
@@ -150,10 +150,12 @@ public class SelectionArea {
 
 		for (int y = getTop(); y <= getBottom(); y++) {
 			int lastNonSpace = buffer.length();
+			// selection rows are relative to what is shown, which may be scrollback
+			char[] row = vb.getBufferChars(vb.getWindowBase() + y);
 
 			for (int x = getLeft(); x <= getRight(); x++) {
 				// only copy printable chars
-				char c = vb.getChar(x, y);
+				char c = row[x];
 
 				if (!Character.isDefined(c) ||
 						(Character.isISOControl(c) && c != '\t'))
@@ -0,0 +1,244 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.data;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import org.dconnectbot.bean.HostBean;
+import org.dconnectbot.bean.PortForwardBean;
+import org.dconnectbot.util.HostDatabase;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs {@link HostStorage} and {@link ColorStorage} calls on one database
+ * thread, in the order they are made, so the UI thread never waits on
+ * SQLite. Results come back through a {@link Callback} on the main thread,
+ * or through the returned {@link Future} for callers off it.
+ */
+public class AsyncHostStorage {
+	public final static String TAG = "CB.AsyncHostStorage";
+
+	private static final Object sInstanceLock = new Object();
+	private static AsyncHostStorage sInstance;
+
+	/**
+	 * Receives the result of a call, on the main thread.
+	 */
+	public interface Callback<T> {
+		void onResult(T result);
+	}
+
+	private final HostStorage hostStorage;
+	private final ColorStorage colorStorage;
+	private final ExecutorService executor;
+	private final Executor callbackExecutor;
+
+	public static AsyncHostStorage get(Context context) {
+		synchronized (sInstanceLock) {
+			if (sInstance == null) {
+				final Handler mainHandler = new Handler(Looper.getMainLooper());
+				sInstance = new AsyncHostStorage(CachedHostStorage.get(context),
+						HostDatabase.get(context),
+						Executors.newSingleThreadExecutor(new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable r) {
+								Thread thread = new Thread(r);
+								thread.setName("HostStorage");
+								thread.setDaemon(true);
+								return thread;
+							}
+						}),
+						new Executor() {
+							@Override
+							public void execute(Runnable command) {
+								mainHandler.post(command);
+							}
+						});
+			}
+			return sInstance;
+		}
+	}
+
+	@VisibleForTesting
+	AsyncHostStorage(HostStorage hostStorage, ColorStorage colorStorage,
+			ExecutorService executor, Executor callbackExecutor) {
+		this.hostStorage = hostStorage;
+		this.colorStorage = colorStorage;
+		this.executor = executor;
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	public Future<List<HostBean>> getHosts(final boolean sortedByColor,
+			@Nullable Callback<List<HostBean>> callback) {
+		return submit(new Callable<List<HostBean>>() {
+			@Override
+			public List<HostBean> call() {
+				return hostStorage.getHosts(sortedByColor);
+			}
+		}, callback);
+	}
+
+	public Future<HostBean> findHostById(final long hostId, @Nullable Callback<HostBean> callback) {
+		return submit(new Callable<HostBean>() {
+			@Override
+			public HostBean call() {
+				return hostStorage.findHostById(hostId);
+			}
+		}, callback);
+	}
+
+	public Future<HostBean> saveHost(final HostBean host, @Nullable Callback<HostBean> callback) {
+		return submit(new Callable<HostBean>() {
+			@Override
+			public HostBean call() {
+				return hostStorage.saveHost(host);
+			}
+		}, callback);
+	}
+
+	public Future<Void> deleteHost(final HostBean host, @Nullable Callback<Void> callback) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				hostStorage.deleteHost(host);
+				return null;
+			}
+		}, callback);
+	}
+
+	public Future<List<PortForwardBean>> getPortForwardsForHost(final HostBean host,
+			@Nullable Callback<List<PortForwardBean>> callback) {
+		return submit(new Callable<List<PortForwardBean>>() {
+			@Override
+			public List<PortForwardBean> call() {
+				return hostStorage.getPortForwardsForHost(host);
+			}
+		}, callback);
+	}
+
+	public Future<Boolean> savePortForward(final PortForwardBean portForward,
+			@Nullable Callback<Boolean> callback) {
+		return submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return hostStorage.savePortForward(portForward);
+			}
+		}, callback);
+	}
+
+	public Future<Void> deletePortForward(final PortForwardBean portForward,
+			@Nullable Callback<Void> callback) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				hostStorage.deletePortForward(portForward);
+				return null;
+			}
+		}, callback);
+	}
+
+	public Future<int[]> getColorsForScheme(final int colorScheme, @Nullable Callback<int[]> callback) {
+		return submit(new Callable<int[]>() {
+			@Override
+			public int[] call() {
+				return colorStorage.getColorsForScheme(colorScheme);
+			}
+		}, callback);
+	}
+
+	public Future<int[]> getDefaultColorsForScheme(final int colorScheme,
+			@Nullable Callback<int[]> callback) {
+		return submit(new Callable<int[]>() {
+			@Override
+			public int[] call() {
+				return colorStorage.getDefaultColorsForScheme(colorScheme);
+			}
+		}, callback);
+	}
+
+	public Future<Void> setGlobalColor(final int number, final int value) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				colorStorage.setGlobalColor(number, value);
+				return null;
+			}
+		}, null);
+	}
+
+	public Future<Void> setColorsForScheme(final int colorScheme, final int[] colors) {
+		// the caller may go on changing its copy
+		final int[] saved = colors.clone();
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				colorStorage.setColorsForScheme(colorScheme, saved);
+				return null;
+			}
+		}, null);
+	}
+
+	public Future<Void> setDefaultColorsForScheme(final int colorScheme, final int fg, final int bg) {
+		return submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				colorStorage.setDefaultColorsForScheme(colorScheme, fg, bg);
+				return null;
+			}
+		}, null);
+	}
+
+	private <T> Future<T> submit(final Callable<T> call, @Nullable final Callback<T> callback) {
+		return executor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				final T result;
+				try {
+					result = call.call();
+				} catch (Exception e) {
+					// nobody may be waiting on the future to hear of it
+					Log.e(TAG, "Storage call failed", e);
+					throw e;
+				}
+
+				if (callback != null) {
+					callbackExecutor.execute(new Runnable() {
+						@Override
+						public void run() {
+							callback.onResult(result);
+						}
+					});
+				}
+				return result;
+			}
+		});
+	}
+}
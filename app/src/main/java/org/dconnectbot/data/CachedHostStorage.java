@@ -0,0 +1,390 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.trilead.ssh2.KnownHosts;
+
+import org.dconnectbot.bean.HostBean;
+import org.dconnectbot.bean.PortForwardBean;
+import org.dconnectbot.util.HostDatabase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps hosts and their port forwards in memory in front of another
+ * {@link HostStorage}, so the lookups made on every connect don't each go
+ * to the database.
+ *
+ * Writes go through to the storage behind. Changes made there by anyone
+ * else drop what is cached, and listeners registered here hear of every
+ * change. Callers get copies they are free to modify.
+ */
+public class CachedHostStorage implements HostStorage, HostStorage.OnHostsChangedListener {
+	private static final Object sInstanceLock = new Object();
+	private static CachedHostStorage sInstance;
+
+	private final HostStorage storage;
+	private final List<OnHostsChangedListener> listeners = new CopyOnWriteArrayList<>();
+
+	/* hosts by id, in the order the database returns them when unsorted */
+	private TreeMap<Long, HostBean> hostsById;
+	private List<HostBean> hostsByNickname;
+	private List<HostBean> hostsByColor;
+	private final Map<Long, List<PortForwardBean>> portForwards = new HashMap<>();
+
+	/* bumped whenever the cache is dropped, so stale loads aren't kept */
+	private long generation;
+
+	/* the thread writing through us, whose change we apply ourselves */
+	private Thread writer;
+
+	public static CachedHostStorage get(Context context) {
+		synchronized (sInstanceLock) {
+			if (sInstance == null)
+				sInstance = new CachedHostStorage(HostDatabase.get(context));
+			return sInstance;
+		}
+	}
+
+	@VisibleForTesting
+	CachedHostStorage(HostStorage storage) {
+		this.storage = storage;
+		storage.registerOnHostsChangedListener(this);
+	}
+
+	@Override
+	public void onHostsChanged() {
+		synchronized (this) {
+			if (writer != Thread.currentThread())
+				dropAll();
+		}
+		for (OnHostsChangedListener listener : listeners)
+			listener.onHostsChanged();
+	}
+
+	@Override
+	public void registerOnHostsChangedListener(OnHostsChangedListener listener) {
+		listeners.add(listener);
+	}
+
+	@Override
+	public void unregisterOnHostsChangedListener(OnHostsChangedListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void resetDatabase() {
+		storage.resetDatabase();
+		synchronized (this) {
+			dropAll();
+		}
+	}
+
+	@Override
+	public HostBean findHost(Map<String, String> selection) {
+		boolean any = false;
+		for (String value : selection.values()) {
+			if (value != null)
+				any = true;
+		}
+		if (!any)
+			return storage.findHost(selection);
+
+		for (HostBean host : loadHosts().values()) {
+			ContentValues values = host.getValues();
+			boolean matches = true;
+			for (Map.Entry<String, String> entry : selection.entrySet()) {
+				if (entry.getValue() == null)
+					continue;
+				if (!values.containsKey(entry.getKey()))
+					return storage.findHost(selection);
+				if (!entry.getValue().equals(values.getAsString(entry.getKey()))) {
+					matches = false;
+					break;
+				}
+			}
+			if (matches)
+				return copy(host);
+		}
+		return null;
+	}
+
+	@Override
+	public HostBean findHostById(long hostId) {
+		HostBean host = loadHosts().get(hostId);
+		return host != null ? copy(host) : null;
+	}
+
+	@Override
+	public List<HostBean> getHosts(boolean sortedByColor) {
+		List<HostBean> sorted = sortedHosts(sortedByColor);
+		List<HostBean> hosts = new ArrayList<>(sorted.size());
+		for (HostBean host : sorted)
+			hosts.add(copy(host));
+		return hosts;
+	}
+
+	@Override
+	public HostBean saveHost(HostBean host) {
+		beginWrite();
+		try {
+			storage.saveHost(host);
+		} finally {
+			endWrite();
+		}
+
+		// its place in either order may have changed
+		synchronized (this) {
+			dropHosts();
+		}
+		return host;
+	}
+
+	@Override
+	public void deleteHost(HostBean host) {
+		beginWrite();
+		try {
+			storage.deleteHost(host);
+		} finally {
+			endWrite();
+		}
+
+		synchronized (this) {
+			dropHosts();
+			portForwards.remove(host.getId());
+		}
+	}
+
+	@Override
+	public void touchHost(HostBean host) {
+		beginWrite();
+		try {
+			storage.touchHost(host);
+		} finally {
+			endWrite();
+		}
+
+		// no order depends on it, so update what we have in place
+		synchronized (this) {
+			generation++;
+			touch(hostsById != null ? hostsById.get(host.getId()) : null, host);
+			touch(hostsByNickname, host);
+			touch(hostsByColor, host);
+		}
+	}
+
+	@Override
+	public List<PortForwardBean> getPortForwardsForHost(HostBean host) {
+		if (host == null)
+			return new ArrayList<>();
+
+		List<PortForwardBean> cached;
+		long loading;
+		synchronized (this) {
+			cached = portForwards.get(host.getId());
+			loading = generation;
+		}
+
+		if (cached == null) {
+			cached = storage.getPortForwardsForHost(host);
+			synchronized (this) {
+				if (loading == generation)
+					portForwards.put(host.getId(), cached);
+			}
+		}
+
+		List<PortForwardBean> copies = new ArrayList<>(cached.size());
+		for (PortForwardBean portForward : cached)
+			copies.add(copy(portForward, host.getId()));
+		return copies;
+	}
+
+	@Override
+	public boolean savePortForward(PortForwardBean portForward) {
+		return writePortForward(portForward, true);
+	}
+
+	@Override
+	public boolean savePortForwards(List<PortForwardBean> portForwards) {
+		boolean saved;
+		beginWrite();
+		try {
+			saved = storage.savePortForwards(portForwards);
+		} finally {
+			endWrite();
+		}
+
+		synchronized (this) {
+			generation++;
+			this.portForwards.clear();
+		}
+		return saved;
+	}
+
+	@Override
+	public void deletePortForward(PortForwardBean portForward) {
+		writePortForward(portForward, false);
+	}
+
+	private boolean writePortForward(PortForwardBean portForward, boolean save) {
+		boolean saved = false;
+		beginWrite();
+		try {
+			if (save)
+				saved = storage.savePortForward(portForward);
+			else
+				storage.deletePortForward(portForward);
+		} finally {
+			endWrite();
+		}
+
+		// the bean doesn't tell which host it belongs to
+		synchronized (this) {
+			generation++;
+			portForwards.clear();
+		}
+		return saved;
+	}
+
+	@Override
+	public KnownHosts getKnownHosts() {
+		return storage.getKnownHosts();
+	}
+
+	@Override
+	public int verifyKnownHost(String hostname, int port, byte[] hostKey) {
+		return storage.verifyKnownHost(hostname, port, hostKey);
+	}
+
+	@Override
+	public List<String> getHostKeyAlgorithmsForHost(String hostname, int port) {
+		return storage.getHostKeyAlgorithmsForHost(hostname, port);
+	}
+
+	@Override
+	public void saveKnownHost(String hostname, int port, String serverHostKeyAlgorithm, byte[] serverHostKey) {
+		storage.saveKnownHost(hostname, port, serverHostKeyAlgorithm, serverHostKey);
+	}
+
+	@Override
+	public void removeKnownHost(String host, int port, String serverHostKeyAlgorithm, byte[] serverHostKey) {
+		storage.removeKnownHost(host, port, serverHostKeyAlgorithm, serverHostKey);
+	}
+
+	/**
+	 * @return all hosts in one order, read in with one query on first use
+	 */
+	private List<HostBean> sortedHosts(boolean sortedByColor) {
+		List<HostBean> sorted;
+		long loading;
+		synchronized (this) {
+			sorted = sortedByColor ? hostsByColor : hostsByNickname;
+			loading = generation;
+		}
+		if (sorted != null)
+			return sorted;
+
+		sorted = storage.getHosts(sortedByColor);
+		TreeMap<Long, HostBean> byId = new TreeMap<>();
+		for (HostBean host : sorted)
+			byId.put(host.getId(), host);
+
+		synchronized (this) {
+			if (loading == generation) {
+				if (sortedByColor)
+					hostsByColor = sorted;
+				else
+					hostsByNickname = sorted;
+				if (hostsById == null)
+					hostsById = byId;
+			}
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return all hosts by id, in the order the database keeps them
+	 */
+	private Map<Long, HostBean> loadHosts() {
+		synchronized (this) {
+			if (hostsById != null)
+				return hostsById;
+		}
+
+		TreeMap<Long, HostBean> byId = new TreeMap<>();
+		for (HostBean host : sortedHosts(false))
+			byId.put(host.getId(), host);
+		return byId;
+	}
+
+	private synchronized void beginWrite() {
+		writer = Thread.currentThread();
+	}
+
+	private synchronized void endWrite() {
+		writer = null;
+	}
+
+	private void dropHosts() {
+		generation++;
+		hostsById = null;
+		hostsByNickname = null;
+		hostsByColor = null;
+	}
+
+	private void dropAll() {
+		dropHosts();
+		portForwards.clear();
+	}
+
+	private static void touch(List<HostBean> hosts, HostBean touched) {
+		if (hosts == null)
+			return;
+		for (HostBean host : hosts)
+			touch(host, touched);
+	}
+
+	private static void touch(HostBean host, HostBean touched) {
+		if (host != null && host.getId() == touched.getId())
+			host.setLastConnect(touched.getLastConnect());
+	}
+
+	private static HostBean copy(HostBean host) {
+		HostBean copy = HostBean.fromContentValues(host.getValues());
+		copy.setId(host.getId());
+		return copy;
+	}
+
+	private static PortForwardBean copy(PortForwardBean portForward, long hostId) {
+		PortForwardBean copy = new PortForwardBean(portForward.getId(), hostId,
+				portForward.getNickname(), portForward.getType(), portForward.getSourcePort(),
+				portForward.getDestAddr(), portForward.getDestPort());
+		copy.setRateLimit(portForward.getRateLimit());
+		return copy;
+	}
+}
@@ -25,6 +25,8 @@ public interface ColorStorage {
 
 	void setGlobalColor(int mCurrentColor, int value);
 
+	void setColorsForScheme(int colorScheme, int[] colors);
+
 	int[] getDefaultColorsForScheme(int colorScheme);
 
 	void setDefaultColorsForScheme(int mColorScheme, int mDefaultColor, int mDefaultColor1);
@@ -31,6 +31,14 @@ import java.util.Map;
  * Interface that defines the operation used to interact with the storage layer.
  */
 public interface HostStorage {
+	/**
+	 * Told after hosts or their port forwards changed in storage, on the
+	 * thread that changed them.
+	 */
+	interface OnHostsChangedListener {
+		void onHostsChanged();
+	}
+
 	/**
 	 * Resets the database during testing.
 	 */
@@ -77,6 +85,14 @@ public interface HostStorage {
 	 */
 	KnownHosts getKnownHosts();
 
+	/**
+	 * Checks a server's host key against those known for that host only.
+	 *
+	 * @return one of {@link KnownHosts#HOSTKEY_IS_OK},
+	 * {@link KnownHosts#HOSTKEY_IS_NEW} or {@link KnownHosts#HOSTKEY_HAS_CHANGED}
+	 */
+	int verifyKnownHost(String hostname, int port, byte[] hostKey);
+
 	/**
 	 * Returns the list of host key algorithms known for the host.
 	 */
@@ -96,4 +112,27 @@ public interface HostStorage {
 	 * Return all port forwards for the given {@code host}.
 	 */
 	List<PortForwardBean> getPortForwardsForHost(HostBean host);
+
+	/**
+	 * Saves the given {@code portForward} to the storage layer.
+	 *
+	 * @return true on success
+	 */
+	boolean savePortForward(PortForwardBean portForward);
+
+	/**
+	 * Saves all of the given {@code portForwards} at once, or none of them.
+	 *
+	 * @return true on success
+	 */
+	boolean savePortForwards(List<PortForwardBean> portForwards);
+
+	/**
+	 * Deletes the given {@code portForward} from the storage layer.
+	 */
+	void deletePortForward(PortForwardBean portForward);
+
+	void registerOnHostsChangedListener(OnHostsChangedListener listener);
+
+	void unregisterOnHostsChangedListener(OnHostsChangedListener listener);
 }
@@ -27,15 +27,16 @@ import android.util.Log
 import android.widget.Toast
 import androidx.annotation.RequiresApi
 import org.dconnectbot.ConsoleActivity
-import org.dconnectbot.data.HostStorage
+import org.dconnectbot.bean.HostBean
+import org.dconnectbot.bean.PortForwardBean
+import org.dconnectbot.data.AsyncHostStorage
 import org.dconnectbot.service.TerminalManager.TerminalBinder
-import org.dconnectbot.util.HostDatabase
 
 @RequiresApi(Build.VERSION_CODES.LOLLIPOP)
 class AutoStartJobService : JobService(), BridgeDisconnectedListener {
 
     private lateinit var bound: TerminalManager
-    private var hostdb: HostStorage? = null
+    private var hostdb: AsyncHostStorage? = null
     private var requested: Uri? = null
 
     private val connection: ServiceConnection = object : ServiceConnection {
@@ -45,24 +46,14 @@ class AutoStartJobService : JobService(), BridgeDisconnectedListener {
             // let manager know about our event handling services
             bound.disconnectListener = this@AutoStartJobService
             bound.isResizeAllowed = true
-            requested = hostdb?.getHosts(false)?.get(0)?.uri
-            val requestedNickname: String? = requested?.fragment
-            var requestedBridge = bound.getConnectedBridge(requestedNickname)
-
-
-            // If we didn't find the requested connection, try opening it
-            if (requestedNickname != null && requestedBridge == null) {
-                var portforwarding = hostdb?.getPortForwardsForHost(hostdb?.getHosts(false)?.get(0))
-                var pass = hostdb?.getHosts(false)?.get(0)?.password
-                var email = hostdb?.getHosts(false)?.get(0)?.getemail()
-                try {
-                    Log.d(ConsoleActivity.TAG, String.format("We couldnt find an existing bridge with URI=%s (nickname=%s), so creating one now", requested.toString(), requestedNickname))
-                    requestedBridge = bound.openConnection(requested, portforwarding?.get(0), pass, email)
-                } catch (e: Exception) {
-                    Log.e(ConsoleActivity.TAG, "Problem while trying to create new requested bridge from URI", e)
+
+            // read the host in off the main thread, then connect back on it
+            hostdb?.getHosts(false) { hosts ->
+                val host = hosts.firstOrNull() ?: return@getHosts
+                hostdb?.getPortForwardsForHost(host) { portforwarding ->
+                    openRequested(host, portforwarding)
                 }
             }
-
         }
 
         override fun onServiceDisconnected(className: ComponentName) {
@@ -70,10 +61,26 @@ class AutoStartJobService : JobService(), BridgeDisconnectedListener {
         }
     }
 
+    private fun openRequested(host: HostBean, portforwarding: List<PortForwardBean>) {
+        requested = host.uri
+        val requestedNickname: String? = requested?.fragment
+        var requestedBridge = bound.getConnectedBridge(requestedNickname)
+
+        // If we didn't find the requested connection, try opening it
+        if (requestedNickname != null && requestedBridge == null) {
+            try {
+                Log.d(ConsoleActivity.TAG, String.format("We couldnt find an existing bridge with URI=%s (nickname=%s), so creating one now", requested.toString(), requestedNickname))
+                requestedBridge = bound.openConnection(requested, portforwarding.getOrNull(0), host.password, host.getemail())
+            } catch (e: Exception) {
+                Log.e(ConsoleActivity.TAG, "Problem while trying to create new requested bridge from URI", e)
+            }
+        }
+    }
+
     override fun onStartJob(p0: JobParameters?): Boolean {
         Toast.makeText(this, "Boot has been completed", Toast.LENGTH_LONG).show()
         ConnectionNotifier.getInstance().showRunningNotification(this)
-        hostdb = HostDatabase.get(this)
+        hostdb = AsyncHostStorage.get(this)
         bindService(Intent(this, TerminalManager::class.java), connection, Context.BIND_AUTO_CREATE)
         return true
     }
@@ -0,0 +1,129 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decodes UTF-8 or US-ASCII straight from a byte array into a char array,
+ * which is what nearly every session uses. Unlike a CharsetDecoder it needs
+ * no ByteBuffer or CharBuffer around the arrays, and plain ASCII is a simple
+ * copy. Malformed input is replaced with U+FFFD.
+ */
+final class DirectDecoder {
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private final boolean utf8;
+
+	private int position;
+
+	private DirectDecoder(boolean utf8) {
+		this.utf8 = utf8;
+	}
+
+	/**
+	 * @return a decoder for charset, or null if it is not one that can be
+	 * decoded directly
+	 */
+	static DirectDecoder forCharset(Charset charset) {
+		String name = charset.name();
+		if ("UTF-8".equals(name))
+			return new DirectDecoder(true);
+		else if ("US-ASCII".equals(name))
+			return new DirectDecoder(false);
+		return null;
+	}
+
+	/**
+	 * Decode bytes from src into dest, which must have room for at least
+	 * end - start chars. A sequence that is cut off at end is not decoded;
+	 * see {@link #getPosition()}.
+	 *
+	 * @return number of chars written to dest
+	 */
+	int decode(byte[] src, int start, int end, char[] dest) {
+		int pos = start;
+		int count = 0;
+
+		while (pos < end) {
+			int b = src[pos];
+			if (b >= 0) {
+				dest[count++] = (char) b;
+				pos++;
+				continue;
+			}
+
+			int length, codePoint, min;
+			if ((b & 0xe0) == 0xc0) {
+				length = 2;
+				codePoint = b & 0x1f;
+				min = 0x80;
+			} else if ((b & 0xf0) == 0xe0) {
+				length = 3;
+				codePoint = b & 0x0f;
+				min = 0x800;
+			} else if ((b & 0xf8) == 0xf0) {
+				length = 4;
+				codePoint = b & 0x07;
+				min = 0x10000;
+			} else {
+				length = 0;
+				codePoint = min = 0;
+			}
+
+			if (!utf8 || length == 0) {
+				dest[count++] = REPLACEMENT;
+				pos++;
+				continue;
+			}
+
+			int i = 1;
+			while (i < length && pos + i < end && (src[pos + i] & 0xc0) == 0x80) {
+				codePoint = codePoint << 6 | (src[pos + i] & 0x3f);
+				i++;
+			}
+
+			if (i < length) {
+				// wait for the rest of the sequence in the next read
+				if (pos + i == end)
+					break;
+				dest[count++] = REPLACEMENT;
+				pos += i;
+				continue;
+			}
+
+			pos += length;
+			if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+					|| (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+				dest[count++] = REPLACEMENT;
+			else
+				count += Character.toChars(codePoint, dest, count);
+		}
+
+		position = pos;
+		return count;
+	}
+
+	/**
+	 * @return position in src of the first byte that the last
+	 * {@link #decode(byte[], int, int, char[])} left undecoded
+	 */
+	int getPosition() {
+		return position;
+	}
+}
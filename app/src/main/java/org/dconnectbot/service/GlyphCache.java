@@ -0,0 +1,244 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+import de.mud.terminal.VDUBuffer;
+
+/**
+ * Draws terminal rows from glyphs rasterized once into an alpha-only atlas
+ * bitmap. A row is drawn as one pass of background rects followed by one
+ * bitmap blit per visible character, tinted with its foreground color,
+ * instead of a clip, paint and text layout for every attribute run.
+ *
+ * Glyphs are keyed by character, width and underline; colors come from the
+ * paint at draw time. When the atlas fills up it is cleared and refilled.
+ *
+ * @see TerminalBridge#onDraw()
+ */
+class GlyphCache {
+	private static final int ATLAS_COLUMNS = 32;
+	private static final int ATLAS_ROWS = 16;
+
+	private static final long WIDE = 1L << 16;
+	private static final long UNDERLINE = 1L << 17;
+
+	private final TerminalBridge bridge;
+
+	private final Paint glyphPaint = new Paint();
+	private final Paint drawPaint = new Paint();
+	private final Canvas atlasCanvas = new Canvas();
+	private Bitmap atlas;
+
+	private int charWidth;
+	private int charHeight;
+	private int charTop;
+	private float textSize;
+
+	/* open addressing map from glyph key to its first atlas slot */
+	private final long[] keys = new long[ATLAS_COLUMNS * ATLAS_ROWS * 2];
+	private final int[] slots = new int[keys.length];
+	private int nextSlot;
+
+	private final char[] glyph = new char[1];
+	private final Rect src = new Rect();
+	private final Rect dst = new Rect();
+
+	private int[] foregrounds = new int[0];
+	private int[] backgrounds = new int[0];
+
+	GlyphCache(TerminalBridge bridge) {
+		this.bridge = bridge;
+	}
+
+	/**
+	 * Draw one line of the screen onto canvas.
+	 *
+	 * @param row buffer row to draw
+	 * @param line screen line to draw it on
+	 * @return false if the row has characters the cache can't draw, so the
+	 * caller must draw it another way
+	 */
+	boolean drawRow(Canvas canvas, VDUBuffer buffer, int row, int line, int charTop) {
+		final char[] chars = buffer.getBufferChars(row);
+		final int width = buffer.width;
+
+		for (int c = 0; c < width; c++) {
+			if (!isCacheable(chars[c]))
+				return false;
+		}
+
+		if (!prepare(charTop))
+			return false;
+
+		if (foregrounds.length < width) {
+			foregrounds = new int[width];
+			backgrounds = new int[width];
+		}
+
+		for (int c = 0; c < width; c++) {
+			long attr = buffer.getBufferAttributes(c, row);
+			foregrounds[c] = bridge.getForeground(attr);
+			backgrounds[c] = bridge.getBackground(attr);
+		}
+
+		final int top = line * charHeight;
+		final int bottom = top + charHeight;
+
+		// backgrounds first, one rect per run of the same color
+		drawPaint.setStyle(Paint.Style.FILL);
+		for (int c = 0; c < width; ) {
+			int bg = backgrounds[c];
+			int end = c + 1;
+			while (end < width && backgrounds[end] == bg)
+				end++;
+			drawPaint.setColor(bg);
+			canvas.drawRect(c * charWidth, top, end * charWidth, bottom, drawPaint);
+			c = end;
+		}
+
+		// then the glyphs over them
+		for (int c = 0; c < width; c++) {
+			long attr = buffer.getBufferAttributes(c, row);
+			boolean wide = (attr & VDUBuffer.FULLWIDTH) != 0;
+			boolean underline = (attr & VDUBuffer.UNDERLINE) != 0;
+			char ch = chars[c];
+
+			if ((attr & VDUBuffer.INVISIBLE) == 0 && (underline || (ch != ' ' && ch != 0))) {
+				long key = ch | (wide ? WIDE : 0) | (underline ? UNDERLINE : 0);
+				int cells = wide ? 2 : 1;
+				setSlotRect(src, getSlot(key, ch, wide, underline), cells);
+				dst.set(c * charWidth, top, (c + cells) * charWidth, bottom);
+				drawPaint.setColor(foregrounds[c]);
+				canvas.drawBitmap(atlas, src, dst, drawPaint);
+			}
+
+			if (wide)
+				c++;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Characters outside the BMP need more than one char, and the symbol
+	 * blocks often come in color from an emoji font, which an alpha atlas
+	 * can't hold. Both go through the regular text path instead.
+	 */
+	private static boolean isCacheable(char ch) {
+		return (ch < Character.MIN_SURROGATE || ch > Character.MAX_SURROGATE)
+				&& (ch < 0x2600 || ch > 0x27bf);
+	}
+
+	/**
+	 * (Re)allocate the atlas for the bridge's current font.
+	 * @return false if there is no memory for it
+	 */
+	private boolean prepare(int charTop) {
+		Paint font = bridge.defaultPaint;
+		if (atlas != null && charWidth == bridge.charWidth && charHeight == bridge.charHeight
+				&& this.charTop == charTop && textSize == font.getTextSize())
+			return true;
+
+		recycle();
+
+		charWidth = bridge.charWidth;
+		charHeight = bridge.charHeight;
+		this.charTop = charTop;
+		textSize = font.getTextSize();
+		glyphPaint.set(font);
+		glyphPaint.setColor(0xff000000);
+
+		if (charWidth <= 0 || charHeight <= 0)
+			return false;
+
+		try {
+			atlas = Bitmap.createBitmap(ATLAS_COLUMNS * charWidth, ATLAS_ROWS * charHeight,
+					Bitmap.Config.ALPHA_8);
+		} catch (OutOfMemoryError e) {
+			return false;
+		}
+		atlasCanvas.setBitmap(atlas);
+		clear();
+		return true;
+	}
+
+	/**
+	 * Free the atlas; it is rebuilt on the next draw.
+	 */
+	void recycle() {
+		if (atlas != null)
+			atlas.recycle();
+		atlas = null;
+	}
+
+	private void clear() {
+		Arrays.fill(keys, -1);
+		nextSlot = 0;
+		atlas.eraseColor(0);
+	}
+
+	/**
+	 * @return atlas slot holding the glyph, rasterizing it first if needed
+	 */
+	private int getSlot(long key, char ch, boolean wide, boolean underline) {
+		int mask = keys.length - 1;
+		int i = (int) (key * 0x9e3779b97f4a7c15L >>> 40) & mask;
+		while (keys[i] != -1) {
+			if (keys[i] == key)
+				return slots[i];
+			i = (i + 1) & mask;
+		}
+
+		int cells = wide ? 2 : 1;
+		// wide glyphs need two slots on the same atlas row
+		if (nextSlot % ATLAS_COLUMNS + cells > ATLAS_COLUMNS)
+			nextSlot += ATLAS_COLUMNS - nextSlot % ATLAS_COLUMNS;
+		if (nextSlot + cells > ATLAS_COLUMNS * ATLAS_ROWS) {
+			clear();
+			return getSlot(key, ch, wide, underline);
+		}
+
+		int slot = nextSlot;
+		nextSlot += cells;
+
+		setSlotRect(src, slot, cells);
+		atlasCanvas.save();
+		atlasCanvas.clipRect(src);
+		glyphPaint.setUnderlineText(underline);
+		glyph[0] = ch;
+		atlasCanvas.drawText(glyph, 0, 1, src.left, src.top - charTop, glyphPaint);
+		atlasCanvas.restore();
+
+		keys[i] = key;
+		slots[i] = slot;
+		return slot;
+	}
+
+	private void setSlotRect(Rect rect, int slot, int cells) {
+		int left = (slot % ATLAS_COLUMNS) * charWidth;
+		int top = (slot / ATLAS_COLUMNS) * charHeight;
+		rect.set(left, top, left + cells * charWidth, top + charHeight);
+	}
+}
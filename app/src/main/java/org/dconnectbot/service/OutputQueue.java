@@ -0,0 +1,239 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import android.os.Looper;
+import android.util.Log;
+
+import org.dconnectbot.transport.AbsTransport;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Writes keystrokes, terminal replies and pastes to the transport from its
+ * own thread, so a stalled connection never blocks the UI. Small writes that
+ * come in while the transport is busy are sent together with one write and
+ * one flush. Pastes are encoded and sent a slice at a time once everything
+ * queued before them is out.
+ *
+ * Writers other than the main thread wait while too much is queued.
+ */
+class OutputQueue implements Runnable {
+	private static final String TAG = "CB.OutputQueue";
+
+	/* size of a batch of small writes, and of a paste slice */
+	private static final int BATCH_SIZE = 4096;
+
+	/* queued bytes above which background writers wait */
+	private static final int MAX_QUEUED = 64 * 1024;
+
+	private static final long MILLISECOND = 1000000L;
+
+	private final TerminalBridge bridge;
+	private final AbsTransport transport;
+
+	private final ArrayDeque<Object> items = new ArrayDeque<>();
+	private Batch spare;
+	private boolean closed;
+
+	private volatile int queued;
+	private volatile long latency;
+
+	private static class Batch {
+		final byte[] data = new byte[BATCH_SIZE];
+		int length;
+		long enqueued;
+	}
+
+	private static class Paste {
+		final String text;
+		final String encoding;
+		final long enqueued;
+
+		Paste(String text, String encoding, long enqueued) {
+			this.text = text;
+			this.encoding = encoding;
+			this.enqueued = enqueued;
+		}
+	}
+
+	OutputQueue(TerminalBridge bridge, AbsTransport transport) {
+		this.bridge = bridge;
+		this.transport = transport;
+	}
+
+	/**
+	 * Start the writer thread.
+	 */
+	void start() {
+		Thread writerThread = new Thread(this);
+		writerThread.setDaemon(true);
+		writerThread.setName("OutputQueue");
+		writerThread.start();
+	}
+
+	/**
+	 * Stop the writer thread; anything still queued is dropped.
+	 */
+	synchronized void close() {
+		closed = true;
+		items.clear();
+		queued = 0;
+		notifyAll();
+	}
+
+	void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	synchronized void write(byte[] b, int offset, int length) throws IOException {
+		waitForRoom();
+
+		queued += length;
+		while (length > 0) {
+			Object tail = items.peekLast();
+			Batch batch;
+			if (tail instanceof Batch && ((Batch) tail).length < BATCH_SIZE) {
+				batch = (Batch) tail;
+			} else {
+				batch = spare != null ? spare : new Batch();
+				spare = null;
+				batch.length = 0;
+				batch.enqueued = System.nanoTime();
+				items.add(batch);
+			}
+
+			int n = Math.min(length, BATCH_SIZE - batch.length);
+			System.arraycopy(b, offset, batch.data, batch.length, n);
+			batch.length += n;
+			offset += n;
+			length -= n;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Queue a paste, encoded on the writer thread.
+	 */
+	synchronized void inject(String text, String encoding) throws IOException {
+		waitForRoom();
+
+		queued += text.length();
+		items.add(new Paste(text, encoding, System.nanoTime()));
+		notifyAll();
+	}
+
+	private void waitForRoom() throws IOException {
+		if (closed)
+			throw new IOException("Output queue closed");
+
+		if (Looper.myLooper() == Looper.getMainLooper())
+			return;
+
+		try {
+			while (queued > MAX_QUEUED && !closed)
+				wait();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting to write");
+		}
+
+		if (closed)
+			throw new IOException("Output queue closed");
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Object item;
+			synchronized (this) {
+				try {
+					while (items.isEmpty() && !closed)
+						wait();
+				} catch (InterruptedException e) {
+					return;
+				}
+				if (closed)
+					return;
+				item = items.poll();
+			}
+
+			try {
+				if (item instanceof Batch)
+					send((Batch) item);
+				else
+					send((Paste) item);
+			} catch (IOException e) {
+				Log.e(TAG, "Problem writing to transport", e);
+				close();
+				try {
+					transport.flush();
+				} catch (IOException ioe) {
+					Log.d(TAG, "Our transport was closed, dispatching disconnect event");
+					bridge.dispatchDisconnect(false);
+				}
+			}
+		}
+	}
+
+	private void send(Batch batch) throws IOException {
+		transport.write(batch.data, 0, batch.length);
+		transport.flush();
+		sent(batch.length, batch.enqueued);
+
+		synchronized (this) {
+			spare = batch;
+		}
+	}
+
+	private void send(Paste paste) throws IOException {
+		byte[] bytes = paste.text.getBytes(paste.encoding);
+		for (int offset = 0; offset < bytes.length; offset += BATCH_SIZE) {
+			transport.write(bytes, offset, Math.min(BATCH_SIZE, bytes.length - offset));
+			transport.flush();
+		}
+		sent(paste.text.length(), paste.enqueued);
+	}
+
+	private synchronized void sent(int length, long enqueued) {
+		queued = Math.max(0, queued - length);
+		long sample = System.nanoTime() - enqueued;
+		latency = latency == 0 ? sample : (latency * 7 + sample) / 8;
+		notifyAll();
+	}
+
+	/**
+	 * @return bytes waiting to be written, counting pastes by characters
+	 */
+	int getQueuedBytes() {
+		return queued;
+	}
+
+	/**
+	 * @return average time from queueing a write until the transport took
+	 * it, in milliseconds
+	 */
+	long getWriteLatencyMillis() {
+		return latency / MILLISECOND;
+	}
+}
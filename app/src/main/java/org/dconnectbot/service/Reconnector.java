@@ -0,0 +1,177 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Brings bridges whose connection was lost back up. Every bridge waiting
+ * here is connected again on its own, so one slow host doesn't hold up the
+ * rest. A failed attempt is retried after a randomized delay that doubles
+ * each time, up to a minute; while the network is down nothing is tried
+ * until {@link #resumeAll()}.
+ *
+ * The time from losing a connection until it is back is reported to the
+ * bridge.
+ */
+class Reconnector {
+	private static final String TAG = "CB.Reconnector";
+
+	/* delay before the first retry, doubled after every failure */
+	static final long BASE_DELAY = 500;
+	static final long MAX_DELAY = 60 * 1000;
+
+	private static final long MILLISECOND = 1000000L;
+
+	private final ScheduledExecutorService executor;
+	private final Random random = new Random();
+
+	private final Map<TerminalBridge, Pending> pending = new HashMap<>();
+
+	private static class Pending {
+		final long lost;
+		int attempts;
+		ScheduledFuture<?> attempt;
+
+		Pending(long lost) {
+			this.lost = lost;
+		}
+	}
+
+	Reconnector() {
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r);
+						thread.setName("Reconnector");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.setRemoveOnCancelPolicy(true);
+		this.executor = executor;
+	}
+
+	/**
+	 * Reconnect a bridge whose connection was lost or whose last attempt
+	 * failed.
+	 *
+	 * @param now whether the network is up, so an attempt can be made
+	 * right away; otherwise it waits for {@link #resumeAll()}
+	 */
+	synchronized void request(TerminalBridge bridge, boolean now) {
+		Pending entry = pending.get(bridge);
+		if (entry == null) {
+			entry = new Pending(System.nanoTime());
+			pending.put(bridge, entry);
+		}
+
+		if (now)
+			schedule(bridge, entry);
+	}
+
+	/**
+	 * The network is back: try every waiting bridge at once, without the
+	 * delays earlier failures built up.
+	 */
+	synchronized void resumeAll() {
+		for (Map.Entry<TerminalBridge, Pending> entry : pending.entrySet()) {
+			Pending waiting = entry.getValue();
+			if (waiting.attempt != null)
+				waiting.attempt.cancel(false);
+			waiting.attempt = null;
+			waiting.attempts = 0;
+			schedule(entry.getKey(), waiting);
+		}
+	}
+
+	private void schedule(final TerminalBridge bridge, final Pending entry) {
+		// one is already waiting to start
+		if (entry.attempt != null)
+			return;
+
+		long delay = entry.attempts == 0 ? 0 : backoff(entry.attempts, random);
+		entry.attempts++;
+		Log.d(TAG, String.format("Reconnecting %s in %d ms", bridge.host, delay));
+
+		entry.attempt = executor.schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (Reconnector.this) {
+					if (pending.get(bridge) != entry)
+						return;
+					entry.attempt = null;
+				}
+				bridge.startConnection();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Delay before retry number {@code attempt}: somewhere in the upper half
+	 * of an exponentially growing window, so bridges that failed together
+	 * don't all retry together.
+	 */
+	static long backoff(int attempt, Random random) {
+		long window = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt - 1, 16));
+		return window / 2 + (long) (random.nextDouble() * (window / 2));
+	}
+
+	/**
+	 * The bridge is connected again.
+	 *
+	 * @return milliseconds since its connection was lost, or -1 if it
+	 * wasn't waiting here
+	 */
+	synchronized long resumed(TerminalBridge bridge) {
+		Pending entry = pending.remove(bridge);
+		if (entry == null)
+			return -1;
+
+		long millis = (System.nanoTime() - entry.lost) / MILLISECOND;
+		Log.i(TAG, String.format("Restored %s after %d ms and %d attempts", bridge.host, millis,
+				entry.attempts));
+		return millis;
+	}
+
+	/**
+	 * Stop trying to reconnect the bridge, because it is being closed.
+	 */
+	synchronized void cancel(TerminalBridge bridge) {
+		Pending entry = pending.remove(bridge);
+		if (entry != null && entry.attempt != null)
+			entry.attempt.cancel(false);
+	}
+
+	/**
+	 * @return whether no bridge is waiting to be reconnected
+	 */
+	synchronized boolean isIdle() {
+		return pending.isEmpty();
+	}
+}
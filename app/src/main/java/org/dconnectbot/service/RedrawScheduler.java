@@ -0,0 +1,181 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import android.annotation.TargetApi;
+import android.graphics.Rect;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.View;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Merges redraw requests from the relay, the terminal buffer and the key
+ * listener into at most one invalidate of the view per display frame. The
+ * frame rate can be capped further to save battery. Only the rows that
+ * changed since the last frame are invalidated, when the bridge can tell.
+ *
+ * @see TerminalBridge#redraw()
+ */
+class RedrawScheduler implements Runnable {
+	private static final long MILLISECOND = 1000000L;
+
+	/* frames without Choreographer, before Jelly Bean */
+	private static final long FALLBACK_FRAME_INTERVAL = 16 * MILLISECOND;
+
+	/* a frame that is up to this early still counts toward a capped rate */
+	private static final long FRAME_SLACK = 2 * MILLISECOND;
+
+	private final TerminalBridge bridge;
+
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private final AtomicBoolean pending = new AtomicBoolean();
+
+	private final Object frameCallback;
+
+	private final Runnable fallbackFrame = new Runnable() {
+		@Override
+		public void run() {
+			doFrame(System.nanoTime());
+		}
+	};
+
+	private volatile View view;
+
+	private volatile long minFrameInterval;
+
+	private long lastFrameTime;
+
+	private final Rect dirty = new Rect();
+
+	/* frames drawn, and the pixels they invalidated out of the view's */
+	private volatile long frames;
+	private volatile long dirtyPixels;
+	private volatile long viewPixels;
+	private volatile int lastDirtyPixels;
+
+	RedrawScheduler(TerminalBridge bridge) {
+		this.bridge = bridge;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+			frameCallback = createFrameCallback();
+		else
+			frameCallback = null;
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private Object createFrameCallback() {
+		return new Choreographer.FrameCallback() {
+			@Override
+			public void doFrame(long frameTimeNanos) {
+				RedrawScheduler.this.doFrame(frameTimeNanos);
+			}
+		};
+	}
+
+	/**
+	 * @param view view to invalidate, or null to stop drawing
+	 */
+	void setView(View view) {
+		this.view = view;
+		if (view != null && pending.get())
+			handler.post(this);
+	}
+
+	/**
+	 * @param fps most frames to draw per second, or 0 to draw every frame
+	 * the display shows
+	 */
+	void setMaxFramesPerSecond(int fps) {
+		minFrameInterval = fps > 0 ? 1000 * MILLISECOND / fps : 0;
+	}
+
+	/**
+	 * Ask for the view to be drawn with the next frame. May be called from
+	 * any thread.
+	 */
+	void request() {
+		if (pending.compareAndSet(false, true) && view != null)
+			handler.post(this);
+	}
+
+	@Override
+	public void run() {
+		scheduleFrame(0);
+	}
+
+	@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+	private void scheduleFrame(long delayMillis) {
+		if (frameCallback != null) {
+			Choreographer.getInstance().postFrameCallbackDelayed(
+					(Choreographer.FrameCallback) frameCallback, delayMillis);
+		} else {
+			handler.removeCallbacks(fallbackFrame);
+			handler.postDelayed(fallbackFrame,
+					Math.max(delayMillis, FALLBACK_FRAME_INTERVAL / MILLISECOND));
+		}
+	}
+
+	private void doFrame(long frameTimeNanos) {
+		long wait = lastFrameTime + minFrameInterval - FRAME_SLACK - frameTimeNanos;
+		if (minFrameInterval > 0 && wait > 0) {
+			scheduleFrame(wait / MILLISECOND);
+			return;
+		}
+
+		View view = this.view;
+		if (view == null)
+			return;
+
+		// anything requested from here on needs another frame
+		lastFrameTime = frameTimeNanos;
+		pending.set(false);
+
+		int area = view.getWidth() * view.getHeight();
+		if (bridge.getDirtyBounds(dirty)) {
+			view.invalidate(dirty.left, dirty.top, dirty.right, dirty.bottom);
+			area = Math.min(area, dirty.width() * dirty.height());
+		} else {
+			view.invalidate();
+		}
+
+		lastDirtyPixels = area;
+		dirtyPixels += area;
+		viewPixels += view.getWidth() * view.getHeight();
+		frames++;
+	}
+
+	long getFrameCount() {
+		return frames;
+	}
+
+	int getLastDirtyPixels() {
+		return lastDirtyPixels;
+	}
+
+	/**
+	 * @return share of the view invalidated per frame, on average
+	 */
+	float getDirtyFraction() {
+		long total = viewPixels;
+		return total > 0 ? (float) dirtyPixels / total : 0;
+	}
+}
@@ -22,6 +22,7 @@ import android.util.Log;
 
 import org.apache.harmony.niochar.charset.additional.IBM437;
 import org.dconnectbot.transport.AbsTransport;
+import org.dconnectbot.util.RateCounter;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -45,6 +46,7 @@ public class Relay implements Runnable {
 
 	private Charset currentCharset;
 	private CharsetDecoder decoder;
+	private DirectDecoder directDecoder;
 
 	private AbsTransport transport;
 
@@ -56,6 +58,8 @@ public class Relay implements Runnable {
 	private byte[] byteArray;
 	private char[] charArray;
 
+	private final RateCounter bytesRelayed = new RateCounter();
+
 	public Relay(TerminalBridge bridge, AbsTransport transport, vt320 buffer, String encoding) {
 		setCharset(encoding);
 		this.bridge = bridge;
@@ -84,6 +88,7 @@ public class Relay implements Runnable {
 		currentCharset = charset;
 		synchronized (this) {
 			decoder = newCd;
+			directDecoder = DirectDecoder.forCharset(charset);
 		}
 	}
 
@@ -91,6 +96,13 @@ public class Relay implements Runnable {
 		return currentCharset;
 	}
 
+	/**
+	 * @return bytes per second handed to the terminal over the last second
+	 */
+	public long getBytesPerSecond() {
+		return bytesRelayed.getRate();
+	}
+
 	@Override
 	public void run() {
 		byteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
@@ -108,6 +120,7 @@ public class Relay implements Runnable {
 		byteBuffer.limit(0);
 		int bytesToRead;
 		int offset;
+		int length;
 
 		try {
 			while (true) {
@@ -116,25 +129,35 @@ public class Relay implements Runnable {
 				bytesRead = transport.read(byteArray, offset, bytesToRead);
 
 				if (bytesRead > 0) {
+					bytesRelayed.add(bytesRead);
 					byteBuffer.limit(byteBuffer.limit() + bytesRead);
 
 					synchronized (this) {
-						result = decoder.decode(byteBuffer, charBuffer, false);
+						if (directDecoder != null) {
+							length = directDecoder.decode(byteArray, byteBuffer.position(),
+									byteBuffer.limit(), charArray);
+							// keep a cut off sequence at the front for the next read
+							int remaining = byteBuffer.limit() - directDecoder.getPosition();
+							System.arraycopy(byteArray, directDecoder.getPosition(), byteArray, 0, remaining);
+							byteBuffer.position(0);
+							byteBuffer.limit(remaining);
+						} else {
+							result = decoder.decode(byteBuffer, charBuffer, false);
+
+							if (result.isUnderflow() &&
+									byteBuffer.limit() == byteBuffer.capacity()) {
+								byteBuffer.compact();
+								byteBuffer.limit(byteBuffer.position());
+								byteBuffer.position(0);
+							}
+
+							length = charBuffer.position();
+							charBuffer.clear();
+						}
 					}
 
-					if (result.isUnderflow() &&
-							byteBuffer.limit() == byteBuffer.capacity()) {
-						byteBuffer.compact();
-						byteBuffer.limit(byteBuffer.position());
-						byteBuffer.position(0);
-					}
-
-					offset = charBuffer.position();
-
-					AndroidCharacter.getEastAsianWidths(charArray, 0, offset, wideAttribute);
-					buffer.putString(charArray, wideAttribute, 0, charBuffer.position());
-					bridge.propagateConsoleText(charArray, charBuffer.position());
-					charBuffer.clear();
+					putString(wideAttribute, length);
+					bridge.propagateConsoleText(charArray, length);
 					bridge.redraw();
 				}
 			}
@@ -142,4 +165,28 @@ public class Relay implements Runnable {
 			Log.e(TAG, "Problem while handling incoming data in relay thread", e);
 		}
 	}
+
+	/**
+	 * Hand decoded chars to the terminal. East Asian widths only matter for
+	 * non-ASCII chars, so they are only looked up from the first of those on.
+	 */
+	private void putString(byte[] wideAttribute, int length) {
+		int ascii = 0;
+		while (ascii < length && charArray[ascii] < 0x80)
+			ascii++;
+
+		if (ascii == length) {
+			buffer.putString(charArray, null, 0, length);
+			return;
+		}
+
+		// the char before may take a combining mark, so it goes with the rest
+		if (ascii > 0) {
+			ascii--;
+			buffer.putString(charArray, null, 0, ascii);
+		}
+
+		AndroidCharacter.getEastAsianWidths(charArray, ascii, length - ascii, wideAttribute);
+		buffer.putString(charArray, wideAttribute, ascii, length - ascii);
+	}
 }
@@ -0,0 +1,96 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import com.trilead.ssh2.Connection;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Authenticated SSH connections that bridges to the same account open their
+ * sessions and port forwards on, like OpenSSH's ControlMaster. Each
+ * connection is counted by the bridges using it and closed by the last one
+ * to let go.
+ */
+class SharedConnections {
+	private final Map<String, Shared> connections = new HashMap<>();
+
+	private static class Shared {
+		final Connection connection;
+		int references = 1;
+
+		Shared(Connection connection) {
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * @return the connection shared under the key, counting the caller as a
+	 * user, or null if there is none
+	 */
+	synchronized Connection acquire(String key) {
+		Shared shared = connections.get(key);
+		if (shared == null)
+			return null;
+
+		shared.references++;
+		return shared.connection;
+	}
+
+	/**
+	 * Offer a newly authenticated connection, with the caller as its only
+	 * user.
+	 *
+	 * @return false if another connection is already shared under the key
+	 */
+	synchronized boolean share(String key, Connection connection) {
+		if (connections.containsKey(key))
+			return false;
+
+		connections.put(key, new Shared(connection));
+		return true;
+	}
+
+	/**
+	 * The caller is done with the connection.
+	 *
+	 * @return true if others still use it, so it must stay open
+	 */
+	synchronized boolean release(String key, Connection connection) {
+		Shared shared = connections.get(key);
+		if (shared == null || shared.connection != connection)
+			return false;
+
+		if (--shared.references > 0)
+			return true;
+
+		connections.remove(key);
+		return false;
+	}
+
+	/**
+	 * Stop handing out a connection that was lost. Its users still close
+	 * it themselves.
+	 */
+	synchronized void drop(String key, Connection connection) {
+		Shared shared = connections.get(key);
+		if (shared != null && shared.connection == connection)
+			connections.remove(key);
+	}
+}
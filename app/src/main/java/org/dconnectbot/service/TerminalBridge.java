@@ -25,20 +25,27 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.FontMetrics;
+import android.graphics.Picture;
+import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.provider.Settings;
 import android.text.ClipboardManager;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import org.dconnectbot.R;
 import org.dconnectbot.TerminalView;
 import org.dconnectbot.bean.HostBean;
 import org.dconnectbot.bean.PortForwardBean;
 import org.dconnectbot.bean.SelectionArea;
 import org.dconnectbot.transport.AbsTransport;
+import org.dconnectbot.transport.ForwardStats;
 import org.dconnectbot.transport.TransportFactory;
+import org.dconnectbot.util.Colors;
 import org.dconnectbot.util.HostDatabase;
 
 import java.io.IOException;
@@ -83,6 +90,8 @@ public class TerminalBridge implements VDUDisplay {
 
 	/* package */ AbsTransport transport;
 
+	/* package */ volatile OutputQueue output;
+
 	final Paint defaultPaint;
 
 	private Relay relay;
@@ -96,9 +105,26 @@ public class TerminalBridge implements VDUDisplay {
 	private TerminalView parent = null;
 	private final Canvas canvas = new Canvas();
 
+	private final RedrawScheduler redrawScheduler = new RedrawScheduler(this);
+
+	/* screen line the cursor was last drawn on */
+	private int drawnCursorLine = -1;
+
+	private final GlyphCache glyphCache = new GlyphCache(this);
+	private boolean glyphCacheEnabled = true;
+
+	private final boolean directRenderingWanted;
+	private volatile boolean visible = true;
+	private boolean drawingDirectly = false;
+	private Picture[] linePictures;
+
 	private boolean disconnected = false;
 	private boolean awaitingClose = false;
 
+	/* whether the connection was lost and is being brought back */
+	private boolean resuming = false;
+	private volatile long restoreMillis = -1;
+
 	private boolean forcedSize = false;
 	private int columns;
 	private int rows;
@@ -147,6 +173,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		emulation = null;
 		manager = null;
+		directRenderingWanted = false;
 
 		displayDensity = 1f;
 
@@ -176,6 +203,8 @@ public class TerminalBridge implements VDUDisplay {
 
 		emulation = manager.getEmulation();
 		scrollback = manager.getScrollback();
+		redrawScheduler.setMaxFramesPerSecond(manager.getMaxFramesPerSecond());
+		directRenderingWanted = manager.wantsDirectRendering();
 
 		// create prompt helper to relay password and hostkey requests up to gui
 		promptHelper = new PromptHelper(this);
@@ -209,8 +238,9 @@ public class TerminalBridge implements VDUDisplay {
 			@Override
 			public void write(byte[] b) {
 				try {
-					if (b != null && transport != null)
-						transport.write(b);
+					OutputQueue output = TerminalBridge.this.output;
+					if (b != null && output != null)
+						output.write(b);
 				} catch (IOException e) {
 					Log.e(TAG, "Problem writing outgoing data in vt320() thread", e);
 				}
@@ -219,8 +249,9 @@ public class TerminalBridge implements VDUDisplay {
 			@Override
 			public void write(int b) {
 				try {
-					if (transport != null)
-						transport.write(b);
+					OutputQueue output = TerminalBridge.this.output;
+					if (output != null)
+						output.write(b);
 				} catch (IOException e) {
 					Log.e(TAG, "Problem writing outgoing data in vt320() thread", e);
 				}
@@ -267,6 +298,7 @@ public class TerminalBridge implements VDUDisplay {
 	 * Spawn thread to open connection and start login process.
 	 */
 	protected void startConnection() {
+		AbsTransport previous = transport;
 		transport = TransportFactory.getTransport(host.getProtocol());
 		if (transport == null) {
 			Log.i(TAG, "No transport found for " + host.getProtocol());
@@ -278,9 +310,18 @@ public class TerminalBridge implements VDUDisplay {
 		// TODO make this more abstract so we don't litter on AbsTransport
 		transport.setCompression(host.getCompression());
 		transport.setUseAuthAgent(host.getUseAuthAgent());
+		transport.setMergeStderr(manager.isStderrMerged());
 		transport.setEmulation(emulation);
 
-		if (transport.canForwardPorts()) {
+		// a new transport starts out at its default size; resume with ours
+		if (columns > 0 && rows > 0)
+			transport.setDimensions(columns, rows, columns * charWidth, rows * charHeight);
+
+		if (previous != null && previous.getPortForwards() != null) {
+			// resuming; bring back every forward the lost connection had
+			for (PortForwardBean portForward : previous.getPortForwards())
+				transport.addPortForward(portForward);
+		} else if (transport.canForwardPorts()) {
             try {
                 // Why length(), not isEmpty(), is used: http://stackoverflow.com/q/10606725
                 String sourcePort = Integer.toString(portForwardBean.getSourcePort());
@@ -293,13 +334,14 @@ public class TerminalBridge implements VDUDisplay {
                         portForwardBean.getType(),
                         sourcePort,
                         destination);
+                portForward.setRateLimit(portForwardBean.getRateLimit());
 
                 if (manager.mHostBridgeMap != null) {
                     transport.addPortForward(portForward);
                     transport.enablePortForward(portForward);
                 }
 
-                if (host != null && !manager.hostDatabase.savePortForward(portForward)) {
+                if (host != null && !manager.hostdb.savePortForward(portForward)) {
                     throw new SQLException("Could not save port forward");
                 }
 
@@ -330,6 +372,48 @@ public class TerminalBridge implements VDUDisplay {
 		return relay.getCharset();
 	}
 
+	/**
+	 * @return bytes per second coming in from the connection over the last
+	 * second
+	 */
+	public long getBytesPerSecond() {
+		return relay != null ? relay.getBytesPerSecond() : 0;
+	}
+
+	/**
+	 * @return bytes waiting to be sent to the connection
+	 */
+	public int getOutputQueueDepth() {
+		OutputQueue output = this.output;
+		return output != null ? output.getQueuedBytes() : 0;
+	}
+
+	/**
+	 * @return average time outgoing data waits before the connection takes
+	 * it, in milliseconds
+	 */
+	public long getOutputLatencyMillis() {
+		OutputQueue output = this.output;
+		return output != null ? output.getWriteLatencyMillis() : 0;
+	}
+
+	/**
+	 * @return milliseconds the host took to answer the last keepalive, or -1
+	 * if unknown
+	 */
+	public long getRoundTripMillis() {
+		AbsTransport transport = this.transport;
+		return transport != null ? transport.getRoundTripMillis() : -1;
+	}
+
+	/**
+	 * @return milliseconds from losing the connection until it was back the
+	 * last time, or -1 if it was never lost
+	 */
+	public long getTimeToRestoreMillis() {
+		return restoreMillis;
+	}
+
 	/**
 	 * Sets the encoding used by the terminal. If the connection is live,
 	 * then the character set is changed for the next read.
@@ -405,18 +489,17 @@ public class TerminalBridge implements VDUDisplay {
 		if (string == null || string.length() == 0)
 			return;
 
-		Thread injectStringThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				try {
-					transport.write(string.getBytes(host.getEncoding()));
-				} catch (Exception e) {
-					Log.e(TAG, "Couldn't inject string to remote host: ", e);
-				}
-			}
-		});
-		injectStringThread.setName("InjectString");
-		injectStringThread.start();
+		OutputQueue output = this.output;
+		if (output == null) {
+			Log.w(TAG, "Not connected, dropping injected string");
+			return;
+		}
+
+		try {
+			output.inject(string, host.getEncoding());
+		} catch (IOException e) {
+			Log.e(TAG, "Couldn't inject string to remote host: ", e);
+		}
 	}
 
 	/**
@@ -424,9 +507,16 @@ public class TerminalBridge implements VDUDisplay {
 	 * authentication. If called before authenticated, it will just fail.
 	 */
 	public void onConnected() {
-		disconnected = false;
+		boolean resumed;
+		synchronized (this) {
+			disconnected = false;
+			resumed = resuming;
+			resuming = false;
+		}
 
-		((vt320) buffer).reset();
+		// a resumed session carries on below what was on screen
+		if (!resumed)
+			((vt320) buffer).reset();
 
 		// We no longer need our local output.
 		localOutput.clear();
@@ -449,11 +539,21 @@ public class TerminalBridge implements VDUDisplay {
 			relayThread.start();
 		}
 
+		// and a writer to send keys and replies without blocking the caller
+		if (output != null)
+			output.close();
+		OutputQueue newOutput = new OutputQueue(this, transport);
+		newOutput.start();
+		output = newOutput;
+
 		// force font-size to make sure we resizePTY as needed
 		setFontSize(fontSizeDp);
 
 		// finally send any post-login string, if requested
 		injectString(host.getPostLogin());
+
+		if (resumed)
+			restoreMillis = manager.onReconnected(this);
 	}
 
 	/**
@@ -474,27 +574,30 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public void dispatchDisconnect(boolean immediate) {
 		// We don't need to do this multiple times.
+		boolean retry;
         synchronized (this) {
-			if (disconnected && !immediate)
+			// unless this was an attempt to resume, which failed
+			retry = disconnected && resuming && !immediate;
+			if (disconnected && !immediate && !retry)
 				return;
 
 			disconnected = true;
+			if (immediate)
+				resuming = false;
+		}
+
+		if (retry) {
+			manager.requestReconnect(this);
+			return;
 		}
 
 		// Cancel any pending prompts.
 		promptHelper.cancelPrompt();
 
-		// disconnection request hangs if we havent really connected to a host yet
-		// temporary fix is to just spawn disconnection into a thread
-		Thread disconnectThread = new Thread(new Runnable() {
-			@Override
-			public void run() {
-				if (transport != null && transport.isConnected())
-					transport.close();
-			}
-		});
-		disconnectThread.setName("Disconnect");
-		disconnectThread.start();
+		if (output != null)
+			output.close();
+
+		closeTransport();
 
 		if (immediate || (host.getQuickDisconnect() && !host.getStayConnected())) {
             awaitingClose = true;
@@ -505,6 +608,9 @@ public class TerminalBridge implements VDUDisplay {
 				((vt320) buffer).putString("\r\n" + line + "\r\n");
 			}
             if (disconnected) {
+				synchronized (this) {
+					resuming = true;
+				}
 				manager.requestReconnect(this);
 				return;
 			}
@@ -525,6 +631,48 @@ public class TerminalBridge implements VDUDisplay {
         }
 	}
 
+	/**
+	 * Drop the connection because the network went away, but keep the
+	 * terminal and port forwards to resume with once it is back.
+	 */
+	void suspendConnection() {
+		synchronized (this) {
+			// already lost and waiting to be resumed
+			if (disconnected)
+				return;
+
+			disconnected = true;
+			resuming = true;
+		}
+
+		promptHelper.cancelPrompt();
+
+		if (output != null)
+			output.close();
+
+		closeTransport();
+
+		((vt320) buffer).putString("\r\n" + manager.res.getString(R.string.alert_disconnect_msg) + "\r\n");
+		manager.requestReconnect(this);
+	}
+
+	private void closeTransport() {
+		// a resumed connection may replace the transport before this runs
+		final AbsTransport transport = this.transport;
+
+		// disconnection request hangs if we havent really connected to a host yet
+		// temporary fix is to just spawn disconnection into a thread
+		Thread disconnectThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (transport != null && transport.isConnected())
+					transport.close();
+			}
+		});
+		disconnectThread.setName("Disconnect");
+		disconnectThread.start();
+	}
+
 	/**
 	 * Tells the TerminalManager that we can be destroyed now.
 	 */
@@ -560,14 +708,7 @@ public class TerminalBridge implements VDUDisplay {
 		defaultPaint.setTextSize(fontSizePx);
 		fontSizeDp = sizeDp;
 
-		// read new metrics to get exact pixel dimensions
-		FontMetrics fm = defaultPaint.getFontMetrics();
-		charTop = (int) Math.ceil(fm.top);
-
-		float[] widths = new float[1];
-		defaultPaint.getTextWidths("X", widths);
-		charWidth = (int) Math.ceil(widths[0]);
-		charHeight = (int) Math.ceil(fm.descent - fm.top);
+		updateCharMetrics();
 
 		// refresh any bitmap with new font size
 		if (parent != null) {
@@ -588,6 +729,41 @@ public class TerminalBridge implements VDUDisplay {
 		return fontSizeDp;
 	}
 
+	/**
+	 * Read new metrics to get exact pixel dimensions.
+	 */
+	private void updateCharMetrics() {
+		FontMetrics fm = defaultPaint.getFontMetrics();
+		charTop = (int) Math.ceil(fm.top);
+
+		float[] widths = new float[1];
+		defaultPaint.getTextWidths("X", widths);
+		charWidth = (int) Math.ceil(widths[0]);
+		charHeight = (int) Math.ceil(fm.descent - fm.top);
+	}
+
+	/**
+	 * Set up a bridge made for unit testing to draw into a bitmap without a view.
+	 */
+	@VisibleForTesting
+	void setUpDrawing(int columns, int rows, float fontSizePx) {
+		defaultPaint.setAntiAlias(true);
+		defaultPaint.setTypeface(Typeface.MONOSPACE);
+		defaultPaint.setFakeBoldText(true);
+		defaultPaint.setTextSize(fontSizePx);
+		updateCharMetrics();
+
+		color = Colors.defaults.clone();
+		this.columns = columns;
+		this.rows = rows;
+		buffer.setScreenSize(columns, rows, true);
+
+		discardBitmap();
+		bitmap = Bitmap.createBitmap(columns * charWidth, rows * charHeight, Config.ARGB_8888);
+		canvas.setBitmap(bitmap);
+		fullRedraw = true;
+	}
+
 	/**
 	 * Add an {@link FontSizeChangedListener} to the list of listeners for this
 	 * bridge.
@@ -621,6 +797,7 @@ public class TerminalBridge implements VDUDisplay {
 		}
 
 		this.parent = parent;
+		redrawScheduler.setView(parent);
 		final int width = parent.getWidth();
 		final int height = parent.getHeight();
 
@@ -648,33 +825,13 @@ public class TerminalBridge implements VDUDisplay {
 			refreshOverlayFontSize();
 		}
 
-		// reallocate new bitmap if needed
-		boolean newBitmap = (bitmap == null);
-		if (bitmap != null)
-			newBitmap = (bitmap.getWidth() != width || bitmap.getHeight() != height);
+		// a hardware accelerated view is drawn on directly, without a bitmap
+		drawingDirectly = directRenderingWanted && parent.isHardwareAccelerated();
 
-		if (newBitmap) {
+		if (drawingDirectly)
 			discardBitmap();
-			bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
-			canvas.setBitmap(bitmap);
-		}
-
-		// clear out any old buffer information
-		defaultPaint.setColor(Color.BLACK);
-		canvas.drawPaint(defaultPaint);
-
-		// Stroke the border of the terminal if the size is being forced;
-		if (forcedSize) {
-			int borderX = (columns * charWidth) + 1;
-			int borderY = (rows * charHeight) + 1;
-
-			defaultPaint.setColor(Color.GRAY);
-			defaultPaint.setStrokeWidth(0.0f);
-			if (width >= borderX)
-				canvas.drawLine(borderX, 0, borderX, borderY + 1, defaultPaint);
-			if (height >= borderY)
-				canvas.drawLine(0, borderY, borderX + 1, borderY, defaultPaint);
-		}
+		else if (visible)
+			allocateBitmap(width, height);
 
 		try {
 			// request a terminal pty resize
@@ -713,13 +870,107 @@ public class TerminalBridge implements VDUDisplay {
 	 */
 	public synchronized void parentDestroyed() {
 		parent = null;
+		redrawScheduler.setView(null);
 		discardBitmap();
 	}
 
+	private void allocateBitmap(int width, int height) {
+		// reallocate new bitmap if needed
+		boolean newBitmap = (bitmap == null);
+		if (bitmap != null)
+			newBitmap = (bitmap.getWidth() != width || bitmap.getHeight() != height);
+
+		if (newBitmap) {
+			discardBitmap();
+			bitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+			canvas.setBitmap(bitmap);
+		}
+
+		// clear out any old buffer information
+		defaultPaint.setColor(Color.BLACK);
+		canvas.drawPaint(defaultPaint);
+
+		drawBorder(canvas);
+	}
+
+	/**
+	 * Drop the bitmap, and anything else only needed for drawing, while
+	 * nobody is looking at this terminal. The buffer keeps everything needed
+	 * to draw it again.
+	 */
+	public synchronized void releaseBitmap() {
+		if (bitmap == null && linePictures == null)
+			return;
+
+		discardBitmap();
+		fullRedraw = true;
+	}
+
+	/**
+	 * Allocate the bitmap again after {@link #releaseBitmap()}, if the
+	 * terminal is on screen.
+	 */
+	public synchronized void restoreBitmap() {
+		if (bitmap != null || drawingDirectly || !visible || parent == null)
+			return;
+
+		final int width = parent.getWidth();
+		final int height = parent.getHeight();
+		if (width <= 0 || height <= 0)
+			return;
+
+		allocateBitmap(width, height);
+		fullRedraw = true;
+	}
+
+	/**
+	 * Tell whether the terminal is on screen. A terminal that isn't lets go
+	 * of its bitmap until it is shown again.
+	 */
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+		if (!visible) {
+			releaseBitmap();
+			return;
+		}
+
+		// nothing was drawn while hidden, so the first frame back draws it all
+		synchronized (this) {
+			if (bitmap != null)
+				return;
+			fullRedraw = true;
+		}
+		TerminalView view = parent;
+		if (view != null)
+			view.postInvalidate();
+	}
+
+	public boolean isVisible() {
+		return visible;
+	}
+
 	private void discardBitmap() {
 		if (bitmap != null)
 			bitmap.recycle();
 		bitmap = null;
+		glyphCache.recycle();
+		linePictures = null;
+	}
+
+	/**
+	 * @return true if the terminal should be drawn straight onto the view's
+	 * hardware canvas, so the view must not use a software layer
+	 */
+	public boolean wantsDirectRendering() {
+		return directRenderingWanted;
+	}
+
+	/**
+	 * @return true if the parent view draws with {@link #onDraw(Canvas)}
+	 * instead of blitting {@link #bitmap}
+	 */
+	public boolean isDrawingDirectly() {
+		return drawingDirectly;
 	}
 
 	@Override
@@ -739,10 +990,8 @@ public class TerminalBridge implements VDUDisplay {
 	}
 
 	public void onDraw() {
-		int fg, bg;
 		synchronized (buffer) {
 			boolean entireDirty = buffer.update[0] || fullRedraw;
-			boolean isWideCharacter = false;
 
 			// walk through all lines in the buffer
 			for (int l = 0; l < buffer.height; l++) {
@@ -754,103 +1003,339 @@ public class TerminalBridge implements VDUDisplay {
 				// reset dirty flag for this line
 				buffer.update[l + 1] = false;
 
-				// walk through all characters in this line
-				for (int c = 0; c < buffer.width; c++) {
-					int addr = 0;
-					long currAttr = buffer.charAttributes[buffer.windowBase + l][c];
-
-					{
-						int fgcolor = defaultFg;
-						int bgcolor = defaultBg;
-
-						// check if foreground color attribute is set
-						if ((currAttr & VDUBuffer.COLOR_FG) != 0)
-							fgcolor = (int) ((currAttr & VDUBuffer.COLOR_FG) >> VDUBuffer.COLOR_FG_SHIFT) - 1;
-
-						if (fgcolor < 8 && (currAttr & VDUBuffer.BOLD) != 0)
-							fg = color[fgcolor + 8];
-						else if (fgcolor < 256)
-							fg = color[fgcolor];
-						else
-							fg = 0xff000000 | (fgcolor - 256);
-
-						// check if background color attribute is set
-						if ((currAttr & VDUBuffer.COLOR_BG) != 0)
-							bgcolor = (int) ((currAttr & VDUBuffer.COLOR_BG) >> VDUBuffer.COLOR_BG_SHIFT) - 1;
-
-						if (bgcolor < 256)
-							bg = color[bgcolor];
-						else
-							bg = 0xff000000 | (bgcolor - 256);
-					}
+				final int row = buffer.windowBase + l;
 
-					// support character inversion by swapping background and foreground color
-					if ((currAttr & VDUBuffer.INVERT) != 0) {
-						int swapc = bg;
-						bg = fg;
-						fg = swapc;
-					}
+				// the glyph cache draws most rows; the rest go the long way
+				if (glyphCacheEnabled && glyphCache.drawRow(canvas, buffer, row, l, charTop))
+					continue;
 
-					// set underlined attributes if requested
-					defaultPaint.setUnderlineText((currAttr & VDUBuffer.UNDERLINE) != 0);
+				drawRow(canvas, row, l);
+			}
 
-					isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+			// reset entire-buffer flags
+			buffer.update[0] = false;
 
-					if (isWideCharacter)
-						addr++;
-					else {
-						// determine the amount of continuous characters with the same settings and print them all at once
-						while (c + addr < buffer.width
-								&& buffer.charAttributes[buffer.windowBase + l][c + addr] == currAttr) {
-							addr++;
-						}
-					}
+			drawnCursorLine = getCursorLine();
+		}
+		fullRedraw = false;
+	}
 
-					// Save the current clip region
-					canvas.save();
-
-					// clear this dirty area with background color
-					defaultPaint.setColor(bg);
-					if (isWideCharacter) {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + 2) * charWidth,
-								(l + 1) * charHeight);
-					} else {
-						canvas.clipRect(c * charWidth,
-								l * charHeight,
-								(c + addr) * charWidth,
-								(l + 1) * charHeight);
-					}
-					canvas.drawPaint(defaultPaint);
-
-					// write the text string starting at 'c' for 'addr' number of characters
-					defaultPaint.setColor(fg);
-					if ((currAttr & VDUBuffer.INVISIBLE) == 0)
-						canvas.drawText(buffer.charArray[buffer.windowBase + l], c,
-							addr, c * charWidth, (l * charHeight) - charTop,
-							defaultPaint);
-
-					// Restore the previous clip region
-					canvas.restore();
-
-					// advance to the next text block with different characteristics
-					c += addr - 1;
-					if (isWideCharacter)
-						c++;
+	/**
+	 * Draw the screen straight onto the view's canvas, for hardware rendering
+	 * without a bitmap. From Marshmallow on, which can draw pictures with
+	 * hardware acceleration, each line is recorded into a {@link Picture}
+	 * that is only recorded again when the line changes.
+	 */
+	public void onDraw(Canvas target) {
+		synchronized (buffer) {
+			boolean entireDirty = buffer.update[0] || fullRedraw;
+			boolean recordLines = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+
+			if (recordLines && (linePictures == null || linePictures.length != buffer.height)) {
+				linePictures = new Picture[buffer.height];
+				entireDirty = true;
+			}
+
+			// nothing else keeps the area around the rows clear
+			target.drawColor(Color.BLACK);
+			drawBorder(target);
+
+			for (int l = 0; l < buffer.height; l++) {
+				boolean dirty = entireDirty || buffer.update[l + 1];
+				buffer.update[l + 1] = false;
+
+				final int row = buffer.windowBase + l;
+
+				if (!recordLines) {
+					drawRow(target, row, l);
+					continue;
+				}
+
+				Picture picture = linePictures[l];
+				if (picture == null) {
+					picture = linePictures[l] = new Picture();
+					dirty = true;
+				}
+
+				if (dirty) {
+					drawRow(picture.beginRecording(buffer.width * charWidth, charHeight), row, 0);
+					picture.endRecording();
 				}
+
+				target.save();
+				target.translate(0, l * charHeight);
+				target.drawPicture(picture);
+				target.restore();
 			}
 
-			// reset entire-buffer flags
 			buffer.update[0] = false;
+
+			drawnCursorLine = getCursorLine();
 		}
 		fullRedraw = false;
 	}
 
+	/**
+	 * Draw a buffer row as text, one attribute run at a time.
+	 *
+	 * @param row buffer row to draw
+	 * @param line screen line to draw it on
+	 */
+	private void drawRow(Canvas target, int row, int line) {
+		int fg, bg;
+		boolean isWideCharacter;
+
+		// walk through all characters in this line
+		for (int c = 0; c < buffer.width; c++) {
+			int addr = 0;
+			long currAttr = buffer.getBufferAttributes(c, row);
+
+			fg = getForeground(currAttr);
+			bg = getBackground(currAttr);
+
+			// set underlined attributes if requested
+			defaultPaint.setUnderlineText((currAttr & VDUBuffer.UNDERLINE) != 0);
+
+			isWideCharacter = (currAttr & VDUBuffer.FULLWIDTH) != 0;
+
+			if (isWideCharacter)
+				addr++;
+			else {
+				// determine the amount of continuous characters with the same settings and print them all at once
+				while (c + addr < buffer.width
+						&& buffer.getBufferAttributes(c + addr, row) == currAttr) {
+					addr++;
+				}
+			}
+
+			// Save the current clip region
+			target.save();
+
+			// clear this dirty area with background color
+			defaultPaint.setColor(bg);
+			if (isWideCharacter) {
+				target.clipRect(c * charWidth,
+						line * charHeight,
+						(c + 2) * charWidth,
+						(line + 1) * charHeight);
+			} else {
+				target.clipRect(c * charWidth,
+						line * charHeight,
+						(c + addr) * charWidth,
+						(line + 1) * charHeight);
+			}
+			target.drawPaint(defaultPaint);
+
+			// write the text string starting at 'c' for 'addr' number of characters
+			defaultPaint.setColor(fg);
+			if ((currAttr & VDUBuffer.INVISIBLE) == 0)
+				target.drawText(buffer.getBufferChars(row), c,
+					addr, c * charWidth, (line * charHeight) - charTop,
+					defaultPaint);
+
+			// Restore the previous clip region
+			target.restore();
+
+			// advance to the next text block with different characteristics
+			c += addr - 1;
+			if (isWideCharacter)
+				c++;
+		}
+	}
+
+	/**
+	 * Draw the character at column of row inverted, for the cursor, at the
+	 * origin of target.
+	 */
+	public void drawInvertedCell(Canvas target, int column, int row, int cells) {
+		synchronized (buffer) {
+			long attr = buffer.getBufferAttributes(column, row);
+
+			defaultPaint.setUnderlineText(false);
+			defaultPaint.setColor(getForeground(attr));
+			target.drawRect(0, 0, cells * charWidth, charHeight, defaultPaint);
+
+			defaultPaint.setColor(getBackground(attr));
+			if ((attr & VDUBuffer.INVISIBLE) == 0)
+				target.drawText(buffer.getBufferChars(row), column, 1, 0, -charTop, defaultPaint);
+		}
+	}
+
+	/**
+	 * Stroke the border of the terminal if the size is being forced.
+	 */
+	private void drawBorder(Canvas target) {
+		if (!forcedSize)
+			return;
+
+		int borderX = (columns * charWidth) + 1;
+		int borderY = (rows * charHeight) + 1;
+
+		defaultPaint.setColor(Color.GRAY);
+		defaultPaint.setStrokeWidth(0.0f);
+		if (target.getWidth() >= borderX)
+			target.drawLine(borderX, 0, borderX, borderY + 1, defaultPaint);
+		if (target.getHeight() >= borderY)
+			target.drawLine(0, borderY, borderX + 1, borderY, defaultPaint);
+	}
+
+	/**
+	 * @return color to draw text with the given attributes in
+	 */
+	int getForeground(long attr) {
+		if ((attr & VDUBuffer.INVERT) != 0)
+			return getColor(attr, false);
+		return getColor(attr, true);
+	}
+
+	/**
+	 * @return color to fill behind text with the given attributes
+	 */
+	int getBackground(long attr) {
+		// support character inversion by swapping background and foreground color
+		if ((attr & VDUBuffer.INVERT) != 0)
+			return getColor(attr, true);
+		return getColor(attr, false);
+	}
+
+	private int getColor(long attr, boolean foreground) {
+		if (foreground) {
+			int fgcolor = defaultFg;
+
+			// check if foreground color attribute is set
+			if ((attr & VDUBuffer.COLOR_FG) != 0)
+				fgcolor = (int) ((attr & VDUBuffer.COLOR_FG) >> VDUBuffer.COLOR_FG_SHIFT) - 1;
+
+			if (fgcolor < 8 && (attr & VDUBuffer.BOLD) != 0)
+				return color[fgcolor + 8];
+			else if (fgcolor < 256)
+				return color[fgcolor];
+			else
+				return 0xff000000 | (fgcolor - 256);
+		} else {
+			int bgcolor = defaultBg;
+
+			// check if background color attribute is set
+			if ((attr & VDUBuffer.COLOR_BG) != 0)
+				bgcolor = (int) ((attr & VDUBuffer.COLOR_BG) >> VDUBuffer.COLOR_BG_SHIFT) - 1;
+
+			if (bgcolor < 256)
+				return color[bgcolor];
+			else
+				return 0xff000000 | (bgcolor - 256);
+		}
+	}
+
+	/**
+	 * Draw rows from cached glyphs instead of laying out their text, which
+	 * is much faster for colorful output. Rows with characters the cache
+	 * can't draw are always laid out.
+	 */
+	public void setGlyphCacheEnabled(boolean enabled) {
+		glyphCacheEnabled = enabled;
+		if (!enabled)
+			glyphCache.recycle();
+		fullRedraw = true;
+		redraw();
+	}
+
+	/**
+	 * @return screen line the cursor is on, or -1 if it is scrolled out of
+	 * view or hidden
+	 */
+	private int getCursorLine() {
+		if (!buffer.isCursorVisible())
+			return -1;
+		int line = buffer.getCursorRow() + buffer.screenBase - buffer.windowBase;
+		return line < buffer.height ? line : -1;
+	}
+
+	/**
+	 * Find the part of the view that the next draw will change: the lines
+	 * marked dirty in the buffer, and the lines the cursor moved between.
+	 *
+	 * @param dirty set to the bounds of those lines
+	 * @return false if the whole view needs to be drawn
+	 */
+	boolean getDirtyBounds(Rect dirty) {
+		if (charHeight <= 0)
+			return false;
+
+		// drawing straight onto the view leaves no bitmap to measure
+		TerminalView view = parent;
+		int width = view != null ? view.getWidth() : buffer.width * charWidth;
+
+		synchronized (buffer) {
+			if (fullRedraw || buffer.update[0])
+				return false;
+
+			int first = -1, last = -1;
+			for (int l = 0; l < buffer.height; l++) {
+				if (buffer.update[l + 1]) {
+					if (first < 0)
+						first = l;
+					last = l;
+				}
+			}
+
+			// nothing in the buffer changed, so something drawn over it did,
+			// like the selection or the modifier keys on the cursor
+			if (first < 0)
+				return false;
+
+			if (drawnCursorLine >= 0) {
+				first = Math.min(first, drawnCursorLine);
+				last = Math.max(last, drawnCursorLine);
+			}
+			int cursorLine = getCursorLine();
+			if (cursorLine >= 0) {
+				first = Math.min(first, cursorLine);
+				last = Math.max(last, cursorLine);
+			}
+
+			dirty.set(0, first * charHeight, width, (last + 1) * charHeight);
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of frames drawn so far
+	 */
+	public long getFrameCount() {
+		return redrawScheduler.getFrameCount();
+	}
+
+	/**
+	 * @return pixels invalidated for the last frame
+	 */
+	public int getLastDirtyArea() {
+		return redrawScheduler.getLastDirtyPixels();
+	}
+
+	/**
+	 * @return share of the view invalidated per frame, on average; lower
+	 * means less drawing and blitting for each frame
+	 */
+	public float getDirtyAreaFraction() {
+		return redrawScheduler.getDirtyFraction();
+	}
+
+	/**
+	 * Ask for the terminal to be drawn with the next display frame. Requests
+	 * made before that frame are merged, so this is cheap to call from the
+	 * relay after every read.
+	 */
 	@Override
 	public void redraw() {
-		if (parent != null)
-			parent.postInvalidate();
+		redrawScheduler.request();
+	}
+
+	/**
+	 * Limit how often the terminal is drawn, for example to save battery.
+	 * @param fps most frames per second, or 0 for the display's own rate
+	 */
+	public void setMaxFramesPerSecond(int fps) {
+		redrawScheduler.setMaxFramesPerSecond(fps);
 	}
 
 	// We don't have a scroll bar.
@@ -969,6 +1454,15 @@ public class TerminalBridge implements VDUDisplay {
 		return transport.getPortForwards();
 	}
 
+	/**
+	 * @return live counters of an enabled port forward, or null if there are
+	 * none
+	 */
+	public ForwardStats getPortForwardStats(PortForwardBean portForward) {
+		AbsTransport transport = this.transport;
+		return transport != null ? transport.getPortForwardStats(portForward) : null;
+	}
+
 	/**
 	 * Enables a port forward member. After calling this method, the port forward should
 	 * be operational.
@@ -1074,7 +1568,7 @@ public class TerminalBridge implements VDUDisplay {
 
 		char[] visibleBuffer = new char[buffer.height * buffer.width];
 		for (int l = 0; l < buffer.height; l++)
-			System.arraycopy(buffer.charArray[buffer.windowBase + l], 0,
+			System.arraycopy(buffer.getBufferChars(buffer.windowBase + l), 0,
 					visibleBuffer, l * buffer.width, buffer.width);
 
 		Matcher urlMatcher = PatternHolder.urlPattern.matcher(new String(visibleBuffer));
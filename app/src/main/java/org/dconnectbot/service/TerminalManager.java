@@ -37,16 +37,21 @@ import org.dconnectbot.R;
 import org.dconnectbot.bean.HostBean;
 import org.dconnectbot.bean.PortForwardBean;
 import org.dconnectbot.bean.PubkeyBean;
+import org.dconnectbot.data.AsyncHostStorage;
 import org.dconnectbot.data.ColorStorage;
+import org.dconnectbot.data.CachedHostStorage;
 import org.dconnectbot.data.HostStorage;
 import org.dconnectbot.transport.TransportFactory;
 import org.dconnectbot.util.HostDatabase;
+import org.dconnectbot.util.KeyPairCache;
 import org.dconnectbot.util.PreferenceConstants;
 import org.dconnectbot.util.ProviderLoader;
 import org.dconnectbot.util.ProviderLoaderListener;
 import org.dconnectbot.util.PubkeyDatabase;
 import org.dconnectbot.util.PubkeyUtils;
 
+import com.trilead.ssh2.Connection;
+
 import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.security.KeyPair;
@@ -58,6 +63,12 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Manager for SSH connections that runs as a service. This service holds a list
@@ -81,12 +92,15 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	private final ArrayList<OnHostStatusChangedListener> hostStatusChangedListeners = new ArrayList<>();
 
-	public Map<String, KeyHolder> loadedKeypairs = new HashMap<>();
+	/* written from key loader and timer threads as well as the main one */
+	public Map<String, KeyHolder> loadedKeypairs = new ConcurrentHashMap<>();
+
+	/* counted down as each key marked to load at startup is done with */
+	private volatile CountDownLatch startKeysLoaded = new CountDownLatch(0);
 
 	public Resources res;
 
 	public HostStorage hostdb;
-	protected HostDatabase hostDatabase;
 	public ColorStorage colordb;
 	public PubkeyDatabase pubkeydb;
 
@@ -100,9 +114,14 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	private Timer pubkeyTimer;
 
+	/* set once the service is gone, for work it started to check */
+	private volatile boolean destroyed = false;
+
 	private Timer idleTimer;
 	private final long IDLE_TIMEOUT = 300000; // 5 minutes
 
+	private static final long START_KEYS_TIMEOUT = 30; // seconds
+
 	private Vibrator vibrator;
 	private volatile boolean wantKeyVibration;
 	public static final long VIBRATE_DURATION = 30;
@@ -113,7 +132,9 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 	private boolean savingKeys;
 
-	protected WeakReference<TerminalBridge> mPendingReconnect;
+	private final Reconnector reconnector = new Reconnector();
+
+	private final SharedConnections sharedConnections = new SharedConnections();
 
 	public boolean hardKeyboardHidden;
 
@@ -128,23 +149,17 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 
 		pubkeyTimer = new Timer("pubkeyTimer", true);
 
-		hostdb = HostDatabase.get(this);
-		hostDatabase = HostDatabase.get(this);
+		hostdb = CachedHostStorage.get(this);
 		colordb = HostDatabase.get(this);
+
+		// read the hosts in off the main thread, so opening a connection finds them in memory
+		AsyncHostStorage.get(this).getHosts(false, null);
+
 		pubkeydb = PubkeyDatabase.get(this);
 
 		// load all marked pubkeys into memory
 		updateSavingKeys();
-		List<PubkeyBean> pubkeys = pubkeydb.getAllStartPubkeys();
-
-		for (PubkeyBean pubkey : pubkeys) {
-			try {
-				KeyPair pair = PubkeyUtils.convertToKeyPair(pubkey, null);
-				addKey(pubkey, pair);
-			} catch (Exception e) {
-				Log.d(TAG, String.format("Problem adding key '%s' to in-memory cache", pubkey.getNickname()), e);
-			}
-		}
+		loadStartPubkeys(pubkeydb.getAllStartPubkeys());
 
 		vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
 		wantKeyVibration = prefs.getBoolean(PreferenceConstants.BUMPY_ARROWS, true);
@@ -162,6 +177,62 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		ProviderLoader.load(this, this);
 	}
 
+	/**
+	 * Decode the keys marked to load at startup on a pool of worker threads,
+	 * adding each as it is ready. Use {@link #awaitStartPubkeys()} before
+	 * going through every loaded key.
+	 */
+	private void loadStartPubkeys(List<PubkeyBean> pubkeys) {
+		if (pubkeys.isEmpty())
+			return;
+
+		final CountDownLatch loaded = new CountDownLatch(pubkeys.size());
+		startKeysLoaded = loaded;
+		int threads = Math.min(pubkeys.size(), Runtime.getRuntime().availableProcessors());
+		ExecutorService keyLoader = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setName("KeyLoader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		for (final PubkeyBean pubkey : pubkeys) {
+			keyLoader.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						KeyPair pair = KeyPairCache.getInstance().convertToKeyPair(pubkey);
+						// the service may have gone in the meantime
+						if (!destroyed)
+							addKey(pubkey, pair);
+					} catch (Exception e) {
+						Log.d(TAG, String.format("Problem adding key '%s' to in-memory cache", pubkey.getNickname()), e);
+					} finally {
+						loaded.countDown();
+					}
+				}
+			});
+		}
+		keyLoader.shutdown();
+	}
+
+	/**
+	 * Wait for the keys marked to load at startup to be loaded, so that none
+	 * is missed by a look through {@link #loadedKeypairs}. Must not be called
+	 * on the main thread.
+	 */
+	public void awaitStartPubkeys() {
+		try {
+			if (!startKeysLoaded.await(START_KEYS_TIMEOUT, TimeUnit.SECONDS))
+				Log.w(TAG, "Gave up waiting for startup keys to load");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	private void updateSavingKeys() {
 		savingKeys = prefs.getBoolean(PreferenceConstants.MEMKEYS, true);
 	}
@@ -170,6 +241,8 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 	public void onDestroy() {
 		Log.i(TAG, "Destroying service");
 
+		destroyed = true;
+
 		disconnectAll(true, false);
 
 		hostdb = null;
@@ -189,6 +262,26 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		disableMediaPlayer();
 	}
 
+	/**
+	 * Bridges that are not on screen have already dropped their bitmaps.
+	 * Once no console is showing, the rest can go too; each is drawn again
+	 * from its buffer when it is shown.
+	 */
+	@Override
+	public void onTrimMemory(int level) {
+		super.onTrimMemory(level);
+
+		if (level < TRIM_MEMORY_RUNNING_LOW)
+			return;
+
+		synchronized (bridges) {
+			for (TerminalBridge bridge : bridges) {
+				if (level >= TRIM_MEMORY_UI_HIDDEN || !bridge.isVisible())
+					bridge.releaseBitmap();
+			}
+		}
+	}
+
 	/**
 	 * Disconnect all currently connected bridges.
 	 */
@@ -264,6 +357,64 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		return scrollback;
 	}
 
+	/**
+	 * @return milliseconds to wait for a connection to a host, or 0 to
+	 * wait as long as the system does
+	 */
+	public int getConnectTimeout() {
+		int seconds = 15;
+		try {
+			seconds = Integer.parseInt(prefs.getString(PreferenceConstants.CONNECT_TIMEOUT, "15"));
+		} catch (Exception e) {
+		}
+		return Math.max(0, seconds) * 1000;
+	}
+
+	/**
+	 * @return bytes a port forward copies at once in each direction
+	 */
+	public int getForwardBufferSize() {
+		int kilobytes = 32;
+		try {
+			kilobytes = Integer.parseInt(prefs.getString(PreferenceConstants.FORWARD_BUFFER, "32"));
+		} catch (Exception e) {
+		}
+		return Math.max(1, Math.min(kilobytes, 1024)) * 1024;
+	}
+
+	/**
+	 * @return most connections a port forward carries at once
+	 */
+	public int getMaxForwardChannels() {
+		int channels = 32;
+		try {
+			channels = Integer.parseInt(prefs.getString(PreferenceConstants.FORWARD_CHANNELS, "32"));
+		} catch (Exception e) {
+		}
+		return Math.max(1, channels);
+	}
+
+	public boolean isStderrMerged() {
+		return prefs.getBoolean(PreferenceConstants.MERGE_STDERR, false);
+	}
+
+	public boolean isConnectionSharing() {
+		return prefs.getBoolean(PreferenceConstants.CONNECTION_SHARING, true);
+	}
+
+	public int getMaxFramesPerSecond() {
+		int fps = 0;
+		try {
+			fps = Integer.parseInt(prefs.getString(PreferenceConstants.MAX_FPS, "0"));
+		} catch (Exception e) {
+		}
+		return fps;
+	}
+
+	public boolean wantsDirectRendering() {
+		return prefs.getBoolean(PreferenceConstants.DIRECT_RENDERING, false);
+	}
+
 	/**
 	 * Open a new connection by reading parameters from the given URI. Follows
 	 * format specified by an individual transport.
@@ -340,6 +491,7 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		synchronized (bridges) {
 			// remove this bridge from our list
 			bridges.remove(bridge);
+			reconnector.cancel(bridge);
 
 			mHostBridgeMap.remove(bridge.host);
 			mNicknameBridgeMap.remove(bridge.host.getNickname());
@@ -348,7 +500,7 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 				connectivityManager.decRef();
 			}
 
-			if (bridges.isEmpty() && mPendingReconnect != null) {
+			if (bridges.isEmpty() && !reconnector.isIdle()) {
 				shouldHideRunningNotification = true;
 			}
 
@@ -652,6 +804,12 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 			connectivityManager.setWantWifiLock(lockingWifi);
 		} else if (PreferenceConstants.MEMKEYS.equals(key)) {
 			updateSavingKeys();
+		} else if (PreferenceConstants.MAX_FPS.equals(key)) {
+			int fps = getMaxFramesPerSecond();
+			synchronized (bridges) {
+				for (TerminalBridge bridge : bridges)
+					bridge.setMaxFramesPerSecond(fps);
+			}
 		}
 	}
 
@@ -673,64 +831,102 @@ public class TerminalManager extends Service implements BridgeDisconnectedListen
 		public byte[] openSSHPubkey;
 	}
 
+	/**
+	 * Find an authenticated connection another bridge opened to the same
+	 * account, to open a session on instead of connecting again.
+	 *
+	 * @param key identifies the account and connection options
+	 * @return the connection, counting the caller as a user, or null if
+	 * there is none to share
+	 */
+	public Connection acquireConnection(String key) {
+		return sharedConnections.acquire(key);
+	}
+
+	/**
+	 * Let other bridges to the same account use a newly authenticated
+	 * connection.
+	 *
+	 * @return false if one is already shared for the account
+	 */
+	public boolean shareConnection(String key, Connection connection) {
+		return sharedConnections.share(key, connection);
+	}
+
+	/**
+	 * A bridge is done with a connection it shares.
+	 *
+	 * @return true if other bridges still use it, so it must stay open
+	 */
+	public boolean releaseConnection(String key, Connection connection) {
+		return sharedConnections.release(key, connection);
+	}
+
+	/**
+	 * Stop sharing a connection that was lost.
+	 */
+	public void dropConnection(String key, Connection connection) {
+		sharedConnections.drop(key, connection);
+	}
+
 	/**
 	 * Called when connectivity to the network is lost and it doesn't appear
-	 * we'll be getting a different connection any time soon.
+	 * we'll be getting a different connection any time soon. Network bridges
+	 * drop their connections but stay open, to be resumed once it is back.
 	 */
 	public void onConnectivityLost() {
 		final Thread t = new Thread() {
 			@Override
 			public void run() {
-				disconnectAll(false, true);
+				suspendAll();
 			}
 		};
-		t.setName("Disconnector");
+		t.setName("Suspender");
 		t.start();
 	}
 
+	private void suspendAll() {
+		TerminalBridge[] tmpBridges;
+
+		synchronized (bridges) {
+			tmpBridges = bridges.toArray(new TerminalBridge[bridges.size()]);
+		}
+
+		for (TerminalBridge bridge : tmpBridges) {
+			if (bridge.isUsingNetwork())
+				bridge.suspendConnection();
+		}
+	}
+
 	/**
 	 * Called when connectivity to the network is restored.
 	 */
 	public void onConnectivityRestored() {
-		final Thread t = new Thread() {
-			@Override
-			public void run() {
-				reconnectPending();
-			}
-		};
-		t.setName("Reconnector");
-		t.start();
+		reconnector.resumeAll();
 	}
 
 	/**
 	 * Insert request into reconnect queue to be executed either immediately
 	 * or later when connectivity is restored depending on whether we're
-	 * currently connected.
+	 * currently connected. Requests for a bridge whose last attempt failed
+	 * are retried after a growing delay.
 	 *
 	 * @param bridge the TerminalBridge to reconnect when possible
 	 */
 	public void requestReconnect(TerminalBridge bridge) {
-		synchronized (mPendingReconnect) {
-			mPendingReconnect.clear();
-			mPendingReconnect = new WeakReference<>(bridge);
-			if (!bridge.isUsingNetwork() ||
-					connectivityManager.isConnected()) {
-				reconnectPending();
-			}
-		}
+		reconnector.request(bridge, !bridge.isUsingNetwork() ||
+				connectivityManager.isConnected());
 	}
 
 	/**
-	 * Reconnect all bridges that were pending a reconnect when connectivity
-	 * was lost.
+	 * Called by a bridge once its connection is back after
+	 * {@link #requestReconnect(TerminalBridge)}.
+	 *
+	 * @return milliseconds it took to restore, or -1 if no reconnect was
+	 * pending
 	 */
-	private void reconnectPending() {
-		synchronized (mPendingReconnect) {
-				TerminalBridge bridge = mPendingReconnect.get();
-				if (bridge != null) {
-				bridge.startConnection();
-			}
-		}
+	long onReconnected(TerminalBridge bridge) {
+		return reconnector.resumed(bridge);
 	}
 
 	/**
@@ -93,6 +93,20 @@ public abstract class AbsTransport {
 	 */
 	public abstract void write(byte[] buffer) throws IOException;
 
+	/**
+	 * Writes part of a buffer to the transport. See {@link #write(byte[])} for
+	 * behavior details. Transports should override this to avoid the copy.
+	 * @param buffer bytes to write to transport
+	 * @param offset where the bytes start in the buffer
+	 * @param length number of bytes to write
+	 * @throws IOException when there is a problem writing after connection
+	 */
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		byte[] part = new byte[length];
+		System.arraycopy(buffer, offset, part, 0, length);
+		write(part);
+	}
+
 	/**
 	 * Writes to the transport. See {@link #write(byte[])} for behavior details.
 	 * @param c character to write to the transport
@@ -137,6 +151,14 @@ public abstract class AbsTransport {
 		// do nothing
 	}
 
+	/**
+	 * @param mergeStderr whether standard error goes to the terminal along
+	 * with standard output, for transports that keep them apart
+	 */
+	public void setMergeStderr(boolean mergeStderr) {
+		// do nothing
+	}
+
 	public void setEmulation(String emulation) {
 		this.emulation = emulation;
 	}
@@ -211,6 +233,22 @@ public abstract class AbsTransport {
 		return null;
 	}
 
+	/**
+	 * @return live counters of an enabled port forward, or null if the
+	 * transport doesn't keep any for it
+	 */
+	public ForwardStats getPortForwardStats(PortForwardBean portForward) {
+		return null;
+	}
+
+	/**
+	 * @return milliseconds the other end took to answer the last liveness
+	 * probe, or -1 if the transport doesn't probe or had no answer yet
+	 */
+	public long getRoundTripMillis() {
+		return -1;
+	}
+
 	public abstract boolean isConnected();
 	public abstract boolean isSessionOpen();
 
@@ -0,0 +1,192 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Takes turns between the channels writing to one SSH connection. Writes
+ * of the interactive session go first; forwarded channels send at most
+ * {@link #QUANTUM} bytes at a time, in deficit round robin order, so a busy
+ * forward can't crowd out keystrokes or the other forwards.
+ *
+ * A write that takes longer than {@link #STALL_MILLIS} is most likely
+ * waiting for its channel's window to open, so it stops holding up the
+ * others until it's done rather than having them all wait on the far end.
+ */
+class ChannelScheduler {
+	static final int QUANTUM = 8192;
+
+	static final long STALL_MILLIS = 200;
+
+	private static final long MILLISECOND = 1000000L;
+
+	private static final Map<Object, ChannelScheduler> schedulers = new WeakHashMap<>();
+
+	/**
+	 * A forwarded channel's turn in the round.
+	 */
+	static class Flow {
+		private int deficit;
+		private boolean inTurn;
+		private boolean queued;
+		private long sendingSince;
+	}
+
+	private final ArrayDeque<Flow> queue = new ArrayDeque<>();
+
+	/* flows in the middle of a write */
+	private final List<Flow> sending = new ArrayList<>();
+
+	private int interactive;
+	private long interactiveSince;
+
+	/**
+	 * @return the scheduler of the channels on a connection, which may be
+	 * shared between several transports
+	 */
+	static ChannelScheduler of(Object connection) {
+		synchronized (schedulers) {
+			ChannelScheduler scheduler = schedulers.get(connection);
+			if (scheduler == null) {
+				scheduler = new ChannelScheduler();
+				schedulers.put(connection, scheduler);
+			}
+			return scheduler;
+		}
+	}
+
+	/**
+	 * The interactive session is about to write; forwarded channels hold off
+	 * until {@link #endInteractive()}.
+	 */
+	synchronized void beginInteractive() {
+		if (interactive++ == 0)
+			interactiveSince = System.nanoTime();
+	}
+
+	synchronized void endInteractive() {
+		interactive--;
+		notifyAll();
+	}
+
+	/**
+	 * Write a forwarded channel's data when it's that channel's turn.
+	 */
+	void write(Flow flow, OutputStream out, byte[] buffer, int offset, int length) throws IOException {
+		while (length > 0) {
+			int packet = Math.min(length, QUANTUM);
+			synchronized (this) {
+				if (!flow.queued)
+					enqueue(flow);
+				try {
+					awaitTurn(flow, packet);
+				} catch (InterruptedException e) {
+					queue.remove(flow);
+					flow.queued = false;
+					flow.inTurn = false;
+					notifyAll();
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+				queue.removeFirst();
+				flow.queued = false;
+				flow.deficit -= packet;
+				flow.sendingSince = System.nanoTime();
+				sending.add(flow);
+			}
+
+			boolean sent = false;
+			try {
+				out.write(buffer, offset, packet);
+				sent = true;
+			} finally {
+				synchronized (this) {
+					sending.remove(flow);
+					offset += packet;
+					length -= packet;
+					if (!sent || length == 0) {
+						// nothing left to send; credit isn't kept for idle flows
+						flow.deficit = 0;
+						flow.inTurn = false;
+					} else {
+						// still busy, so keep its place before anyone else looks
+						enqueue(flow);
+					}
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	private void enqueue(Flow flow) {
+		// a flow still in its turn carries on where it left off
+		if (flow.inTurn)
+			queue.addFirst(flow);
+		else
+			queue.addLast(flow);
+		flow.queued = true;
+	}
+
+	/**
+	 * Wait under the lock until the flow is at the head of the round with
+	 * enough credit for its packet and nothing goes before it.
+	 */
+	private void awaitTurn(Flow flow, int packet) throws InterruptedException {
+		while (true) {
+			if (isClear() && queue.peekFirst() == flow) {
+				if (!flow.inTurn) {
+					flow.deficit += QUANTUM;
+					flow.inTurn = true;
+				}
+				if (packet <= flow.deficit)
+					return;
+
+				// out of credit for this round; keep the rest for the next
+				flow.inTurn = false;
+				queue.removeFirst();
+				queue.addLast(flow);
+				notifyAll();
+				continue;
+			}
+			wait(STALL_MILLIS);
+		}
+	}
+
+	/**
+	 * @return whether nothing is being sent, not counting writes that have
+	 * stalled
+	 */
+	private boolean isClear() {
+		long now = System.nanoTime();
+		if (interactive > 0 && now - interactiveSince < STALL_MILLIS * MILLISECOND)
+			return false;
+		for (Flow flow : sending) {
+			if (now - flow.sendingSince < STALL_MILLIS * MILLISECOND)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers resolved host names for a minute, so reconnecting over a
+ * flapping network doesn't wait for DNS every time. The system resolver
+ * only caches for a couple of seconds.
+ *
+ * Entries are dropped early when connecting to their addresses fails,
+ * since the host may have moved.
+ */
+public class DnsCache {
+	static final long TTL = 60 * 1000;
+
+	private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	private static class Entry {
+		final InetAddress[] addresses;
+		final long expires;
+
+		Entry(InetAddress[] addresses, long expires) {
+			this.addresses = addresses;
+			this.expires = expires;
+		}
+	}
+
+	private DnsCache() {
+	}
+
+	/**
+	 * @return all addresses of the host, from the cache if they were
+	 * resolved within the last minute
+	 * @throws UnknownHostException if the host can't be resolved
+	 */
+	public static InetAddress[] resolve(String host) throws UnknownHostException {
+		return resolve(host, System.currentTimeMillis());
+	}
+
+	static InetAddress[] resolve(String host, long now) throws UnknownHostException {
+		String key = host.toLowerCase(Locale.US);
+		Entry entry = entries.get(key);
+		if (entry != null && now < entry.expires)
+			return entry.addresses.clone();
+
+		InetAddress[] addresses = InetAddress.getAllByName(host);
+		entries.put(key, new Entry(addresses, now + TTL));
+		return addresses.clone();
+	}
+
+	/**
+	 * Forget the addresses of a host, so the next lookup asks DNS again.
+	 */
+	public static void invalidate(String host) {
+		entries.remove(host.toLowerCase(Locale.US));
+	}
+}
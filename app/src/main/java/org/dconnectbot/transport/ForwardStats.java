@@ -0,0 +1,122 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live counters of one port forward, updated by the threads carrying its
+ * connections.
+ */
+public class ForwardStats {
+	private static final long MILLISECOND = 1000000L;
+
+	private final AtomicLong bytesIn = new AtomicLong();
+	private final AtomicLong bytesOut = new AtomicLong();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	private volatile long openLatency;
+
+	void addBytesIn(int count) {
+		bytesIn.addAndGet(count);
+	}
+
+	void addBytesOut(int count) {
+		bytesOut.addAndGet(count);
+	}
+
+	void queued() {
+		waiting.incrementAndGet();
+		total.incrementAndGet();
+	}
+
+	/**
+	 * A queued connection got its channel, which took {@code nanos} to open.
+	 */
+	synchronized void opened(long nanos) {
+		waiting.decrementAndGet();
+		active.incrementAndGet();
+		openLatency = openLatency == 0 ? nanos : (openLatency * 7 + nanos) / 8;
+	}
+
+	/**
+	 * A queued connection was given up on before it got a channel.
+	 */
+	void failed() {
+		waiting.decrementAndGet();
+		failed.incrementAndGet();
+	}
+
+	void closed() {
+		active.decrementAndGet();
+	}
+
+	/**
+	 * @return bytes sent from the far end to local clients
+	 */
+	public long getBytesIn() {
+		return bytesIn.get();
+	}
+
+	/**
+	 * @return bytes sent from local clients to the far end
+	 */
+	public long getBytesOut() {
+		return bytesOut.get();
+	}
+
+	/**
+	 * @return connections that have a channel open
+	 */
+	public int getActiveConnections() {
+		return active.get();
+	}
+
+	/**
+	 * @return connections waiting for a channel, because too many are open
+	 * or the channel is still being opened
+	 */
+	public int getWaitingConnections() {
+		return waiting.get();
+	}
+
+	/**
+	 * @return connections accepted since the forward was enabled
+	 */
+	public long getTotalConnections() {
+		return total.get();
+	}
+
+	/**
+	 * @return connections that never got a channel
+	 */
+	public long getFailedConnections() {
+		return failed.get();
+	}
+
+	/**
+	 * @return average time to open a channel, in milliseconds
+	 */
+	public long getOpenLatencyMillis() {
+		return openLatency / MILLISECOND;
+	}
+}
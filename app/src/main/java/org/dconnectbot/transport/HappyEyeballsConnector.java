@@ -0,0 +1,229 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects a TCP socket to a host name the way RFC 8305 (Happy Eyeballs)
+ * describes: the resolved addresses are tried IPv6 and IPv4 in turn, and a
+ * new attempt starts every 250 ms or as soon as the previous one fails,
+ * until one connects. A broken route for one family then costs a quarter
+ * second instead of a whole TCP timeout.
+ *
+ * The family that won is remembered per host and tried first next time.
+ * Addresses come from {@link DnsCache}.
+ */
+public class HappyEyeballsConnector {
+	/* RFC 8305 section 5, Connection Attempt Delay */
+	private static final long ATTEMPT_DELAY = 250;
+
+	private static final ExecutorService executor = Executors.newCachedThreadPool(
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r);
+					thread.setName("Connect");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	/* host name to whether IPv6 won the last race */
+	private static final Map<String, Boolean> preferIPv6 = new ConcurrentHashMap<>();
+
+	private HappyEyeballsConnector() {
+	}
+
+	/**
+	 * Resolve the host and connect to the first of its addresses that
+	 * answers.
+	 *
+	 * @param timeout milliseconds to give up after, or 0 to wait as long as
+	 * the system does
+	 * @return connected socket
+	 * @throws IOException the last error if no address could be connected
+	 * to, or a {@link SocketTimeoutException} after the timeout
+	 */
+	public static Socket connect(String host, int port, int timeout) throws IOException {
+		InetAddress[] resolved = DnsCache.resolve(host);
+		String key = host.toLowerCase(Locale.US);
+		Boolean cached = preferIPv6.get(key);
+		List<InetAddress> addresses = sortAddresses(resolved, cached == null || cached);
+
+		Socket socket;
+		try {
+			socket = race(addresses, port, timeout);
+		} catch (IOException e) {
+			// maybe the host moved; look it up again next time
+			DnsCache.invalidate(host);
+			throw e;
+		}
+		preferIPv6.put(key, socket.getInetAddress() instanceof Inet6Address);
+		return socket;
+	}
+
+	/**
+	 * Order addresses by alternating family, starting with the preferred one
+	 * and keeping the resolver's order within each family.
+	 */
+	static List<InetAddress> sortAddresses(InetAddress[] addresses, boolean ipv6First) {
+		List<InetAddress> first = new ArrayList<>();
+		List<InetAddress> second = new ArrayList<>();
+		for (InetAddress address : addresses) {
+			if ((address instanceof Inet6Address) == ipv6First)
+				first.add(address);
+			else
+				second.add(address);
+		}
+
+		List<InetAddress> sorted = new ArrayList<>(addresses.length);
+		for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+			if (i < first.size())
+				sorted.add(first.get(i));
+			if (i < second.size())
+				sorted.add(second.get(i));
+		}
+		return sorted;
+	}
+
+	private static Socket race(List<InetAddress> addresses, int port, int timeout)
+			throws IOException {
+		long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+		Race race = new Race();
+		CompletionService<Socket> attempts = new ExecutorCompletionService<>(executor);
+
+		int started = 0;
+		int failed = 0;
+		IOException lastError = null;
+		Socket winner = null;
+
+		try {
+			attempts.submit(attempt(race, addresses.get(started++), port, deadline));
+
+			while (winner == null && failed < addresses.size()) {
+				long wait = ATTEMPT_DELAY;
+				if (deadline > 0) {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						break;
+					wait = Math.min(wait, remaining);
+				}
+
+				Future<Socket> done = attempts.poll(wait, TimeUnit.MILLISECONDS);
+				if (done != null) {
+					try {
+						winner = done.get();
+						continue;
+					} catch (ExecutionException e) {
+						failed++;
+						if (e.getCause() instanceof IOException)
+							lastError = (IOException) e.getCause();
+					}
+				}
+
+				// no answer in time, or a failure: start on the next address
+				if (started < addresses.size())
+					attempts.submit(attempt(race, addresses.get(started++), port, deadline));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while connecting");
+		} finally {
+			race.finish(winner);
+		}
+
+		if (winner != null)
+			return winner;
+		if (failed < addresses.size() || lastError == null)
+			throw new SocketTimeoutException("Could not connect; socket timed out");
+		throw lastError;
+	}
+
+	/**
+	 * Sockets of the attempts in one race, so the ones that lost can be
+	 * closed.
+	 */
+	private static class Race {
+		private final List<Socket> sockets = new ArrayList<>();
+		private boolean over;
+
+		synchronized boolean add(Socket socket) {
+			if (over)
+				return false;
+			sockets.add(socket);
+			return true;
+		}
+
+		synchronized void finish(Socket winner) {
+			over = true;
+			for (Socket socket : sockets) {
+				if (socket != winner)
+					closeQuietly(socket);
+			}
+			sockets.clear();
+		}
+	}
+
+	private static Callable<Socket> attempt(final Race race, final InetAddress address,
+			final int port, final long deadline) {
+		return new Callable<Socket>() {
+			@Override
+			public Socket call() throws IOException {
+				int timeout = 0;
+				if (deadline > 0) {
+					timeout = (int) (deadline - System.currentTimeMillis());
+					if (timeout <= 0)
+						throw new SocketTimeoutException();
+				}
+
+				Socket socket = new Socket();
+				if (!race.add(socket))
+					throw new IOException("Connection race already over");
+				socket.connect(new InetSocketAddress(address, port), timeout);
+				return socket;
+			}
+		};
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+		}
+	}
+}
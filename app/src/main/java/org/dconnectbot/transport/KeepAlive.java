@@ -0,0 +1,259 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a probe that the server must answer every so often, so a
+ * connection whose peer went away, such as one a NAT box forgot about, is
+ * noticed before the user types into it. When a probe goes unanswered for
+ * {@link #MAX_MISSED} reply timeouts in a row, the peer is taken for dead.
+ *
+ * The interval grows by half with every answer, up to what the host is
+ * known to put up with. When a peer is found dead the host's limit drops to
+ * half the interval at the time, on the guess that a NAT timeout lies
+ * below it; later connections to the host start from there.
+ *
+ * Transports sharing one connection {@link #join} its one keepalive, so the
+ * connection is probed once however many sessions it carries.
+ */
+class KeepAlive {
+	private static final String TAG = "CB.KeepAlive";
+
+	static final long MIN_INTERVAL = 10 * 1000;
+	static final long INITIAL_INTERVAL = 30 * 1000;
+	static final long MAX_INTERVAL = 10 * 60 * 1000;
+
+	static final long REPLY_TIMEOUT = 5 * 1000;
+	static final int MAX_MISSED = 3;
+
+	private static final long MILLISECOND = 1000000L;
+
+	private static final ThreadFactory daemonThreads = new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r);
+			thread.setName("KeepAlive");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private static final ScheduledExecutorService scheduler =
+			Executors.newSingleThreadScheduledExecutor(daemonThreads);
+
+	/* probes block until answered, so each waits on a thread of its own */
+	private static final ExecutorService prober = Executors.newCachedThreadPool(daemonThreads);
+
+	/* host name to the longest interval its connections are known to survive */
+	private static final Map<String, Long> limits = new ConcurrentHashMap<>();
+
+	/* the keepalive running on each connection, until its last listener leaves */
+	private static final Map<Object, KeepAlive> running = new HashMap<>();
+
+	interface Probe {
+		/**
+		 * Ask the server for a reply and wait for it.
+		 *
+		 * @throws IOException if the connection is closed first
+		 */
+		void ping() throws IOException;
+	}
+
+	interface Listener {
+		void onPeerDead();
+	}
+
+	private final String host;
+	private final Probe probe;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+	private final long replyTimeout;
+	private final long limit;
+
+	private long interval;
+	private ScheduledFuture<?> next;
+	private boolean stopped;
+
+	private boolean waiting;
+	private long sent;
+	private int missed;
+
+	private volatile long roundTrip = -1;
+
+	KeepAlive(String host, Probe probe, Listener listener) {
+		this(host, probe, listener, INITIAL_INTERVAL, REPLY_TIMEOUT);
+	}
+
+	KeepAlive(String host, Probe probe, Listener listener, long interval, long replyTimeout) {
+		this.host = host.toLowerCase(Locale.US);
+		this.probe = probe;
+		listeners.add(listener);
+		this.replyTimeout = replyTimeout;
+
+		Long known = limits.get(this.host);
+		limit = known != null ? known : MAX_INTERVAL;
+		this.interval = Math.min(interval, limit);
+	}
+
+	/**
+	 * Listen to the keepalive of a connection, starting one if none runs on
+	 * it yet.
+	 */
+	static KeepAlive join(Object connection, String host, Probe probe, Listener listener) {
+		return join(connection, host, probe, listener, INITIAL_INTERVAL, REPLY_TIMEOUT);
+	}
+
+	static KeepAlive join(Object connection, String host, Probe probe, Listener listener,
+			long interval, long replyTimeout) {
+		synchronized (running) {
+			KeepAlive keepAlive = running.get(connection);
+			if (keepAlive != null && !keepAlive.isStopped()) {
+				keepAlive.listeners.add(listener);
+				return keepAlive;
+			}
+
+			keepAlive = new KeepAlive(host, probe, listener, interval, replyTimeout);
+			running.put(connection, keepAlive);
+			keepAlive.start();
+			return keepAlive;
+		}
+	}
+
+	/**
+	 * Stop listening, stopping the keepalive once nobody listens to it.
+	 */
+	void leave(Listener listener) {
+		synchronized (running) {
+			listeners.remove(listener);
+			if (listeners.isEmpty()) {
+				stop();
+				running.values().remove(this);
+			}
+		}
+	}
+
+	synchronized void start() {
+		schedule(sendProbe, interval);
+	}
+
+	synchronized void stop() {
+		stopped = true;
+		if (next != null)
+			next.cancel(false);
+	}
+
+	/**
+	 * @return time the last probe took to be answered, in milliseconds, or
+	 * -1 before the first answer
+	 */
+	long getRoundTripMillis() {
+		return roundTrip;
+	}
+
+	private synchronized boolean isStopped() {
+		return stopped;
+	}
+
+	synchronized long getInterval() {
+		return interval;
+	}
+
+	private void schedule(Runnable task, long delay) {
+		if (!stopped)
+			next = scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private final Runnable sendProbe = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (KeepAlive.this) {
+				if (stopped)
+					return;
+				waiting = true;
+				missed = 0;
+				sent = System.nanoTime();
+				schedule(checkReply, replyTimeout);
+			}
+
+			prober.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						probe.ping();
+						answered();
+					} catch (IOException e) {
+						// the connection is closed; whoever closed it knows
+						stop();
+					}
+				}
+			});
+		}
+	};
+
+	private final Runnable checkReply = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (KeepAlive.this) {
+				if (stopped || !waiting)
+					return;
+
+				if (++missed < MAX_MISSED) {
+					Log.d(TAG, String.format("No reply from %s for %d ms", host,
+							missed * replyTimeout));
+					schedule(checkReply, replyTimeout);
+					return;
+				}
+
+				stop();
+				limits.put(host, Math.max(MIN_INTERVAL, interval / 2));
+				Log.i(TAG, String.format("%s stopped answering after %d ms idle", host, interval));
+			}
+
+			for (Listener listener : listeners)
+				listener.onPeerDead();
+		}
+	};
+
+	private synchronized void answered() {
+		if (stopped)
+			return;
+
+		waiting = false;
+		roundTrip = (System.nanoTime() - sent) / MILLISECOND;
+
+		if (next != null)
+			next.cancel(false);
+		interval = Math.min(limit, interval + interval / 2);
+		schedule(sendProbe, interval);
+	}
+}
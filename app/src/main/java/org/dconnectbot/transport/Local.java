@@ -169,6 +169,12 @@ public class Local extends AbsTransport {
 			os.write(buffer);
 	}
 
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		if (os != null)
+			os.write(buffer, offset, length);
+	}
+
 	@Override
 	public void write(int c) throws IOException {
 		if (os != null)
@@ -26,11 +26,11 @@ import com.trilead.ssh2.ChannelCondition;
 import com.trilead.ssh2.Connection;
 import com.trilead.ssh2.ConnectionInfo;
 import com.trilead.ssh2.ConnectionMonitor;
-import com.trilead.ssh2.DynamicPortForwarder;
 import com.trilead.ssh2.ExtendedServerHostKeyVerifier;
 import com.trilead.ssh2.InteractiveCallback;
 import com.trilead.ssh2.KnownHosts;
-import com.trilead.ssh2.LocalPortForwarder;
+import com.trilead.ssh2.LocalStreamForwarder;
+import com.trilead.ssh2.ProxyData;
 import com.trilead.ssh2.Session;
 import com.trilead.ssh2.crypto.PEMDecoder;
 import com.trilead.ssh2.signature.DSASHA1Verify;
@@ -60,6 +60,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.security.KeyPair;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -78,6 +79,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -128,10 +131,27 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	private Connection connection;
 	private Session session;
 
+	/* account the connection is shared under, if it is */
+	private String shareKey;
+
+	/* set while on a connection another bridge opened */
+	private boolean borrowed = false;
+
+	/* cleared once a shared connection failed this bridge, to go on alone */
+	private boolean mayShare = true;
+
+	private volatile KeepAlive keepAlive;
+	private KeepAlive.Listener keepAliveListener;
+
 	private OutputStream stdin;
 	private InputStream stdout;
 	private InputStream stderr;
 
+	private volatile boolean mergeStderr = false;
+
+	/* standard error that isn't shown is read into here */
+	private final byte[] stderrDiscard = new byte[4096];
+
 	private static final int conditions = ChannelCondition.STDOUT_DATA
 		| ChannelCondition.STDERR_DATA
 		| ChannelCondition.CLOSED
@@ -154,12 +174,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		public boolean verifyServerHostKey(String hostname, int port,
 				String serverHostKeyAlgorithm, byte[] serverHostKey) throws IOException {
 
-			// read in all known hosts from hostdb
-			KnownHosts hosts = manager.hostdb.getKnownHosts();
 			Boolean result;
 
-			String matchName = String.format(Locale.US, "%s:%d", hostname, port);
-
 			String fingerprint = KnownHosts.createHexFingerprint(serverHostKeyAlgorithm, serverHostKey);
 
 			String algorithmName;
@@ -174,7 +190,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			else
 				algorithmName = serverHostKeyAlgorithm;
 
-			switch (hosts.verifyHostkey(matchName, serverHostKeyAlgorithm, serverHostKey)) {
+			// checks this host's keys alone, not every known host
+			switch (manager.hostdb.verifyKnownHost(hostname, port, serverHostKey)) {
 			case KnownHosts.HOSTKEY_IS_OK:
 				bridge.outputLine(manager.res.getString(R.string.terminal_sucess, algorithmName, fingerprint));
 				return true;
@@ -264,6 +281,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 					// try each of the in-memory keys
 					bridge.outputLine(manager.res
 							.getString(R.string.terminal_auth_pubkey_any));
+					manager.awaitStartPubkeys();
 					for (Entry<String, KeyHolder> entry : manager.loadedKeypairs.entrySet()) {
 						if (entry.getValue().bean.isConfirmUse()
 								&& !promptForPubkeyUse(entry.getKey()))
@@ -410,6 +428,14 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	private void finishConnection() {
 		authenticated = true;
 
+		if (shareKey == null && mayShare && manager.isConnectionSharing()) {
+			String key = getShareKey();
+			if (manager.shareConnection(key, connection))
+				shareKey = key;
+		}
+
+		startKeepAlive();
+
         for (PortForwardBean portForward : portForwards)
             try {
                 while (!enablePortForward(portForward)) {
@@ -446,14 +472,60 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			bridge.onConnected();
 		} catch (IOException e1) {
 			Log.e(TAG, "Problem while trying to create PTY in finishConnection()", e1);
+
+			if (borrowed) {
+				// let go of the other bridge's connection, leaving it open
+				// for the bridges on it, and carry on with one of our own
+				close();
+				mayShare = false;
+				authenticated = false;
+				connect();
+			}
 		}
 
 	}
 
+	/**
+	 * @return what a connection must match to be shared by this host: the
+	 * account and the options it was opened with
+	 */
+	private String getShareKey() {
+		return String.format(Locale.US, "%s@%s:%d%s", host.getUsername(),
+				host.getHostname().toLowerCase(Locale.US), host.getPort(),
+				compression ? "+compression" : "");
+	}
+
 	@Override
 	public void connect() {
+		if (mayShare && manager.isConnectionSharing()) {
+			String key = getShareKey();
+			Connection shared = manager.acquireConnection(key);
+			if (shared != null) {
+				// skip the handshake and authentication; just open channels
+				connection = shared;
+				shareKey = key;
+				borrowed = true;
+				ConnectionUsers.join(connection, this);
+				connected = true;
+
+				bridge.outputLine(manager.res.getString(R.string.terminal_shared_connection,
+						host.getHostname()));
+				finishConnection();
+				return;
+			}
+		}
+
 		connection = new Connection(host.getHostname(), host.getPort());
-		connection.addConnectionMonitor(this);
+		ConnectionUsers.join(connection, this);
+
+		// race the host's addresses instead of trying them one at a time
+		final int connectTimeout = manager.getConnectTimeout();
+		connection.setProxyData(new ProxyData() {
+			@Override
+			public Socket openConnection(String hostname, int port, int timeout) throws IOException {
+				return HappyEyeballsConnector.connect(hostname, port, connectTimeout);
+			}
+		});
 
 		try {
 			connection.setCompression(compression);
@@ -532,20 +604,122 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 	}
 
+	/**
+	 * The one monitor of a connection, passing its loss on to the bridges on
+	 * it at the time. Bridges leave when they close, so a shared connection
+	 * doesn't keep the ones closed before it alive.
+	 */
+	private static class ConnectionUsers implements ConnectionMonitor {
+		private static final Map<Connection, ConnectionUsers> monitors = new WeakHashMap<>();
+
+		private final List<SSH> users = new CopyOnWriteArrayList<>();
+
+		static void join(Connection connection, SSH user) {
+			synchronized (monitors) {
+				ConnectionUsers monitor = monitors.get(connection);
+				if (monitor == null) {
+					monitor = new ConnectionUsers();
+					monitors.put(connection, monitor);
+					connection.addConnectionMonitor(monitor);
+				}
+				monitor.users.add(user);
+			}
+		}
+
+		static void leave(Connection connection, SSH user) {
+			synchronized (monitors) {
+				ConnectionUsers monitor = monitors.get(connection);
+				if (monitor != null)
+					monitor.users.remove(user);
+			}
+		}
+
+		@Override
+		public void connectionLost(Throwable reason) {
+			for (SSH user : users)
+				user.connectionLost(reason);
+		}
+	}
+
+	private void startKeepAlive() {
+		final Connection connection = this.connection;
+		keepAliveListener = new KeepAlive.Listener() {
+			@Override
+			public void onPeerDead() {
+				if (!connected)
+					return;
+
+				// every bridge on the connection hears this; its channels are all gone
+				Log.i(TAG, "Server stopped answering keepalives, dropping connection");
+				if (shareKey != null)
+					manager.dropConnection(shareKey, connection);
+				close();
+				onDisconnect();
+			}
+		};
+		// one keepalive per connection, however many bridges share it
+		keepAlive = KeepAlive.join(connection, host.getHostname(), new KeepAlive.Probe() {
+			@Override
+			public void ping() throws IOException {
+				connection.ping();
+			}
+		}, keepAliveListener);
+	}
+
+	/**
+	 * @return milliseconds the server took to answer the last keepalive, or
+	 * -1 if none was answered yet
+	 */
+	@Override
+	public long getRoundTripMillis() {
+		KeepAlive keepAlive = this.keepAlive;
+		return keepAlive != null ? keepAlive.getRoundTripMillis() : -1;
+	}
+
 	@Override
 	public void close() {
 		connected = false;
 
+		if (keepAlive != null) {
+			keepAlive.leave(keepAliveListener);
+			keepAlive = null;
+		}
+
 		if (session != null) {
 			session.close();
 			session = null;
 		}
 
-		if (connection != null) {
+		// a shared connection stays up while other bridges use it
+		boolean stillShared = connection != null && shareKey != null
+				&& manager.releaseConnection(shareKey, connection);
+		shareKey = null;
+
+		// let go of listening sockets, so a resumed connection can bind them
+		for (PortForwardBean portForward : portForwards) {
+			Object identifier = portForward.getIdentifier();
+			if (identifier instanceof StreamForwarder)
+				((StreamForwarder) identifier).close();
+			else if (stillShared && portForward.isEnabled()
+					&& HostDatabase.PORTFORWARD_REMOTE.equals(portForward.getType())) {
+				try {
+					connection.cancelRemotePortForwarding(portForward.getSourcePort());
+				} catch (IOException e) {
+					Log.e(TAG, "Could not stop remote port forwarding", e);
+				}
+			}
 
-			connection.close();
+			portForward.setIdentifier(null);
+			portForward.setEnabled(false);
+		}
+
+		if (connection != null) {
+			ConnectionUsers.leave(connection, this);
+			if (!stillShared)
+				connection.close();
 			connection = null;
 		}
+		borrowed = false;
 	}
 
 	private void onDisconnect() {
@@ -566,20 +740,30 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		if (session == null)
 			return 0;
 
-		int newConditions = session.waitForCondition(conditions, 0);
+		// only wait when there is nothing to read already
+		int newConditions = 0;
+		if (stdout.available() == 0 && stderr.available() == 0)
+			newConditions = session.waitForCondition(conditions, 0);
 
-		if ((newConditions & ChannelCondition.STDOUT_DATA) != 0) {
+		if (stdout.available() > 0)
 			bytesRead = stdout.read(buffer, start, len);
-		}
 
-		if ((newConditions & ChannelCondition.STDERR_DATA) != 0) {
-			byte discard[] = new byte[256];
-			while (stderr.available() > 0) {
-				stderr.read(discard);
+		// take standard error in the same pass, into the room that's left
+		// or away, so it never holds up the window for standard output
+		int errorAvailable = stderr.available();
+		if (mergeStderr) {
+			if (errorAvailable > 0 && bytesRead < len)
+				bytesRead += stderr.read(buffer, start + bytesRead,
+						Math.min(len - bytesRead, errorAvailable));
+		} else {
+			while (errorAvailable > 0) {
+				stderr.read(stderrDiscard, 0, Math.min(stderrDiscard.length, errorAvailable));
+				errorAvailable = stderr.available();
 			}
 		}
 
-		if ((newConditions & ChannelCondition.EOF) != 0) {
+		if (bytesRead == 0
+				&& (newConditions & (ChannelCondition.EOF | ChannelCondition.CLOSED)) != 0) {
 			close();
 			onDisconnect();
 			throw new IOException("Remote end closed connection");
@@ -590,14 +774,32 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	@Override
 	public void write(byte[] buffer) throws IOException {
-		if (stdin != null)
-			stdin.write(buffer);
+		write(buffer, 0, buffer.length);
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		if (stdin == null)
+			return;
+
+		// keystrokes go ahead of forwarded channels on the same connection
+		ChannelScheduler scheduler = ChannelScheduler.of(connection);
+		scheduler.beginInteractive();
+		try {
+			stdin.write(buffer, offset, length);
+		} finally {
+			scheduler.endInteractive();
+		}
 	}
 
 	@Override
 	public void write(int c) throws IOException {
-		if (stdin != null)
-			stdin.write(c);
+		write(new byte[] { (byte) c }, 0, 1);
+	}
+
+	@Override
+	public void setMergeStderr(boolean mergeStderr) {
+		this.mergeStderr = mergeStderr;
 	}
 
 	@Override
@@ -631,7 +833,12 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	@Override
 	public void connectionLost(Throwable reason) {
-		onDisconnect();
+		// nothing to tell the bridge if we closed it ourselves
+		if (connected) {
+			if (shareKey != null)
+				manager.dropConnection(shareKey, connection);
+			onDisconnect();
+		}
 	}
 
 	@Override
@@ -668,21 +875,20 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			return false;
 
 		if (HostDatabase.PORTFORWARD_LOCAL.equals(portForward.getType())) {
-			LocalPortForwarder lpf = null;
+			StreamForwarder lpf = null;
 			try {
-				lpf = connection.createLocalPortForwarder(
+				lpf = new StreamForwarder(openChannels(),
 						new InetSocketAddress(InetAddress.getLocalHost(), portForward.getSourcePort()),
-						portForward.getDestAddr(), portForward.getDestPort());
+						new StreamForwarder.Destination(portForward.getDestAddr(), portForward.getDestPort()),
+						manager.getForwardBufferSize(), manager.getMaxForwardChannels());
+				lpf.setScheduler(ChannelScheduler.of(connection));
+				lpf.setRateLimit(portForward.getRateLimit() * 1024L);
+				lpf.start();
 			} catch (Exception e) {
 				Log.e(TAG, "Could not create local port forward", e);
 				return false;
 			}
 
-			if (lpf == null) {
-				Log.e(TAG, "returned LocalPortForwarder object is null");
-				return false;
-			}
-
 			portForward.setIdentifier(lpf);
 			portForward.setEnabled(true);
 			return true;
@@ -701,11 +907,15 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			portForward.setEnabled(true);
 			return true;
 		} else if (HostDatabase.PORTFORWARD_DYNAMIC5.equals(portForward.getType())) {
-			DynamicPortForwarder dpf = null;
+			SocksForwarder dpf = null;
 
 			try {
-				dpf = connection.createDynamicPortForwarder(
-						new InetSocketAddress(InetAddress.getLocalHost(), portForward.getSourcePort()));
+				dpf = new SocksForwarder(openChannels(),
+						new InetSocketAddress(InetAddress.getLocalHost(), portForward.getSourcePort()),
+						manager.getForwardBufferSize(), manager.getMaxForwardChannels());
+				dpf.setScheduler(ChannelScheduler.of(connection));
+				dpf.setRateLimit(portForward.getRateLimit() * 1024L);
+				dpf.start();
 			} catch (Exception e) {
 				Log.e(TAG, "Could not create dynamic port forward", e);
 				return false;
@@ -721,6 +931,44 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 		}
 	}
 
+	/**
+	 * @return opener of direct-tcpip channels on the current connection,
+	 * for forwards we carry ourselves
+	 */
+	private StreamForwarder.Tunnel openChannels() {
+		final Connection connection = this.connection;
+		return new StreamForwarder.Tunnel() {
+			@Override
+			public StreamForwarder.Channel open(String host, int port) throws IOException {
+				final LocalStreamForwarder channel = connection.createLocalStreamForwarder(host, port);
+				return new StreamForwarder.Channel() {
+					@Override
+					public InputStream getInputStream() throws IOException {
+						return channel.getInputStream();
+					}
+
+					@Override
+					public OutputStream getOutputStream() throws IOException {
+						return channel.getOutputStream();
+					}
+
+					@Override
+					public void close() throws IOException {
+						channel.close();
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	public ForwardStats getPortForwardStats(PortForwardBean portForward) {
+		Object identifier = portForward.getIdentifier();
+		if (identifier instanceof StreamForwarder)
+			return ((StreamForwarder) identifier).getStats();
+		return null;
+	}
+
 	@Override
 	public boolean disablePortForward(PortForwardBean portForward) {
 		if (!portForwards.contains(portForward)) {
@@ -732,8 +980,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 			return false;
 
 		if (HostDatabase.PORTFORWARD_LOCAL.equals(portForward.getType())) {
-			LocalPortForwarder lpf = null;
-			lpf = (LocalPortForwarder) portForward.getIdentifier();
+			StreamForwarder lpf = null;
+			lpf = (StreamForwarder) portForward.getIdentifier();
 
 			if (!portForward.isEnabled() || lpf == null) {
 				Log.d(TAG, String.format("Could not disable %s; it appears to be not enabled or have no handler", portForward.getNickname()));
@@ -757,8 +1005,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 			return true;
 		} else if (HostDatabase.PORTFORWARD_DYNAMIC5.equals(portForward.getType())) {
-			DynamicPortForwarder dpf = null;
-			dpf = (DynamicPortForwarder) portForward.getIdentifier();
+			SocksForwarder dpf = null;
+			dpf = (SocksForwarder) portForward.getIdentifier();
 
 			if (!portForward.isEnabled() || dpf == null) {
 				Log.d(TAG, String.format("Could not disable %s; it appears to be not enabled or have no handler", portForward.getNickname()));
@@ -781,6 +1029,8 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 	public void setDimensions(int columns, int rows, int width, int height) {
 		this.columns = columns;
 		this.rows = rows;
+		this.width = width;
+		this.height = height;
 
 		if (sessionOpen) {
 			try {
@@ -917,6 +1167,7 @@ public class SSH extends AbsTransport implements ConnectionMonitor, InteractiveC
 
 	@Override
 	public Map<String, byte[]> retrieveIdentities() {
+		manager.awaitStartPubkeys();
 		Map<String, byte[]> pubKeys = new HashMap<>(manager.loadedKeypairs.size());
 
 		for (Entry<String, KeyHolder> entry : manager.loadedKeypairs.entrySet()) {
@@ -0,0 +1,190 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * A {@link StreamForwarder} that asks each client where to go with the
+ * SOCKS protocol, versions 4, 4a and 5. Only CONNECT without
+ * authentication is supported, like the dynamic forwarding in sshlib.
+ */
+class SocksForwarder extends StreamForwarder {
+	private static final int SOCKS4 = 4;
+	private static final int SOCKS5 = 5;
+
+	private static final int CONNECT = 1;
+
+	private static final int SOCKS4_GRANTED = 0x5a;
+	private static final int SOCKS4_REJECTED = 0x5b;
+
+	private static final int SOCKS5_NO_AUTHENTICATION = 0;
+	private static final int SOCKS5_NO_METHOD = 0xff;
+	private static final int SOCKS5_SUCCEEDED = 0;
+	private static final int SOCKS5_FAILURE = 1;
+	private static final int SOCKS5_UNSUPPORTED_COMMAND = 7;
+
+	private static final int ATYP_IPV4 = 1;
+	private static final int ATYP_DOMAIN = 3;
+	private static final int ATYP_IPV6 = 4;
+
+	/**
+	 * How long a client may take to say where it wants to go; an idle one
+	 * would otherwise hold a thread that waiting clients need.
+	 */
+	private static final int HANDSHAKE_MILLIS = 10 * 1000;
+
+	private static class SocksDestination extends Destination {
+		final int version;
+
+		SocksDestination(String host, int port, int version) {
+			super(host, port);
+			this.version = version;
+		}
+	}
+
+	private int handshakeMillis = HANDSHAKE_MILLIS;
+
+	SocksForwarder(Tunnel tunnel, InetSocketAddress listen, int bufferSize, int maxChannels) {
+		super(tunnel, listen, null, bufferSize, maxChannels);
+	}
+
+	void setHandshakeTimeout(int millis) {
+		handshakeMillis = millis;
+	}
+
+	@Override
+	Destination readDestination(Socket client) throws IOException {
+		DataInputStream in = new DataInputStream(client.getInputStream());
+		OutputStream out = client.getOutputStream();
+
+		client.setSoTimeout(handshakeMillis);
+		Destination destination;
+		int version = in.readUnsignedByte();
+		if (version == SOCKS4)
+			destination = readSocks4(in, out);
+		else if (version == SOCKS5)
+			destination = readSocks5(in, out);
+		else
+			throw new IOException("Unknown SOCKS version " + version);
+		// once forwarding, the client may stay quiet as long as it likes
+		client.setSoTimeout(0);
+		return destination;
+	}
+
+	private Destination readSocks4(DataInputStream in, OutputStream out) throws IOException {
+		int command = in.readUnsignedByte();
+		int port = in.readUnsignedShort();
+		byte[] address = new byte[4];
+		in.readFully(address);
+		readString(in); // user id
+
+		String host;
+		if (address[0] == 0 && address[1] == 0 && address[2] == 0 && address[3] != 0)
+			host = readString(in); // 4a: the client left resolving to us
+		else
+			host = InetAddress.getByAddress(address).getHostAddress();
+
+		if (command != CONNECT) {
+			replySocks4(out, false);
+			throw new IOException("Unsupported SOCKS4 command " + command);
+		}
+		return new SocksDestination(host, port, SOCKS4);
+	}
+
+	private Destination readSocks5(DataInputStream in, OutputStream out) throws IOException {
+		int methods = in.readUnsignedByte();
+		boolean noAuthentication = false;
+		for (int i = 0; i < methods; i++) {
+			if (in.readUnsignedByte() == SOCKS5_NO_AUTHENTICATION)
+				noAuthentication = true;
+		}
+
+		if (!noAuthentication) {
+			out.write(new byte[] { SOCKS5, (byte) SOCKS5_NO_METHOD });
+			out.flush();
+			throw new IOException("SOCKS5 client requires authentication");
+		}
+		out.write(new byte[] { SOCKS5, SOCKS5_NO_AUTHENTICATION });
+		out.flush();
+
+		if (in.readUnsignedByte() != SOCKS5)
+			throw new IOException("Bad SOCKS5 request");
+		int command = in.readUnsignedByte();
+		in.readUnsignedByte(); // reserved
+
+		String host;
+		int type = in.readUnsignedByte();
+		if (type == ATYP_IPV4 || type == ATYP_IPV6) {
+			byte[] address = new byte[type == ATYP_IPV4 ? 4 : 16];
+			in.readFully(address);
+			host = InetAddress.getByAddress(address).getHostAddress();
+		} else if (type == ATYP_DOMAIN) {
+			byte[] name = new byte[in.readUnsignedByte()];
+			in.readFully(name);
+			host = new String(name, "US-ASCII");
+		} else {
+			throw new IOException("Unknown SOCKS5 address type " + type);
+		}
+		int port = in.readUnsignedShort();
+
+		if (command != CONNECT) {
+			replySocks5(out, SOCKS5_UNSUPPORTED_COMMAND);
+			throw new IOException("Unsupported SOCKS5 command " + command);
+		}
+		return new SocksDestination(host, port, SOCKS5);
+	}
+
+	@Override
+	void replyOpened(Socket client, Destination destination, boolean opened) throws IOException {
+		OutputStream out = client.getOutputStream();
+		if (((SocksDestination) destination).version == SOCKS4)
+			replySocks4(out, opened);
+		else
+			replySocks5(out, opened ? SOCKS5_SUCCEEDED : SOCKS5_FAILURE);
+	}
+
+	private static void replySocks4(OutputStream out, boolean granted) throws IOException {
+		out.write(new byte[] { 0, (byte) (granted ? SOCKS4_GRANTED : SOCKS4_REJECTED),
+				0, 0, 0, 0, 0, 0 });
+		out.flush();
+	}
+
+	private static void replySocks5(OutputStream out, int reply) throws IOException {
+		// the bound address isn't known for a channel; clients ignore it
+		out.write(new byte[] { SOCKS5, (byte) reply, 0, ATYP_IPV4, 0, 0, 0, 0, 0, 0 });
+		out.flush();
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int b;
+		while ((b = in.readUnsignedByte()) != 0) {
+			if (bytes.size() == 255)
+				throw new IOException("SOCKS4 string too long");
+			bytes.write(b);
+		}
+		return bytes.toString("US-ASCII");
+	}
+}
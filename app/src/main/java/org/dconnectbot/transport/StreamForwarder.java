@@ -0,0 +1,427 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listens on a local port and carries every connection to it over a
+ * channel of its own to a fixed destination, counting what goes through
+ * in a {@link ForwardStats}.
+ *
+ * Connections are served by a pool of threads kept for this forward. At
+ * most a set number of channels are open at once; connections beyond that
+ * wait their turn, and beyond {@link #MAX_WAITING} more are refused.
+ *
+ * What clients send can be scheduled against the other channels on the
+ * connection, and both directions held to a rate shared by all
+ * connections of the forward.
+ */
+class StreamForwarder implements Runnable {
+	private static final String TAG = "CB.StreamForwarder";
+
+	static final int MAX_WAITING = 64;
+
+	/* how long an idle pool thread is kept for the next connection */
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	/**
+	 * Opens channels to the far end, over SSH.
+	 */
+	interface Tunnel {
+		Channel open(String host, int port) throws IOException;
+	}
+
+	interface Channel extends Closeable {
+		InputStream getInputStream() throws IOException;
+		OutputStream getOutputStream() throws IOException;
+	}
+
+	/**
+	 * Where a client wants to go.
+	 */
+	static class Destination {
+		final String host;
+		final int port;
+
+		Destination(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+	}
+
+	private final Tunnel tunnel;
+	private final InetSocketAddress listen;
+	private final Destination destination;
+	private final int bufferSize;
+	private final int maxChannels;
+
+	private final ForwardStats stats = new ForwardStats();
+	private final Semaphore channels;
+	private final ThreadPoolExecutor pool;
+	private final Set<Closeable> open = new HashSet<>();
+
+	private ServerSocket server;
+	private volatile boolean stopped;
+
+	private volatile ChannelScheduler scheduler;
+	private volatile TokenBucket inLimit;
+	private volatile TokenBucket outLimit;
+
+	/**
+	 * @param destination where every connection goes, or null if each
+	 * client says so itself
+	 * @param bufferSize bytes copied at once in each direction, and the size
+	 * of the client sockets' buffers
+	 * @param maxChannels most channels open at the same time
+	 */
+	StreamForwarder(Tunnel tunnel, InetSocketAddress listen, Destination destination,
+			int bufferSize, int maxChannels) {
+		this.tunnel = tunnel;
+		this.listen = listen;
+		this.destination = destination;
+		this.bufferSize = bufferSize;
+		this.maxChannels = maxChannels;
+
+		channels = new Semaphore(maxChannels, true);
+		pool = new ThreadPoolExecutor(0, Integer.MAX_VALUE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r);
+						thread.setName("PortForward");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Bind the local port and start accepting connections.
+	 */
+	void start() throws IOException {
+		server = new ServerSocket();
+		server.setReuseAddress(true);
+		server.bind(listen);
+
+		Thread acceptThread = new Thread(this);
+		acceptThread.setName("PortForwardAccept");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	/**
+	 * Stop listening and close every connection.
+	 */
+	void close() {
+		stopped = true;
+		closeQuietly(server);
+
+		List<Closeable> closing;
+		synchronized (open) {
+			closing = new ArrayList<>(open);
+			open.clear();
+		}
+		for (Closeable closeable : closing)
+			closeQuietly(closeable);
+
+		pool.shutdown();
+	}
+
+	/**
+	 * Take turns with the other channels on the connection when sending.
+	 */
+	void setScheduler(ChannelScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * @param bytesPerSecond most bytes carried each way per second by all
+	 * connections together, or 0 for no limit
+	 */
+	void setRateLimit(long bytesPerSecond) {
+		if (bytesPerSecond > 0) {
+			inLimit = new TokenBucket(bytesPerSecond);
+			outLimit = new TokenBucket(bytesPerSecond);
+		} else {
+			inLimit = null;
+			outLimit = null;
+		}
+	}
+
+	ForwardStats getStats() {
+		return stats;
+	}
+
+	int getLocalPort() {
+		return server.getLocalPort();
+	}
+
+	int getMaxChannels() {
+		return maxChannels;
+	}
+
+	@Override
+	public void run() {
+		while (!stopped) {
+			final Socket client;
+			try {
+				client = server.accept();
+			} catch (IOException e) {
+				if (!stopped)
+					Log.e(TAG, "Problem accepting connection, no longer forwarding", e);
+				return;
+			}
+
+			if (stats.getWaitingConnections() >= MAX_WAITING) {
+				Log.w(TAG, "Too many connections waiting for a channel, refusing one");
+				closeQuietly(client);
+				continue;
+			}
+
+			stats.queued();
+			try {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						serve(client);
+					}
+				});
+			} catch (RuntimeException e) {
+				// the pool was shut down under us
+				stats.failed();
+				closeQuietly(client);
+			}
+		}
+	}
+
+	/**
+	 * Read where the client wants to go, if it says.
+	 */
+	Destination readDestination(Socket client) throws IOException {
+		return destination;
+	}
+
+	/**
+	 * Tell the client whether its channel could be opened, if it asked for
+	 * one.
+	 */
+	void replyOpened(Socket client, Destination destination, boolean opened) throws IOException {
+	}
+
+	private void serve(Socket client) {
+		Closeable clientCloser = closeable(client);
+		Channel channel = null;
+		boolean opened = false;
+		boolean acquired = false;
+		Destination target = null;
+
+		try {
+			track(clientCloser);
+			client.setTcpNoDelay(true);
+			client.setReceiveBufferSize(bufferSize);
+			client.setSendBufferSize(bufferSize);
+
+			target = readDestination(client);
+
+			channels.acquire();
+			acquired = true;
+
+			long start = System.nanoTime();
+			channel = tunnel.open(target.host, target.port);
+			track(channel);
+			stats.opened(System.nanoTime() - start);
+			opened = true;
+
+			replyOpened(client, target, true);
+			carry(client, channel);
+		} catch (IOException e) {
+			Log.d(TAG, "Forwarded connection ended: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (opened) {
+				stats.closed();
+			} else {
+				stats.failed();
+				if (target != null) {
+					try {
+						replyOpened(client, target, false);
+					} catch (IOException ignored) {
+					}
+				}
+			}
+
+			if (acquired)
+				channels.release();
+
+			untrack(channel);
+			untrack(clientCloser);
+		}
+	}
+
+	/**
+	 * Copy both ways until both sides are done, the far end's data on
+	 * another pool thread.
+	 */
+	private void carry(final Socket client, final Channel channel) throws IOException {
+		Future<?> incoming;
+		try {
+			incoming = pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						copy(channel.getInputStream(), client.getOutputStream(), true);
+						client.shutdownOutput();
+					} catch (IOException e) {
+						// the other direction notices and closes up
+						closeQuietly(client);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			throw new IOException("Port forward closed");
+		}
+
+		try {
+			copy(client.getInputStream(), channel.getOutputStream(), false);
+			// tell the far end nothing more is coming
+			channel.getOutputStream().close();
+		} catch (IOException e) {
+			closeQuietly(channel);
+			incoming.cancel(true);
+			throw e;
+		}
+
+		try {
+			incoming.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			Log.d(TAG, "Problem carrying data back", e);
+		}
+	}
+
+	private void copy(InputStream in, OutputStream out, boolean incoming) throws IOException {
+		byte[] buffer = new byte[bufferSize];
+		ChannelScheduler.Flow flow = new ChannelScheduler.Flow();
+		int n;
+		while ((n = in.read(buffer)) >= 0) {
+			if (n == 0)
+				continue;
+
+			TokenBucket limit = incoming ? inLimit : outLimit;
+			if (limit != null) {
+				try {
+					limit.take(n);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+
+			// only what we send goes over the connection in our order
+			ChannelScheduler scheduler = this.scheduler;
+			if (!incoming && scheduler != null)
+				scheduler.write(flow, out, buffer, 0, n);
+			else
+				out.write(buffer, 0, n);
+			out.flush();
+			if (incoming)
+				stats.addBytesIn(n);
+			else
+				stats.addBytesOut(n);
+		}
+	}
+
+	private void track(Closeable closeable) throws IOException {
+		synchronized (open) {
+			if (stopped)
+				throw new IOException("Port forward closed");
+			open.add(closeable);
+		}
+	}
+
+	private void untrack(Closeable closeable) {
+		if (closeable == null)
+			return;
+		synchronized (open) {
+			open.remove(closeable);
+		}
+		closeQuietly(closeable);
+	}
+
+	static void closeQuietly(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	static void closeQuietly(ServerSocket server) {
+		if (server == null)
+			return;
+		try {
+			server.close();
+		} catch (IOException ignored) {
+		}
+	}
+
+	/**
+	 * A socket to track with the channels; sockets themselves are only
+	 * {@link Closeable} from API 19 on.
+	 */
+	private static Closeable closeable(final Socket socket) {
+		return new Closeable() {
+			@Override
+			public void close() throws IOException {
+				socket.close();
+			}
+		};
+	}
+}
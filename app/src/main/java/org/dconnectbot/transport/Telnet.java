@@ -22,6 +22,8 @@ import android.content.Context;
 import android.net.Uri;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
+
 import org.dconnectbot.R;
 import org.dconnectbot.bean.HostBean;
 import org.dconnectbot.service.TerminalBridge;
@@ -31,11 +33,8 @@ import org.dconnectbot.util.HostDatabase;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.util.Map;
@@ -128,24 +127,11 @@ public class Telnet extends AbsTransport {
 		return PROTOCOL;
 	}
 
-	private static void tryAllAddresses(Socket sock, String host, int port) throws IOException {
-		InetAddress[] addresses = InetAddress.getAllByName(host);
-		for (InetAddress addr : addresses) {
-			try {
-				sock.connect(new InetSocketAddress(addr, port));
-				return;
-			} catch (SocketTimeoutException e) {
-			}
-		}
-		throw new SocketTimeoutException("Could not connect; socket timed out");
-	}
-
 	@Override
 	public void connect() {
 		try {
-			socket = new Socket();
-
-			tryAllAddresses(socket, host.getHostname(), host.getPort());
+			socket = HappyEyeballsConnector.connect(host.getHostname(), host.getPort(),
+					manager.getConnectTimeout());
 
 			connected = true;
 
@@ -160,6 +146,13 @@ public class Telnet extends AbsTransport {
 		}
 	}
 
+	@VisibleForTesting
+	void setStreams(InputStream is, OutputStream os) {
+		this.is = is;
+		this.os = os;
+		connected = true;
+	}
+
 	@Override
 	public void close() {
 		connected = false;
@@ -231,6 +224,16 @@ public class Telnet extends AbsTransport {
 		}
 	}
 
+	@Override
+	public void write(byte[] buffer, int offset, int length) throws IOException {
+		try {
+			if (os != null)
+				os.write(buffer, offset, length);
+		} catch (SocketException e) {
+			bridge.dispatchDisconnect(false);
+		}
+	}
+
 	@Override
 	public void write(int c) throws IOException {
 		try {
@@ -0,0 +1,84 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Holds a stream of bytes to a rate, letting through bursts of up to a
+ * quarter of a second's worth at once. Shared by all connections of a port
+ * forward, so the limit applies to the forward as a whole.
+ */
+class TokenBucket {
+	private static final long SECOND = 1000000000L;
+	private static final long MILLISECOND = 1000000L;
+
+	private final long rate;
+	private final long capacity;
+
+	private long tokens;
+	private long last;
+
+	/**
+	 * @param bytesPerSecond sustained rate, at least one
+	 */
+	TokenBucket(long bytesPerSecond) {
+		this(bytesPerSecond, System.nanoTime());
+	}
+
+	@VisibleForTesting
+	TokenBucket(long bytesPerSecond, long now) {
+		rate = Math.max(1, bytesPerSecond);
+		capacity = Math.max(1, rate / 4);
+		tokens = capacity;
+		last = now;
+	}
+
+	long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Account for bytes about to be sent, waiting until the rate allows it.
+	 * Callers queue up behind each other's debt, so concurrent takers share
+	 * the rate.
+	 */
+	void take(int bytes) throws InterruptedException {
+		long wait = reserve(bytes, System.nanoTime());
+		if (wait > 0)
+			Thread.sleep(wait / MILLISECOND, (int) (wait % MILLISECOND));
+	}
+
+	/**
+	 * Take bytes out of the bucket.
+	 *
+	 * @return nanoseconds to wait before the bytes may be sent
+	 */
+	@VisibleForTesting
+	synchronized long reserve(int bytes, long now) {
+		// all the time since the last take counts, as paying off a debt may
+		// take longer than a second; only the bucket itself is bounded
+		long elapsed = now - last;
+		long fill = (capacity - tokens) * SECOND / rate;
+		tokens = elapsed >= fill ? capacity : tokens + elapsed * rate / SECOND;
+		last = now;
+
+		tokens -= bytes;
+		return tokens < 0 ? -tokens * SECOND / rate : 0;
+	}
+}
@@ -63,6 +63,55 @@ public final class Encryptor
 	}
 
 
+	/**
+	* Derive the 16-byte secret key and 16-byte initialization vector from the password.
+	* Each iteration digests the previous result (the password, at first) followed by the salt.
+	* The digest and its output buffer are reused across iterations, so the loop allocates nothing.
+	*
+	* @param salt
+	*	  salt to add in each iteration
+	* @param iterations
+	*	  number of iterations to use in salting
+	* @param password
+	*	  password to derive from
+	* @param key
+	*	  secret key (to be populated)
+	* @param iv
+	*	  initialization vector (to be populated)
+	* @throws Exception
+	*	  on any error encountered in computing the digest
+	*/
+	private static void deriveKeyAndIv(
+			final byte[] salt,
+			final int iterations,
+			final String password,
+			final byte[] key,
+			final byte[] iv)
+			throws Exception
+	{
+		final MessageDigest shaDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+		final byte[] pw = password.getBytes(CHARSET_NAME);
+		final byte[] digest = new byte[shaDigest.getDigestLength()];
+
+		byte[] input = pw;
+
+		for (int i = 0; i < iterations; i++)
+		{
+			/* compute SHA-256 digest of the input and salt, in place */
+			shaDigest.update(input, 0, input.length);
+			shaDigest.update(salt, 0, salt.length);
+			shaDigest.digest(digest, 0, digest.length);
+			input = digest;
+		}
+
+		/* extract the 16-byte key and initialization vector from the SHA-256 digest */
+		System.arraycopy(input, 0, key, 0, 16);
+		System.arraycopy(input, 16, iv, 0, 16);
+		Arrays.fill(pw, (byte) 0x00);
+		Arrays.fill(digest, (byte) 0x00);
+	}
+
+
 	/**
 	* Encrypt the specified cleartext using the given password.
 	* With the correct salt, number of iterations, and password, the decrypt() method reverses
@@ -96,29 +145,9 @@ public final class Encryptor
 		SecureRandom.getInstance(RNG_ALGORITHM).nextBytes(salt);
 
 		/* compute key and initialization vector */
-		final MessageDigest shaDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-		byte[] pw = password.getBytes(CHARSET_NAME);
-
-		for (int i = 0; i < iterations; i++)
-		{
-			/* add salt */
-			final byte[] salted = new byte[pw.length + salt.length];
-			System.arraycopy(pw, 0, salted, 0, pw.length);
-			System.arraycopy(salt, 0, salted, pw.length, salt.length);
-			Arrays.fill(pw, (byte) 0x00);
-
-			/* compute SHA-256 digest */
-			shaDigest.reset();
-			pw = shaDigest.digest(salted);
-			Arrays.fill(salted, (byte) 0x00);
-		}
-
-		/* extract the 16-byte key and initialization vector from the SHA-256 digest */
 		final byte[] key = new byte[16];
 		final byte[] iv = new byte[16];
-		System.arraycopy(pw, 0, key, 0, 16);
-		System.arraycopy(pw, 16, iv, 0, 16);
-		Arrays.fill(pw, (byte) 0x00);
+		deriveKeyAndIv(salt, iterations, password, key, iv);
 
 		/* perform AES-128 encryption */
 		final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
@@ -165,29 +194,9 @@ public final class Encryptor
 			throws Exception
 	{
 		/* compute key and initialization vector */
-		final MessageDigest shaDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
-		byte[] pw = password.getBytes(CHARSET_NAME);
-
-		for (int i = 0; i < iterations; i++)
-		{
-			/* add salt */
-			final byte[] salted = new byte[pw.length + salt.length];
-			System.arraycopy(pw, 0, salted, 0, pw.length);
-			System.arraycopy(salt, 0, salted, pw.length, salt.length);
-			Arrays.fill(pw, (byte) 0x00);
-
-			/* compute SHA-256 digest */
-			shaDigest.reset();
-			pw = shaDigest.digest(salted);
-			Arrays.fill(salted, (byte) 0x00);
-		}
-
-		/* extract the 16-byte key and initialization vector from the SHA-256 digest */
 		final byte[] key = new byte[16];
 		final byte[] iv = new byte[16];
-		System.arraycopy(pw, 0, key, 0, 16);
-		System.arraycopy(pw, 16, iv, 0, 16);
-		Arrays.fill(pw, (byte) 0x00);
+		deriveKeyAndIv(salt, iterations, password, key, iv);
 
 		/* perform AES-128 decryption */
 		final Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
@@ -20,8 +20,10 @@ package org.dconnectbot.util;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
@@ -35,12 +37,14 @@ import org.dconnectbot.data.HostStorage;
 
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Contains information about various SSH hosts, include public hostkey if known
@@ -53,7 +57,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
     public final static String TAG = "CB.HostDatabase";
 
     public final static String DB_NAME = "hosts";
-    public final static int DB_VERSION = 25;
+    public final static int DB_VERSION = 27;
 
     public final static String TABLE_HOSTS = "hosts";
     public final static String FIELD_HOST_NICKNAME = "nickname";
@@ -89,6 +93,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
     public final static String FIELD_PORTFORWARD_SOURCEPORT = "sourceport";
     public final static String FIELD_PORTFORWARD_DESTADDR = "destaddr";
     public final static String FIELD_PORTFORWARD_DESTPORT = "destport";
+    public final static String FIELD_PORTFORWARD_RATELIMIT = "ratelimit";
 
     public final static String TABLE_COLORS = "colors";
     public final static String FIELD_COLOR_SCHEME = "scheme";
@@ -152,6 +157,10 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
     public static final String CREATE_TABLE_HOSTS = "CREATE TABLE " + TABLE_HOSTS
             + " (" + TABLE_HOSTS_COLUMNS + ")";
 
+    public static final String CREATE_TABLE_HOSTS_INDEX =
+            "CREATE INDEX " + TABLE_HOSTS + FIELD_HOST_HOSTNAME + FIELD_HOST_PORT + "index ON "
+                    + TABLE_HOSTS + " (" + FIELD_HOST_HOSTNAME + ", " + FIELD_HOST_PORT + ");";
+
     public static final String CREATE_TABLE_COLOR_DEFAULTS =
             "CREATE TABLE " + TABLE_COLOR_DEFAULTS
                     + " (" + FIELD_COLOR_SCHEME + " INTEGER NOT NULL, "
@@ -169,6 +178,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
     static {
         addTableName(TABLE_HOSTS);
+        addIndexName(TABLE_HOSTS + FIELD_HOST_HOSTNAME + FIELD_HOST_PORT + "index");
         addTableName(TABLE_KNOWNHOSTS);
         addIndexName(TABLE_KNOWNHOSTS + FIELD_KNOWNHOSTS_HOSTID + "index");
         addTableName(TABLE_PORTFORWARDS);
@@ -185,6 +195,21 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
     private final float displayDensity;
     private final SQLiteDatabase mDb;
 
+    private final List<OnHostsChangedListener> hostsChangedListeners = new CopyOnWriteArrayList<>();
+
+    /*
+     * The writes made on every connection and in bulk, compiled once. Each
+     * is used under its own lock, as its bindings are shared.
+     */
+    private final SQLiteStatement touchHostStatement;
+    private final SQLiteStatement deleteKnownHostStatement;
+    private final SQLiteStatement insertKnownHostStatement;
+    private final SQLiteStatement updateColorStatement;
+    private final SQLiteStatement insertColorStatement;
+    private final SQLiteStatement deleteColorStatement;
+    private final SQLiteStatement insertPortForwardStatement;
+    private final SQLiteStatement updatePortForwardStatement;
+
     private HostDatabase(Context context) {
         this(context, DB_NAME);
     }
@@ -194,6 +219,40 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
         this.displayDensity = context.getResources().getDisplayMetrics().density;
         mDb = getWritableDatabase();
+
+        touchHostStatement = mDb.compileStatement("UPDATE " + TABLE_HOSTS
+                + " SET " + FIELD_HOST_LASTCONNECT + " = ? WHERE _id = ?");
+        deleteKnownHostStatement = mDb.compileStatement("DELETE FROM " + TABLE_KNOWNHOSTS
+                + " WHERE " + FIELD_KNOWNHOSTS_HOSTID + " = ? AND "
+                + FIELD_KNOWNHOSTS_HOSTKEYALGO + " = ?");
+        insertKnownHostStatement = mDb.compileStatement("INSERT INTO " + TABLE_KNOWNHOSTS + " ("
+                + FIELD_KNOWNHOSTS_HOSTID + ", "
+                + FIELD_KNOWNHOSTS_HOSTKEYALGO + ", "
+                + FIELD_KNOWNHOSTS_HOSTKEY + ") VALUES (?, ?, ?)");
+        updateColorStatement = mDb.compileStatement("UPDATE " + TABLE_COLORS
+                + " SET " + FIELD_COLOR_VALUE + " = ? WHERE " + WHERE_SCHEME_AND_COLOR);
+        insertColorStatement = mDb.compileStatement("INSERT INTO " + TABLE_COLORS + " ("
+                + FIELD_COLOR_SCHEME + ", "
+                + FIELD_COLOR_NUMBER + ", "
+                + FIELD_COLOR_VALUE + ") VALUES (?, ?, ?)");
+        deleteColorStatement = mDb.compileStatement("DELETE FROM " + TABLE_COLORS
+                + " WHERE " + WHERE_SCHEME_AND_COLOR);
+        insertPortForwardStatement = mDb.compileStatement("INSERT INTO " + TABLE_PORTFORWARDS + " ("
+                + FIELD_PORTFORWARD_HOSTID + ", "
+                + FIELD_PORTFORWARD_NICKNAME + ", "
+                + FIELD_PORTFORWARD_TYPE + ", "
+                + FIELD_PORTFORWARD_SOURCEPORT + ", "
+                + FIELD_PORTFORWARD_DESTADDR + ", "
+                + FIELD_PORTFORWARD_DESTPORT + ", "
+                + FIELD_PORTFORWARD_RATELIMIT + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+        updatePortForwardStatement = mDb.compileStatement("UPDATE " + TABLE_PORTFORWARDS + " SET "
+                + FIELD_PORTFORWARD_HOSTID + " = ?, "
+                + FIELD_PORTFORWARD_NICKNAME + " = ?, "
+                + FIELD_PORTFORWARD_TYPE + " = ?, "
+                + FIELD_PORTFORWARD_SOURCEPORT + " = ?, "
+                + FIELD_PORTFORWARD_DESTADDR + " = ?, "
+                + FIELD_PORTFORWARD_DESTPORT + " = ?, "
+                + FIELD_PORTFORWARD_RATELIMIT + " = ? WHERE _id = ?");
     }
 
     public static HostDatabase get(Context context) {
@@ -221,6 +280,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
     private void createTables(SQLiteDatabase db) {
         db.execSQL(CREATE_TABLE_HOSTS);
+        db.execSQL(CREATE_TABLE_HOSTS_INDEX);
 
         db.execSQL("CREATE TABLE " + TABLE_KNOWNHOSTS
                 + " (_id INTEGER PRIMARY KEY, "
@@ -238,7 +298,8 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
                 + FIELD_PORTFORWARD_TYPE + " TEXT NOT NULL DEFAULT '" + PORTFORWARD_LOCAL + "', "
                 + FIELD_PORTFORWARD_SOURCEPORT + " INTEGER NOT NULL DEFAULT 8080, "
                 + FIELD_PORTFORWARD_DESTADDR + " TEXT, "
-                + FIELD_PORTFORWARD_DESTPORT + " TEXT)");
+                + FIELD_PORTFORWARD_DESTPORT + " TEXT, "
+                + FIELD_PORTFORWARD_RATELIMIT + " INTEGER NOT NULL DEFAULT 0)");
 
         db.execSQL("CREATE INDEX " + TABLE_PORTFORWARDS + FIELD_PORTFORWARD_HOSTID + "index ON "
                 + TABLE_PORTFORWARDS + " (" + FIELD_PORTFORWARD_HOSTID + ");");
@@ -273,6 +334,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
             mDb.setTransactionSuccessful();
         } finally {
             mDb.endTransaction();
+            notifyHostsChanged();
         }
     }
 
@@ -402,6 +464,13 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
                         + " FROM " + TABLE_HOSTS);
                 db.execSQL("DROP TABLE " + TABLE_HOSTS);
                 db.execSQL("ALTER TABLE " + TABLE_HOSTS + "_upgrade RENAME TO " + TABLE_HOSTS);
+                // fall through
+            case 25:
+                db.execSQL("ALTER TABLE " + TABLE_PORTFORWARDS
+                        + " ADD COLUMN " + FIELD_PORTFORWARD_RATELIMIT + " INTEGER NOT NULL DEFAULT 0");
+                // fall through
+            case 26:
+                db.execSQL(CREATE_TABLE_HOSTS_INDEX);
         }
     }
 
@@ -415,16 +484,13 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
         long now = System.currentTimeMillis() / 1000;
         host.setLastConnect(now);
 
-        ContentValues values = new ContentValues();
-        values.put(FIELD_HOST_LASTCONNECT, now);
-
-        mDb.beginTransaction();
-        try {
-            mDb.update(TABLE_HOSTS, values, "_id = ?", new String[]{String.valueOf(host.getId())});
-            mDb.setTransactionSuccessful();
-        } finally {
-            mDb.endTransaction();
+        synchronized (touchHostStatement) {
+            touchHostStatement.bindLong(1, now);
+            touchHostStatement.bindLong(2, host.getId());
+            touchHostStatement.executeUpdateDelete();
         }
+
+        notifyHostsChanged();
     }
 
     /**
@@ -447,6 +513,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
         }
 
         host.setId(id);
+        notifyHostsChanged();
 
         return host;
     }
@@ -468,6 +535,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
             mDb.setTransactionSuccessful();
         } finally {
             mDb.endTransaction();
+            notifyHostsChanged();
         }
     }
 
@@ -638,17 +706,19 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
             return;
         }
 
-        ContentValues values = new ContentValues();
-        values.put(FIELD_KNOWNHOSTS_HOSTKEYALGO, hostkeyalgo);
-        values.put(FIELD_KNOWNHOSTS_HOSTKEY, hostkey);
-        values.put(FIELD_KNOWNHOSTS_HOSTID, hostBean.getId());
-
         mDb.beginTransaction();
         try {
-            mDb.delete(TABLE_KNOWNHOSTS, FIELD_KNOWNHOSTS_HOSTID + " = ? AND "
-                            + FIELD_KNOWNHOSTS_HOSTKEYALGO + " = ?",
-                    new String[]{String.valueOf(hostBean.getId()), hostkeyalgo});
-            mDb.insert(TABLE_KNOWNHOSTS, null, values);
+            synchronized (deleteKnownHostStatement) {
+                deleteKnownHostStatement.bindLong(1, hostBean.getId());
+                deleteKnownHostStatement.bindString(2, hostkeyalgo);
+                deleteKnownHostStatement.executeUpdateDelete();
+            }
+            synchronized (insertKnownHostStatement) {
+                insertKnownHostStatement.bindLong(1, hostBean.getId());
+                insertKnownHostStatement.bindString(2, hostkeyalgo);
+                insertKnownHostStatement.bindBlob(3, hostkey);
+                insertKnownHostStatement.executeInsert();
+            }
             mDb.setTransactionSuccessful();
         } finally {
             mDb.endTransaction();
@@ -657,26 +727,106 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
                 hostname, port, hostkeyalgo));
     }
 
+    /**
+     * Forget the host key stored for this host under the given algorithm.
+     */
     @Override
     public void removeKnownHost(String host, int port, String serverHostKeyAlgorithm, byte[] serverHostKey) {
-        throw new UnsupportedOperationException("removeKnownHost is not implemented");
+        HashMap<String, String> selection = new HashMap<>();
+        selection.put(FIELD_HOST_HOSTNAME, host);
+        selection.put(FIELD_HOST_PORT, String.valueOf(port));
+        HostBean hostBean = findHost(selection);
+
+        if (hostBean == null) {
+            return;
+        }
+
+        mDb.beginTransaction();
+        try {
+            mDb.delete(TABLE_KNOWNHOSTS, FIELD_KNOWNHOSTS_HOSTID + " = ? AND "
+                            + FIELD_KNOWNHOSTS_HOSTKEYALGO + " = ?",
+                    new String[]{String.valueOf(hostBean.getId()), serverHostKeyAlgorithm});
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
     }
 
     /**
-     * Build list of known hosts for Trilead library.
+     * Check a server's host key against the keys stored for that host alone,
+     * without parsing any of them. Only the key blobs are compared, as a blob
+     * names its own key type while the algorithm it was offered under may
+     * differ: an ssh-rsa key is also offered as rsa-sha2-256 or rsa-sha2-512.
      *
-     * @return
+     * @return {@link KnownHosts#HOSTKEY_IS_OK} if the key is known,
+     * {@link KnownHosts#HOSTKEY_HAS_CHANGED} if the host has other keys, or
+     * {@link KnownHosts#HOSTKEY_IS_NEW} if it has none
      */
     @Override
-    public KnownHosts getKnownHosts() {
-        KnownHosts known = new KnownHosts();
+    public int verifyKnownHost(String hostname, int port, byte[] hostKey) {
+        int result = KnownHosts.HOSTKEY_IS_NEW;
+
+        Cursor c = queryKnownHosts(hostname, port);
+        try {
+            while (c.moveToNext()) {
+                if (Arrays.equals(hostKey, c.getBlob(1)))
+                    return KnownHosts.HOSTKEY_IS_OK;
+                result = KnownHosts.HOSTKEY_HAS_CHANGED;
+            }
+        } finally {
+            c.close();
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the algorithm and key of each key stored for one host
+     */
+    private Cursor queryKnownHosts(String hostname, int port) {
+        return mDb.rawQuery("SELECT k." + FIELD_KNOWNHOSTS_HOSTKEYALGO + ", k." + FIELD_KNOWNHOSTS_HOSTKEY
+                        + " FROM " + TABLE_HOSTS + " h INNER JOIN " + TABLE_KNOWNHOSTS + " k"
+                        + " ON h._id = k." + FIELD_KNOWNHOSTS_HOSTID
+                        + " WHERE h." + FIELD_HOST_HOSTNAME + " = ? AND h." + FIELD_HOST_PORT + " = ?"
+                        + " AND length(k." + FIELD_KNOWNHOSTS_HOSTKEYALGO + ") > 0"
+                        + " AND length(k." + FIELD_KNOWNHOSTS_HOSTKEY + ") > 0",
+                new String[]{hostname, String.valueOf(port)});
+    }
 
-        Cursor c = mDb.query(TABLE_HOSTS + " LEFT OUTER JOIN " + TABLE_KNOWNHOSTS
+    @Override
+    public void registerOnHostsChangedListener(OnHostsChangedListener listener) {
+        hostsChangedListeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnHostsChangedListener(OnHostsChangedListener listener) {
+        hostsChangedListeners.remove(listener);
+    }
+
+    private void notifyHostsChanged() {
+        for (OnHostsChangedListener listener : hostsChangedListeners)
+            listener.onHostsChanged();
+    }
+
+    private Cursor queryKnownHosts() {
+        return mDb.query(TABLE_HOSTS + " LEFT OUTER JOIN " + TABLE_KNOWNHOSTS
                         + " ON " + TABLE_HOSTS + "._id = "
                         + TABLE_KNOWNHOSTS + "." + FIELD_KNOWNHOSTS_HOSTID,
                 new String[]{FIELD_HOST_HOSTNAME, FILED_HOST_PASSWORD, FILED_HOST_EMAIL, FIELD_HOST_PORT, FIELD_KNOWNHOSTS_HOSTKEYALGO,
                         FIELD_KNOWNHOSTS_HOSTKEY},
                 null, null, null, null, null);
+    }
+
+    /**
+     * Build list of known hosts for Trilead library.
+     *
+     * @return
+     */
+    @Override
+    public KnownHosts getKnownHosts() {
+        KnownHosts known = new KnownHosts();
+
+        Cursor c = queryKnownHosts();
 
         if (c != null) {
             int COL_HOSTNAME = c.getColumnIndexOrThrow(FIELD_HOST_HOSTNAME),
@@ -709,31 +859,14 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
     @Override
     public List<String> getHostKeyAlgorithmsForHost(String hostname, int port) {
-        HashMap<String, String> selection = new HashMap<>();
-        selection.put(FIELD_HOST_HOSTNAME, hostname);
-        selection.put(FIELD_HOST_PORT, String.valueOf(port));
-        HostBean hostBean = findHost(selection);
-
-        if (hostBean == null) {
-            return null;
-        }
-
         ArrayList<String> knownAlgorithms = new ArrayList<>();
 
-        Cursor c = mDb.query(TABLE_KNOWNHOSTS, new String[]{FIELD_KNOWNHOSTS_HOSTKEYALGO},
-                FIELD_KNOWNHOSTS_HOSTID + " = ?",
-                new String[]{String.valueOf(hostBean.getId())}, null, null, null);
-
-        if (c != null) {
-            int COL_ALGO = c.getColumnIndexOrThrow(FIELD_KNOWNHOSTS_HOSTKEYALGO);
-
+        Cursor c = queryKnownHosts(hostname, port);
+        try {
             while (c.moveToNext()) {
-                String keyAlgo = c.getString(COL_ALGO);
-                if (keyAlgo != null) {
-                    knownAlgorithms.add(keyAlgo);
-                }
+                knownAlgorithms.add(c.getString(0));
             }
-
+        } finally {
             c.close();
         }
 
@@ -758,6 +891,8 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 			mDb.endTransaction();
 		}
 
+		notifyHostsChanged();
+
 		Log.d(TAG, String.format("Set all hosts using pubkey id %d to -1", pubkeyId));
 	}
 
@@ -779,7 +914,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 
 		Cursor c = mDb.query(TABLE_PORTFORWARDS, new String[] {
 						"_id", FIELD_PORTFORWARD_NICKNAME, FIELD_PORTFORWARD_TYPE, FIELD_PORTFORWARD_SOURCEPORT,
-						FIELD_PORTFORWARD_DESTADDR, FIELD_PORTFORWARD_DESTPORT},
+						FIELD_PORTFORWARD_DESTADDR, FIELD_PORTFORWARD_DESTPORT, FIELD_PORTFORWARD_RATELIMIT},
 				FIELD_PORTFORWARD_HOSTID + " = ?", new String[] {String.valueOf(host.getId())},
 				null, null, null);
 
@@ -792,6 +927,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
 					c.getInt(3),
 					c.getString(4),
 					c.getInt(5));
+			pfb.setRateLimit(c.getInt(6));
 			portForwards.add(pfb);
 		}
 
@@ -806,33 +942,100 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
      * @param pfb {@link PortForwardBean} to save
      * @return true on success
      */
+    @Override
     public boolean savePortForward(PortForwardBean pfb) {
+        try {
+            return writePortForward(pfb);
+        } finally {
+            notifyHostsChanged();
+        }
+    }
+
+    /**
+     * Save several port forwards in one transaction: all of them, or none
+     * if any fails.
+     *
+     * @return true on success
+     */
+    @Override
+    public boolean savePortForwards(List<PortForwardBean> portForwards) {
+        List<PortForwardBean> added = new ArrayList<>();
+        boolean saved = false;
+
         mDb.beginTransaction();
         try {
-            if (pfb.getId() < 0) {
-                long addedId = mDb.insert(TABLE_PORTFORWARDS, null, pfb.getValues());
-                if (addedId == -1) {
+            for (PortForwardBean pfb : portForwards) {
+                boolean adding = pfb.getId() < 0;
+                if (!writePortForward(pfb))
                     return false;
-                }
-                pfb.setId(addedId);
-            } else {
-                if (mDb.update(TABLE_PORTFORWARDS, pfb.getValues(), "_id = ?", new String[]{String.valueOf(pfb.getId())}) <= 0) {
-                    return false;
-                }
+                if (adding)
+                    added.add(pfb);
             }
 
             mDb.setTransactionSuccessful();
+            saved = true;
             return true;
         } finally {
             mDb.endTransaction();
+
+            // the inserts were rolled back
+            if (!saved) {
+                for (PortForwardBean pfb : added)
+                    pfb.setId(-1);
+            }
+            notifyHostsChanged();
+        }
+    }
+
+    private boolean writePortForward(PortForwardBean pfb) {
+        try {
+            if (pfb.getId() < 0) {
+                long addedId;
+                synchronized (insertPortForwardStatement) {
+                    bindPortForward(insertPortForwardStatement, pfb);
+                    addedId = insertPortForwardStatement.executeInsert();
+                }
+                if (addedId == -1) {
+                    return false;
+                }
+                pfb.setId(addedId);
+                return true;
+            }
+
+            synchronized (updatePortForwardStatement) {
+                bindPortForward(updatePortForwardStatement, pfb);
+                updatePortForwardStatement.bindLong(8, pfb.getId());
+                return updatePortForwardStatement.executeUpdateDelete() > 0;
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Could not save port forward " + pfb.getNickname(), e);
+            return false;
         }
     }
 
+    private static void bindPortForward(SQLiteStatement statement, PortForwardBean pfb) {
+        statement.bindLong(1, pfb.getHostId());
+        bindStringOrNull(statement, 2, pfb.getNickname());
+        bindStringOrNull(statement, 3, pfb.getType());
+        statement.bindLong(4, pfb.getSourcePort());
+        bindStringOrNull(statement, 5, pfb.getDestAddr());
+        statement.bindLong(6, pfb.getDestPort());
+        statement.bindLong(7, pfb.getRateLimit());
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null)
+            statement.bindNull(index);
+        else
+            statement.bindString(index, value);
+    }
+
     /**
      * Deletes a port forward from the database.
      *
      * @param pfb {@link PortForwardBean} to delete
      */
+    @Override
     public void deletePortForward(PortForwardBean pfb) {
         if (pfb.getId() < 0) {
             return;
@@ -844,6 +1047,7 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
             mDb.setTransactionSuccessful();
         } finally {
             mDb.endTransaction();
+            notifyHostsChanged();
         }
     }
 
@@ -867,36 +1071,56 @@ public class HostDatabase extends RobustSQLiteOpenHelper implements HostStorage,
     }
 
     public void setColorForScheme(int scheme, int number, int value) {
-        final SQLiteDatabase db;
+        mDb.beginTransaction();
+        try {
+            writeColor(scheme, number, value);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
 
-        final String[] whereArgs = new String[]{String.valueOf(scheme), String.valueOf(number)};
+    /**
+     * Set every color of a scheme in one transaction.
+     *
+     * @param colors the value of each color number, from 0 up
+     */
+    @Override
+    public void setColorsForScheme(int scheme, int[] colors) {
+        mDb.beginTransaction();
+        try {
+            for (int number = 0; number < colors.length; number++)
+                writeColor(scheme, number, colors[number]);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
 
+    private void writeColor(int scheme, int number, int value) {
         if (value == Colors.defaults[number]) {
-            mDb.beginTransaction();
-            try {
-                mDb.delete(TABLE_COLORS,
-                        WHERE_SCHEME_AND_COLOR, whereArgs);
-                mDb.setTransactionSuccessful();
-            } finally {
-                mDb.endTransaction();
+            synchronized (deleteColorStatement) {
+                deleteColorStatement.bindLong(1, scheme);
+                deleteColorStatement.bindLong(2, number);
+                deleteColorStatement.executeUpdateDelete();
             }
-        } else {
-            final ContentValues values = new ContentValues();
-            values.put(FIELD_COLOR_VALUE, value);
+            return;
+        }
 
-            mDb.beginTransaction();
-            try {
-                final int rowsAffected = mDb.update(TABLE_COLORS, values,
-                        WHERE_SCHEME_AND_COLOR, whereArgs);
-
-                if (rowsAffected == 0) {
-                    values.put(FIELD_COLOR_SCHEME, scheme);
-                    values.put(FIELD_COLOR_NUMBER, number);
-                    mDb.insert(TABLE_COLORS, null, values);
-                }
-                mDb.setTransactionSuccessful();
-            } finally {
-                mDb.endTransaction();
+        int rowsAffected;
+        synchronized (updateColorStatement) {
+            updateColorStatement.bindLong(1, value);
+            updateColorStatement.bindLong(2, scheme);
+            updateColorStatement.bindLong(3, number);
+            rowsAffected = updateColorStatement.executeUpdateDelete();
+        }
+
+        if (rowsAffected == 0) {
+            synchronized (insertColorStatement) {
+                insertColorStatement.bindLong(1, scheme);
+                insertColorStatement.bindLong(2, number);
+                insertColorStatement.bindLong(3, value);
+                insertColorStatement.executeInsert();
             }
         }
     }
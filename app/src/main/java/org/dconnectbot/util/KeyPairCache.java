@@ -0,0 +1,109 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.util;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.dconnectbot.bean.PubkeyBean;
+
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently decoded key pairs, so a key that was decoded
+ * once isn't decoded again when the service starts over in the same
+ * process.
+ *
+ * Only keys without a password are kept, as an encrypted key must still
+ * be unlocked with its password. A key with a lifetime is kept for no
+ * longer than that, just as the service would unload it.
+ */
+public class KeyPairCache {
+	static final int MAX_KEYS = 16;
+
+	private static final long SECOND = 1000000000L;
+
+	private static final KeyPairCache sInstance = new KeyPairCache(MAX_KEYS);
+
+	private static class Entry {
+		final byte[] privateKey;
+		final KeyPair pair;
+		final long expires;
+
+		Entry(byte[] privateKey, KeyPair pair, long expires) {
+			this.privateKey = privateKey;
+			this.pair = pair;
+			this.expires = expires;
+		}
+	}
+
+	/* by key id, least recently used first */
+	private final LinkedHashMap<Long, Entry> keys;
+
+	public static KeyPairCache getInstance() {
+		return sInstance;
+	}
+
+	@VisibleForTesting
+	KeyPairCache(final int maxKeys) {
+		keys = new LinkedHashMap<Long, Entry>(maxKeys, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+				return size() > maxKeys;
+			}
+		};
+	}
+
+	/**
+	 * Decode a key that has no password, or return it as decoded before if
+	 * it hasn't changed or expired since.
+	 */
+	public KeyPair convertToKeyPair(PubkeyBean pubkey) throws PubkeyUtils.BadPasswordException {
+		if (pubkey.isEncrypted())
+			return PubkeyUtils.convertToKeyPair(pubkey, null);
+
+		long now = System.nanoTime();
+		synchronized (keys) {
+			Entry entry = keys.get(pubkey.getId());
+			if (entry != null) {
+				if (now - entry.expires < 0 && Arrays.equals(entry.privateKey, pubkey.getPrivateKey()))
+					return entry.pair;
+				keys.remove(pubkey.getId());
+			}
+		}
+
+		KeyPair pair = PubkeyUtils.convertToKeyPair(pubkey, null);
+
+		long lifetime = pubkey.getLifetime() > 0 ? pubkey.getLifetime() * SECOND : Long.MAX_VALUE / 2;
+		synchronized (keys) {
+			keys.put(pubkey.getId(), new Entry(pubkey.getPrivateKey(), pair, now + lifetime));
+		}
+		return pair;
+	}
+
+	/**
+	 * Forget a key, for instance once it's deleted.
+	 */
+	public void remove(PubkeyBean pubkey) {
+		synchronized (keys) {
+			keys.remove(pubkey.getId());
+		}
+	}
+}
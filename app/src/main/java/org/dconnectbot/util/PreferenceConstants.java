@@ -34,6 +34,16 @@ public final class PreferenceConstants {
 
 	public static final String SCROLLBACK = "scrollback";
 
+	public static final String CONNECT_TIMEOUT = "connecttimeout";
+
+	public static final String CONNECTION_SHARING = "connectionsharing";
+
+	public static final String FORWARD_BUFFER = "forwardbuffer";
+
+	public static final String FORWARD_CHANNELS = "forwardchannels";
+
+	public static final String MERGE_STDERR = "mergestderr";
+
 	public static final String EMULATION = "emulation";
 
 	public static final String ROTATION = "rotation";
@@ -65,6 +75,9 @@ public final class PreferenceConstants {
 
 	public static final String KEEP_ALIVE = "keepalive";
 
+	public static final String MAX_FPS = "maxfps";
+	public static final String DIRECT_RENDERING = "directrendering";
+
 	public static final String WIFI_LOCK = "wifilock";
 
 	public static final String BUMPY_ARROWS = "bumpyarrows";
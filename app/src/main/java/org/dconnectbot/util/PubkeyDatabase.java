@@ -134,6 +134,8 @@ public class PubkeyDatabase extends RobustSQLiteOpenHelper {
 		} finally {
 			mDb.endTransaction();
 		}
+
+		KeyPairCache.getInstance().remove(pubkey);
 	}
 
 	public List<PubkeyBean> allPubkeys() {
@@ -0,0 +1,60 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.util;
+
+/**
+ * Counts things, like bytes read or UI posts, per second. One thread adds
+ * to the count; any thread may read the rate, which is the total of the
+ * last whole second.
+ */
+public class RateCounter {
+	private static final long SECOND = 1000000000L;
+
+	private long windowStart;
+	private long count;
+	private volatile long rate;
+	private volatile long lastAdd;
+
+	public void add(long n) {
+		add(n, System.nanoTime());
+	}
+
+	void add(long n, long now) {
+		if (now - windowStart >= SECOND) {
+			// an idle second in between means nothing came in the last one
+			rate = now - windowStart < 2 * SECOND ? count : 0;
+			windowStart = now;
+			count = 0;
+		}
+		count += n;
+		lastAdd = now;
+	}
+
+	/**
+	 * @return count per second over the last whole second
+	 */
+	public long getRate() {
+		return getRate(System.nanoTime());
+	}
+
+	long getRate(long now) {
+		if (now - lastAdd >= 2 * SECOND)
+			return 0;
+		return rate;
+	}
+}
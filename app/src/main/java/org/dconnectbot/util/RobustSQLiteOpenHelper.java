@@ -53,6 +53,23 @@ public abstract class RobustSQLiteOpenHelper extends SQLiteOpenHelper {
 		dropAllTables(db);
 	}
 
+	/**
+	 * Log writes ahead, so readers on other threads don't wait for writers,
+	 * and only sync the log at checkpoints rather than on every commit. A
+	 * crash of the whole device may lose the last few commits, but never
+	 * corrupts the database.
+	 */
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+
+		if (db.isReadOnly())
+			return;
+
+		if (db.enableWriteAheadLogging())
+			db.execSQL("PRAGMA synchronous = NORMAL");
+	}
+
 	@Override
 	public final void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		try {
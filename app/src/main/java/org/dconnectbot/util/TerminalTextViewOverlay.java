@@ -79,10 +79,8 @@ public class TerminalTextViewOverlay extends androidx.appcompat.widget.AppCompat
 		StringBuilder buffer = new StringBuilder();
 		int previousTotalLength = 0;
 
-		for (int r = 0; r < numRows && vb.charArray[r] != null; r++) {
-			for (int c = 0; c < numCols; c++) {
-				buffer.append(vb.charArray[r][c]);
-			}
+		for (int r = 0; r < numRows; r++) {
+			buffer.append(vb.getBufferChars(r), 0, numCols);
 
 			// Truncate all the new whitespace without removing the old data.
 			while (buffer.length() > previousTotalLength &&
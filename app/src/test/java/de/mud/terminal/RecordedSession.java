@@ -0,0 +1,133 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import java.util.Random;
+
+/**
+ * Replays a typical interactive session: colored directory listings,
+ * journal output and plain text, the way a shell would send it.
+ */
+public class RecordedSession {
+	private static final String[] NAMES = {
+			"build.gradle", "README.md", "src", "app", "config", "gradlew",
+			"settings.gradle", "id_ed25519.pub", "known_hosts", "tunnel.conf",
+	};
+
+	private static final String[] UNITS = {
+			"sshd[812]", "systemd[1]", "kernel", "NetworkManager[604]", "cron[433]",
+	};
+
+	private RecordedSession() {
+	}
+
+	/**
+	 * @param lines number of lines of output
+	 * @return the raw output, escape sequences included
+	 */
+	public static String record(int lines) {
+		Random random = new Random(lines);
+		StringBuilder out = new StringBuilder(lines * 80);
+
+		for (int i = 0; i < lines; i++) {
+			switch (i % 4) {
+			case 0:
+				// ls --color -l
+				String name = NAMES[random.nextInt(NAMES.length)];
+				boolean dir = name.indexOf('.') < 0;
+				out.append(dir ? 'd' : '-').append("rw-r--r-- 1 user user ")
+						.append(random.nextInt(100000)).append(" Oct 17 12:")
+						.append(10 + random.nextInt(50)).append(' ')
+						.append(dir ? "\u001b[01;34m" : "\u001b[0m")
+						.append(name).append("\u001b[0m");
+				break;
+			case 1:
+			case 2:
+				// journalctl -f
+				out.append("\u001b[2mOct 17 12:00:").append(10 + random.nextInt(50))
+						.append("\u001b[0m host ")
+						.append(UNITS[random.nextInt(UNITS.length)]).append(": ");
+				if (random.nextInt(5) == 0)
+					out.append("\u001b[1;31merror: connection reset by peer\u001b[0m");
+				else
+					out.append("Accepted publickey for user from 10.0.0.")
+							.append(random.nextInt(255)).append(" port ")
+							.append(1024 + random.nextInt(60000));
+				break;
+			default:
+				out.append("line ").append(i)
+						.append(" the quick brown fox jumps over the lazy dog");
+				break;
+			}
+			out.append("\r\n");
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * @return a terminal that discards anything it would send back
+	 */
+	public static vt320 newTerminal(int columns, int rows) {
+		vt320 terminal = new vt320(columns, rows) {
+			@Override
+			public void write(byte[] b) {
+			}
+
+			@Override
+			public void write(int b) {
+			}
+
+			@Override
+			public void debug(String s) {
+			}
+		};
+		terminal.setDisplay(new NullDisplay());
+		return terminal;
+	}
+
+	/**
+	 * Display that throws everything away; tests override what they check.
+	 */
+	static class NullDisplay implements VDUDisplay {
+		@Override
+		public void redraw() {
+		}
+
+		@Override
+		public void updateScrollBar() {
+		}
+
+		@Override
+		public void setVDUBuffer(VDUBuffer buffer) {
+		}
+
+		@Override
+		public VDUBuffer getVDUBuffer() {
+			return null;
+		}
+
+		@Override
+		public void setColor(int index, int red, int green, int blue) {
+		}
+
+		@Override
+		public void resetColors() {
+		}
+	}
+}
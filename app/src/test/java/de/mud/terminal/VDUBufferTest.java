@@ -0,0 +1,140 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class VDUBufferTest {
+	private static final int COLUMNS = 200;
+	private static final int ROWS = 50;
+	private static final int SCROLLBACK = 10000;
+
+	@Test
+	public void scrollback_KeepsLinesInOrder() {
+		vt320 terminal = RecordedSession.newTerminal(10, 4);
+		terminal.setBufferSize(6);
+
+		for (int i = 0; i < 9; i++)
+			terminal.putString(i + "\r\n");
+
+		// 6 rows in total: 2 in the scrollback, 4 on the screen
+		assertEquals(6, terminal.getBufferSize());
+		assertEquals(2, terminal.screenBase);
+		String expected = "45678";
+		for (int row = 0; row < 5; row++)
+			assertEquals(expected.charAt(row), terminal.getBufferChar(0, row));
+		assertEquals(' ', terminal.getBufferChar(0, 5));
+	}
+
+	@Test
+	public void scrollback_KeepsAttributes() {
+		vt320 terminal = RecordedSession.newTerminal(10, 4);
+		terminal.setBufferSize(20);
+
+		terminal.putString("ab\u001b[1;31mcd\u001b[0mef\r\n\r\n\r\n\r\n\r\n");
+
+		// the line has scrolled off the top of the screen
+		assertEquals(2, terminal.screenBase);
+		int row = 0;
+		assertEquals('a', terminal.getBufferChar(0, row));
+		assertEquals(VDUBuffer.NORMAL, terminal.getBufferAttributes(1, row));
+		long bold = terminal.getBufferAttributes(2, row);
+		assertTrue((bold & VDUBuffer.BOLD) != 0);
+		assertTrue((bold & VDUBuffer.COLOR_FG) != 0);
+		assertEquals(bold, terminal.getBufferAttributes(3, row));
+		assertEquals(VDUBuffer.NORMAL, terminal.getBufferAttributes(4, row));
+		assertEquals(VDUBuffer.NORMAL, terminal.getBufferAttributes(9, row));
+
+		// Growing the screen brings the line back where it can be written to.
+		terminal.setScreenSize(12, 20, false);
+		assertEquals(bold, terminal.getAttributes(2, row - terminal.screenBase));
+		assertEquals(VDUBuffer.NORMAL, terminal.getAttributes(11, row - terminal.screenBase));
+	}
+
+	@Test
+	public void shrunkBuffer_ScreenCanBeWritten() {
+		vt320 terminal = RecordedSession.newTerminal(10, 4);
+		terminal.setBufferSize(20);
+		for (int i = 0; i < 12; i++)
+			terminal.putString("\u001b[1m" + i + "\r\n");
+		terminal.putString("\u001b[H");
+		terminal.setScreenSize(10, 3, false);
+		terminal.setScreenSize(10, 4, false);
+
+		// the buffer is cut down around a screen that grew into the scrollback
+		terminal.setBufferSize(8);
+		for (int l = 0; l < 4; l++)
+			terminal.putChar(0, l, 'x', VDUBuffer.BOLD);
+		terminal.putString("\u001b[4;1Hwritten");
+
+		assertEquals(8, terminal.getBufferSize());
+		assertEquals('x', terminal.getChar(0, 0));
+		assertEquals(VDUBuffer.BOLD, terminal.getAttributes(0, 0));
+		assertEquals('w', terminal.getChar(0, 3));
+	}
+
+	@Test
+	public void shrunkScreen_ScrollsWithoutStaleLines() {
+		vt320 terminal = RecordedSession.newTerminal(20, 10);
+		terminal.setBufferSize(30);
+		for (int i = 0; i < 40; i++)
+			terminal.putString("line " + i + "\r\n");
+
+		// shrink with the cursor at the top, then scroll the full scrollback
+		terminal.putString("\u001b[H");
+		terminal.setScreenSize(20, 5, false);
+		for (int i = 0; i < 10; i++)
+			terminal.putString("next " + i + "\u001b[K\r\n");
+		terminal.setScreenSize(20, 10, false);
+
+		assertEquals(30, terminal.getBufferSize());
+		int cursor = terminal.screenBase + terminal.getCursorRow();
+		for (int i = 0; i < 10; i++)
+			assertEquals("next " + i, new String(terminal.getBufferChars(cursor - 10 + i)).trim());
+		// nothing left from before the shrink shows up below the cursor
+		for (int row = cursor; row < terminal.getBufferSize(); row++)
+			assertEquals("", new String(terminal.getBufferChars(row)).trim());
+	}
+
+	/**
+	 * Compares the heap used by the packed scrollback with the flat layout,
+	 * where every cell held a char next to a long, for a full 10k line
+	 * scrollback at 200 columns.
+	 */
+	@Test
+	public void packedScrollback_TakesLessMemoryThanFlat() {
+		vt320 terminal = RecordedSession.newTerminal(COLUMNS, ROWS);
+		terminal.setBufferSize(SCROLLBACK);
+		terminal.putString(RecordedSession.record(SCROLLBACK + ROWS));
+
+		long packed = terminal.getStorageBytes();
+		long rows = terminal.getBufferSize();
+		long flat = 2 * (16 + 4 * rows) + rows * (16 + 2 * COLUMNS + 16 + 8 * COLUMNS);
+
+		assertEquals(SCROLLBACK, rows);
+		assertTrue("Packed scrollback should take less than a third of the flat layout",
+				packed * 3 < flat);
+	}
+}
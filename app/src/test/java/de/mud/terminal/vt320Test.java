@@ -0,0 +1,189 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mud.terminal;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class vt320Test {
+	private static final int COLUMNS = 80;
+	private static final int ROWS = 24;
+
+	@Test
+	public void printableRuns_MatchPerCharacterOutput() {
+		// long lines to exercise autowrap, DEC line drawing, no-wrap mode and
+		// a combining mark right after a run
+		String session = RecordedSession.record(500)
+				+ "\u001b(0lqqqk\u001b(B done\r\n"
+				+ "\u001b[?7l" + new String(new char[200]).replace('\0', 'x') + "y\u001b[?7h\r\n"
+				+ new String(new char[500]).replace('\0', 'z') + "e\u0301\r\n";
+
+		vt320 runs = RecordedSession.newTerminal(COLUMNS, ROWS);
+		vt320 chars = RecordedSession.newTerminal(COLUMNS, ROWS);
+		runs.putString(session);
+		putEachChar(chars, session.toCharArray());
+
+		assertEquals(chars.getBufferSize(), runs.getBufferSize());
+		assertEquals(chars.getCursorRow(), runs.getCursorRow());
+		assertEquals(chars.getCursorColumn(), runs.getCursorColumn());
+		for (int row = 0; row < runs.getBufferSize(); row++) {
+			for (int c = 0; c < COLUMNS; c++) {
+				assertEquals("char at " + c + "," + row,
+						chars.getBufferChar(c, row), runs.getBufferChar(c, row));
+				assertEquals("attributes at " + c + "," + row,
+						chars.getBufferAttributes(c, row), runs.getBufferAttributes(c, row));
+			}
+		}
+	}
+
+	/**
+	 * Throughput of cat-style output through putString, a character at a
+	 * time and in 4 KiB reads that put printable runs in bulk.
+	 */
+	@Test
+	@Ignore("benchmark, run by hand")
+	public void benchmark_PutStringThroughput() {
+		char[] output = RecordedSession.record(20000).toCharArray();
+
+		double perChar = throughput(output, false);
+		double bulk = throughput(output, true);
+
+		System.out.println(String.format("putString: per-char %.1f MB/s, printable runs %.1f MB/s",
+				perChar, bulk));
+	}
+
+	@Test
+	public void osc_SetsPaletteColors() {
+		final List<String> colors = new ArrayList<>();
+		vt320 terminal = RecordedSession.newTerminal(COLUMNS, ROWS);
+		terminal.setDisplay(new RecordedSession.NullDisplay() {
+			@Override
+			public void setColor(int index, int red, int green, int blue) {
+				colors.add(index + "=" + red + "," + green + "," + blue);
+			}
+		});
+
+		terminal.putString("\u001b]4;1;rgb:ff/80/00\u0007");
+		terminal.putString("\u001b]4;2;rgb:0000/ffff/1010;3;rgb:01/02/03\u001b\\");
+		terminal.putString("\u001b]4;4;rgb:zz/00/00\u0007");
+
+		assertEquals("[1=255,128,0, 2=0,255,16, 3=1,2,3]", colors.toString());
+	}
+
+	@Test
+	public void osc_OversizedStringIsDroppedAndTerminates() {
+		final List<String> colors = new ArrayList<>();
+		vt320 terminal = RecordedSession.newTerminal(COLUMNS, ROWS);
+		terminal.setDisplay(new RecordedSession.NullDisplay() {
+			@Override
+			public void setColor(int index, int red, int green, int blue) {
+				colors.add(index + "=" + red + "," + green + "," + blue);
+			}
+		});
+		int oversized = vt320.CONTROL_STRING_LIMIT + 1;
+
+		terminal.putString("\u001b]4;1;rgb:ff/ff/ff;" + repeat('x', oversized) + "\u001b\\ok");
+		terminal.putString("\u001bP" + repeat('y', oversized) + "\u001b\\!");
+		terminal.putString("\u001b\\");
+
+		assertEquals(0, colors.size());
+		assertEquals('o', terminal.getBufferChar(0, terminal.screenBase));
+		assertEquals('k', terminal.getBufferChar(1, terminal.screenBase));
+		assertEquals('!', terminal.getBufferChar(2, terminal.screenBase));
+		assertEquals(3, terminal.getCursorColumn());
+	}
+
+	/**
+	 * Throughput of large OSC 52 clipboard strings, as sent by tmux or vim
+	 * when copying, through putString.
+	 */
+	@Test
+	@Ignore("benchmark, run by hand")
+	public void benchmark_OscThroughput() {
+		for (int size : new int[] { 1024, 16 * 1024, 64 * 1024 }) {
+			String osc = "\u001b]52;c;" + repeat('Q', size) + "\u0007";
+			char[] output = repeat(osc, Math.max(1, 4 * 1024 * 1024 / osc.length())).toCharArray();
+			vt320 terminal = RecordedSession.newTerminal(COLUMNS, ROWS);
+
+			long best = Long.MAX_VALUE;
+			for (int pass = 0; pass < 5; pass++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < output.length; i += 4096)
+					terminal.putString(output, null, i, Math.min(4096, output.length - i));
+				best = Math.min(best, System.nanoTime() - start);
+			}
+
+			System.out.println(String.format("OSC 52, %d KiB payload: %.1f MB/s",
+					size / 1024, output.length / (best / 1e9) / (1024 * 1024)));
+		}
+	}
+
+	private static String repeat(char c, int count) {
+		return new String(new char[count]).replace('\0', c);
+	}
+
+	private static String repeat(String s, int count) {
+		StringBuilder sb = new StringBuilder(s.length() * count);
+		for (int i = 0; i < count; i++)
+			sb.append(s);
+		return sb.toString();
+	}
+
+	/**
+	 * Put output a character at a time, keeping combining marks with the
+	 * character before them, so no printable run is put in bulk.
+	 */
+	private static void putEachChar(vt320 terminal, char[] output) {
+		for (int i = 0; i < output.length; ) {
+			int end = i + 1;
+			while (end < output.length && Character.getType(output[end]) == Character.NON_SPACING_MARK)
+				end++;
+			terminal.putString(output, null, i, end - i);
+			i = end;
+		}
+	}
+
+	private static double throughput(char[] output, boolean printableRuns) {
+		vt320 terminal = RecordedSession.newTerminal(COLUMNS, ROWS);
+		terminal.setBufferSize(2000);
+
+		long best = Long.MAX_VALUE;
+		for (int pass = 0; pass < 5; pass++) {
+			long start = System.nanoTime();
+			if (!printableRuns) {
+				putEachChar(terminal, output);
+			} else {
+				// the relay hands over 4 KiB reads at a time
+				for (int i = 0; i < output.length; i += 4096)
+					terminal.putString(output, null, i, Math.min(4096, output.length - i));
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		return output.length / (best / 1e9) / (1024 * 1024);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.data;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.dconnectbot.bean.HostBean;
+import org.dconnectbot.util.HostDatabase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class AsyncHostStorageTest {
+	private ExecutorService executor;
+	private AsyncHostStorage storage;
+
+	@Before
+	public void setUp() {
+		Context context = ApplicationProvider.getApplicationContext();
+		HostDatabase.resetInMemoryInstance(context);
+		HostDatabase db = HostDatabase.get(context);
+
+		executor = Executors.newSingleThreadExecutor();
+		storage = new AsyncHostStorage(db, db, executor, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void getHosts_RunsOffCallingThreadInOrder() throws Exception {
+		storage.saveHost(new HostBean("work", "ssh", "alice", "work.example.com", 22,
+				"secret", "alice@example.com"), null);
+
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<Thread> ranOn = new AtomicReference<>();
+		final AtomicReference<List<HostBean>> hosts = new AtomicReference<>();
+		storage.getHosts(false, new AsyncHostStorage.Callback<List<HostBean>>() {
+			@Override
+			public void onResult(List<HostBean> result) {
+				ranOn.set(Thread.currentThread());
+				hosts.set(result);
+				done.countDown();
+			}
+		});
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertNotSame(Thread.currentThread(), ranOn.get());
+		// the save queued first is seen
+		assertEquals("work", hosts.get().get(0).getNickname());
+	}
+
+	@Test
+	public void colors_CanBeWaitedOn() throws Exception {
+		int[] colors = storage.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME, null)
+				.get(5, TimeUnit.SECONDS);
+		colors[2] = 0xff123456;
+		storage.setColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME, colors);
+		colors[2] = 0;
+
+		assertEquals(0xff123456, storage.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME, null)
+				.get(5, TimeUnit.SECONDS)[2]);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.data;
+
+import android.content.Context;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.dconnectbot.bean.HostBean;
+import org.dconnectbot.bean.PortForwardBean;
+import org.dconnectbot.util.HostDatabase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.Invocation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.spy;
+
+@RunWith(AndroidJUnit4.class)
+public class CachedHostStorageTest {
+	private static final int CONNECTS = 20;
+
+	/* the calls that read hosts or port forwards from SQLite */
+	private static final List<String> QUERIES = Arrays.asList(
+			"getHosts", "findHost", "findHostById", "getPortForwardsForHost");
+
+	private HostDatabase db;
+	private HostBean host;
+
+	@Before
+	public void setUp() {
+		Context context = ApplicationProvider.getApplicationContext();
+		HostDatabase.resetInMemoryInstance(context);
+		db = spy(HostDatabase.get(context));
+
+		host = db.saveHost(new HostBean("work", "ssh", "alice", "work.example.com", 22,
+				"secret", "alice@example.com"));
+		db.savePortForward(new PortForwardBean(host.getId(), "web", HostDatabase.PORTFORWARD_LOCAL,
+				"8080", "localhost:80"));
+		clearInvocations(db);
+	}
+
+	@Test
+	public void connect_QueriesOnceInsteadOfEveryTime() {
+		for (int i = 0; i < CONNECTS; i++)
+			connect(db);
+		int uncached = queries();
+
+		clearInvocations(db);
+		CachedHostStorage cache = new CachedHostStorage(db);
+		for (int i = 0; i < CONNECTS; i++)
+			connect(cache);
+		int cached = queries();
+
+		assertTrue(uncached >= 8 * CONNECTS);
+		// the hosts once and the host's port forwards once
+		assertEquals(2, cached);
+	}
+
+	@Test
+	public void changesElsewhere_AreSeen() {
+		CachedHostStorage cache = new CachedHostStorage(db);
+		assertEquals("work", cache.getHosts(false).get(0).getNickname());
+		assertEquals(1, cache.getPortForwardsForHost(host).size());
+
+		HostBean renamed = db.findHostById(host.getId());
+		renamed.setNickname("office");
+		db.saveHost(renamed);
+		db.savePortForward(new PortForwardBean(host.getId(), "ssh", HostDatabase.PORTFORWARD_LOCAL,
+				"2222", "localhost:22"));
+
+		assertEquals("office", cache.getHosts(false).get(0).getNickname());
+		assertEquals(2, cache.getPortForwardsForHost(host).size());
+	}
+
+	@Test
+	public void writesThrough_AreSeen() {
+		CachedHostStorage cache = new CachedHostStorage(db);
+		HostBean cached = cache.findHostById(host.getId());
+
+		cache.touchHost(cached);
+		assertEquals(cached.getLastConnect(), db.findHostById(host.getId()).getLastConnect());
+		clearInvocations(db);
+		assertEquals(cached.getLastConnect(), cache.findHostById(host.getId()).getLastConnect());
+		assertEquals(0, queries());
+
+		cache.deletePortForward(cache.getPortForwardsForHost(host).get(0));
+		assertEquals(0, cache.getPortForwardsForHost(host).size());
+
+		cache.deleteHost(cached);
+		assertEquals(0, cache.getHosts(true).size());
+	}
+
+	@Test
+	public void returnedHosts_AreCopies() {
+		CachedHostStorage cache = new CachedHostStorage(db);
+		HostBean first = cache.getHosts(false).get(0);
+		first.setPassword("changed");
+
+		HostBean second = cache.getHosts(false).get(0);
+		assertNotSame(first, second);
+		assertEquals("secret", second.getPassword());
+	}
+
+	/**
+	 * The lookups a connection makes, from opening it through
+	 * authenticating and reporting on it.
+	 */
+	private void connect(HostStorage storage) {
+		Map<String, String> selection = new HashMap<>();
+		selection.put(HostDatabase.FIELD_HOST_PROTOCOL, "ssh");
+		selection.put(HostDatabase.FIELD_HOST_NICKNAME, "work");
+		selection.put(HostDatabase.FIELD_HOST_HOSTNAME, "work.example.com");
+		selection.put(HostDatabase.FIELD_HOST_PORT, "22");
+		selection.put(HostDatabase.FIELD_HOST_USERNAME, "alice");
+
+		HostBean found = storage.findHost(selection);
+		found.setPassword(storage.getHosts(false).get(0).getPassword());
+		found.setEmail(storage.getHosts(false).get(0).getemail());
+		storage.getPortForwardsForHost(storage.getHosts(false).get(0)).get(0);
+		storage.touchHost(found);
+
+		assertEquals("secret", storage.getHosts(false).get(0).getPassword());
+		assertEquals("alice@example.com", storage.getHosts(false).get(0).getemail());
+		assertEquals("web", storage.getPortForwardsForHost(found).get(0).getNickname());
+	}
+
+	private int queries() {
+		int queries = 0;
+		for (Invocation invocation : mockingDetails(db).getInvocations()) {
+			if (QUERIES.contains(invocation.getMethod().getName()))
+				queries++;
+		}
+		return queries;
+	}
+}
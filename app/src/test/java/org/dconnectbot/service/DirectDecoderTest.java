@@ -0,0 +1,112 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@RunWith(AndroidJUnit4.class)
+public class DirectDecoderTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String TEXT = "ls -l\r\n"
+			+ "caf\u00e9 na\u00efve \u00fcber\r\n"
+			+ "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8\r\n"
+			+ "\u2500\u2502\u250c\u2510 \u20ac \ud83d\ude00 \ud800\udc00\r\n";
+
+	@Test
+	public void decode_MatchesStringInEveryChunking() {
+		byte[] bytes = TEXT.getBytes(UTF_8);
+		for (int chunk = 1; chunk <= 8; chunk++)
+			assertEquals("chunk " + chunk, TEXT, decode(DirectDecoder.forCharset(UTF_8), bytes, chunk));
+	}
+
+	@Test
+	public void decode_ReplacesMalformedInput() {
+		byte[][] inputs = {
+				{ 'a', (byte) 0x80, 'b' },
+				{ 'a', (byte) 0xc3, 'b' },
+				{ (byte) 0xc0, (byte) 0xaf },
+				{ (byte) 0xed, (byte) 0xa0, (byte) 0x80 },
+				{ (byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80 },
+				{ (byte) 0xff, 'x' },
+		};
+
+		for (byte[] input : inputs) {
+			String decoded = decode(DirectDecoder.forCharset(UTF_8), input, input.length);
+			assertEquals(reference(UTF_8, input).replaceAll("\ufffd+", "?"),
+					decoded.replaceAll("\ufffd+", "?"));
+		}
+	}
+
+	@Test
+	public void decode_AsciiReplacesHighBytes() {
+		Charset ascii = Charset.forName("US-ASCII");
+		byte[] input = { 'o', 'k', (byte) 0xc3, (byte) 0xa9, '!' };
+		assertEquals(reference(ascii, input), decode(DirectDecoder.forCharset(ascii), input, 2));
+	}
+
+	@Test
+	public void forCharset_OnlyUtf8AndAscii() {
+		assertNull(DirectDecoder.forCharset(Charset.forName("ISO-8859-1")));
+	}
+
+	/**
+	 * Feed bytes the way {@link Relay} does, a read of at most chunk bytes
+	 * at a time, keeping cut off sequences for the next read.
+	 */
+	private static String decode(DirectDecoder decoder, byte[] bytes, int chunk) {
+		byte[] buffer = new byte[16];
+		char[] chars = new char[16];
+		StringBuilder sb = new StringBuilder();
+		int kept = 0;
+
+		for (int i = 0; i < bytes.length; i += chunk) {
+			int read = Math.min(chunk, bytes.length - i);
+			System.arraycopy(bytes, i, buffer, kept, read);
+			int length = decoder.decode(buffer, 0, kept + read, chars);
+			sb.append(chars, 0, length);
+			kept = kept + read - decoder.getPosition();
+			System.arraycopy(buffer, decoder.getPosition(), buffer, 0, kept);
+		}
+
+		return sb.toString();
+	}
+
+	private static String reference(Charset charset, byte[] bytes) {
+		CharsetDecoder decoder = charset.newDecoder();
+		decoder.onMalformedInput(CodingErrorAction.REPLACE);
+		decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		CharBuffer out = CharBuffer.allocate(bytes.length * 2);
+		decoder.decode(ByteBuffer.wrap(bytes), out, true);
+		decoder.flush(out);
+		out.flip();
+		return out.toString();
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.dconnectbot.mock.NullTransport;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class OutputQueueTest {
+	@Test
+	public void write_BatchesWhileTransportIsBusy() throws Exception {
+		RecordingTransport transport = new RecordingTransport();
+		OutputQueue output = new OutputQueue(null, transport);
+		output.start();
+
+		// the first write stalls until released, the rest queue up behind it
+		output.write('a');
+		assertTrue(transport.stalled.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 100; i++)
+			output.write('b');
+		assertEquals(101, output.getQueuedBytes());
+		transport.release.countDown();
+
+		transport.awaitBytes(101);
+		assertEquals(2, transport.writes);
+		assertEquals(2, transport.flushes);
+		output.close();
+	}
+
+	@Test
+	public void inject_KeepsOrderWithKeys() throws Exception {
+		RecordingTransport transport = new RecordingTransport();
+		transport.release.countDown();
+		OutputQueue output = new OutputQueue(null, transport);
+		output.start();
+
+		StringBuilder paste = new StringBuilder();
+		for (int i = 0; i < 2000; i++)
+			paste.append("line ").append(i).append('\n');
+
+		output.write('[');
+		output.inject(paste.toString(), "UTF-8");
+		output.write(']');
+
+		String expected = "[" + paste + "]";
+		transport.awaitBytes(expected.length());
+		assertEquals(expected, transport.toString());
+		assertEquals(0, output.getQueuedBytes());
+		output.close();
+	}
+
+	@Test
+	public void write_AfterCloseFails() {
+		OutputQueue output = new OutputQueue(null, new RecordingTransport());
+		output.close();
+		try {
+			output.write('x');
+			fail("write after close should fail");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static class RecordingTransport extends NullTransport {
+		final CountDownLatch stalled = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+		volatile int writes;
+		volatile int flushes;
+
+		@Override
+		public void write(byte[] buffer, int offset, int length) throws IOException {
+			stalled.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			synchronized (this) {
+				received.write(buffer, offset, length);
+				writes++;
+				notifyAll();
+			}
+		}
+
+		@Override
+		public void flush() {
+			flushes++;
+		}
+
+		synchronized void awaitBytes(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (received.size() < count && System.currentTimeMillis() < end)
+				wait(100);
+			// let the flush after the last write through too
+			Thread.sleep(50);
+		}
+
+		@Override
+		public synchronized String toString() {
+			return received.toString();
+		}
+	}
+}
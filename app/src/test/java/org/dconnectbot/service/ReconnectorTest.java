@@ -0,0 +1,123 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ReconnectorTest {
+	@Test
+	public void backoff_DoublesUpToMaximum() {
+		Random random = new Random(16);
+		for (int attempt = 1; attempt < 40; attempt++) {
+			long window = Math.min(Reconnector.MAX_DELAY, Reconnector.BASE_DELAY << Math.min(attempt - 1, 16));
+			for (int i = 0; i < 100; i++) {
+				long delay = Reconnector.backoff(attempt, random);
+				assertTrue("attempt " + attempt + ": " + delay, delay >= window / 2 && delay <= window);
+			}
+		}
+	}
+
+	@Test
+	public void request_WaitsForNetwork() throws Exception {
+		Reconnector reconnector = new Reconnector();
+		CountingBridge first = new CountingBridge();
+		CountingBridge second = new CountingBridge();
+
+		reconnector.request(first, false);
+		reconnector.request(second, false);
+		assertFalse(first.started.await(200, TimeUnit.MILLISECONDS));
+
+		// both go as soon as the network is back
+		reconnector.resumeAll();
+		assertTrue(first.started.await(5, TimeUnit.SECONDS));
+		assertTrue(second.started.await(5, TimeUnit.SECONDS));
+
+		assertTrue(reconnector.resumed(first) >= 200);
+		assertTrue(reconnector.resumed(second) >= 200);
+		assertEquals(-1, reconnector.resumed(second));
+		assertTrue(reconnector.isIdle());
+	}
+
+	@Test
+	public void request_RetriesAfterDelay() throws Exception {
+		Reconnector reconnector = new Reconnector();
+		CountingBridge bridge = new CountingBridge(2);
+
+		reconnector.request(bridge, true);
+		assertTrue(bridge.awaitAttempts(1));
+
+		// the first attempt failed
+		long failed = System.nanoTime();
+		reconnector.request(bridge, true);
+		assertTrue(bridge.awaitAttempts(2));
+		long waited = (System.nanoTime() - failed) / 1000000L;
+		assertTrue("waited " + waited, waited >= Reconnector.BASE_DELAY / 2);
+	}
+
+	@Test
+	public void cancel_StopsRetries() throws Exception {
+		Reconnector reconnector = new Reconnector();
+		CountingBridge bridge = new CountingBridge();
+
+		reconnector.request(bridge, false);
+		reconnector.cancel(bridge);
+		reconnector.resumeAll();
+
+		assertFalse(bridge.started.await(200, TimeUnit.MILLISECONDS));
+		assertTrue(reconnector.isIdle());
+	}
+
+	private static class CountingBridge extends TerminalBridge {
+		final CountDownLatch started;
+		private int attempts;
+
+		CountingBridge() {
+			this(1);
+		}
+
+		CountingBridge(int expected) {
+			started = new CountDownLatch(expected);
+		}
+
+		@Override
+		protected synchronized void startConnection() {
+			attempts++;
+			started.countDown();
+			notifyAll();
+		}
+
+		synchronized boolean awaitAttempts(int count) throws InterruptedException {
+			long end = System.currentTimeMillis() + 5000;
+			while (attempts < count && System.currentTimeMillis() < end)
+				wait(100);
+			return attempts >= count;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.trilead.ssh2.Connection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SharedConnectionsTest {
+	private static final String KEY = "user@example.com:22";
+
+	@Test
+	public void release_LastUserCloses() {
+		SharedConnections shared = new SharedConnections();
+		Connection connection = new Connection("example.com", 22);
+
+		assertNull(shared.acquire(KEY));
+		assertTrue(shared.share(KEY, connection));
+		assertSame(connection, shared.acquire(KEY));
+		assertSame(connection, shared.acquire(KEY));
+
+		assertTrue(shared.release(KEY, connection));
+		assertTrue(shared.release(KEY, connection));
+		assertFalse(shared.release(KEY, connection));
+		assertNull(shared.acquire(KEY));
+	}
+
+	@Test
+	public void share_KeepsFirstConnection() {
+		SharedConnections shared = new SharedConnections();
+		Connection first = new Connection("example.com", 22);
+		Connection second = new Connection("example.com", 22);
+
+		assertTrue(shared.share(KEY, first));
+		assertFalse(shared.share(KEY, second));
+
+		// the one that wasn't shared is closed by its owner alone
+		assertFalse(shared.release(KEY, second));
+		assertSame(first, shared.acquire(KEY));
+	}
+
+	@Test
+	public void drop_StopsSharingLostConnection() {
+		SharedConnections shared = new SharedConnections();
+		Connection connection = new Connection("example.com", 22);
+
+		shared.share(KEY, connection);
+		assertSame(connection, shared.acquire(KEY));
+		shared.drop(KEY, connection);
+
+		assertNull(shared.acquire(KEY));
+		assertFalse(shared.release(KEY, connection));
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.service;
+
+import android.graphics.Rect;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import de.mud.terminal.VDUBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class TerminalBridgeTest {
+	@Test
+	public void dirtyBounds_WithoutBitmap() {
+		// a bridge without a view or bitmap, as when drawing directly
+		TerminalBridge bridge = new TerminalBridge();
+		bridge.charWidth = 10;
+		bridge.charHeight = 20;
+		VDUBuffer buffer = bridge.getVDUBuffer();
+		Arrays.fill(buffer.update, false);
+
+		Rect dirty = new Rect();
+		assertFalse(bridge.getDirtyBounds(dirty));
+
+		// the changed line, and the cursor line at the top
+		buffer.markLine(5, 1);
+		assertTrue(bridge.getDirtyBounds(dirty));
+		assertEquals(new Rect(0, 0, buffer.width * 10, 6 * 20), dirty);
+	}
+}
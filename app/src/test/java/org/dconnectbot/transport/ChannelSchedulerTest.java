@@ -0,0 +1,154 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ChannelSchedulerTest {
+	@Test
+	public void interactive_GoesBeforeForwards() throws Exception {
+		ChannelScheduler scheduler = new ChannelScheduler();
+		Recorder out = new Recorder("forward", null);
+
+		scheduler.beginInteractive();
+		Thread forward = writer(scheduler, out, 100);
+		forward.start();
+		Thread.sleep(50);
+		assertEquals(0, out.packets.size());
+
+		scheduler.endInteractive();
+		forward.join(5000);
+		assertEquals(Arrays.asList("forward"), out.packets);
+	}
+
+	@Test
+	public void busyForwards_TakeTurns() throws Exception {
+		ChannelScheduler scheduler = new ChannelScheduler();
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> packets = new ArrayList<>();
+		Recorder first = new Recorder("first", release, packets);
+		Recorder second = new Recorder("second", null, packets);
+
+		// the first holds the connection until the second is waiting
+		Thread a = writer(scheduler, first, 3 * ChannelScheduler.QUANTUM);
+		a.start();
+		assertTrue(first.writing.await(5, TimeUnit.SECONDS));
+		Thread b = writer(scheduler, second, 3 * ChannelScheduler.QUANTUM);
+		b.start();
+		Thread.sleep(50);
+		release.countDown();
+
+		a.join(5000);
+		b.join(5000);
+		assertEquals(Arrays.asList("first", "second", "first", "second", "first", "second"), packets);
+	}
+
+	@Test
+	public void stalledForward_DoesNotSlowTheOthers() throws Exception {
+		ChannelScheduler scheduler = new ChannelScheduler();
+		CountDownLatch release = new CountDownLatch(1);
+		Recorder stalled = new Recorder("stalled", release);
+		Recorder healthy = new Recorder("healthy", null);
+
+		Thread a = writer(scheduler, stalled, ChannelScheduler.QUANTUM);
+		a.start();
+		assertTrue(stalled.writing.await(5, TimeUnit.SECONDS));
+
+		int packets = 64;
+		long start = System.nanoTime();
+		Thread b = writer(scheduler, healthy, packets * ChannelScheduler.QUANTUM);
+		b.start();
+		b.join(30000);
+		long millis = (System.nanoTime() - start) / 1000000L;
+		release.countDown();
+		a.join(5000);
+
+		assertEquals(packets, healthy.packets.size());
+		// held to a packet per stall, this would take over twelve seconds
+		long bytesPerSecond = packets * ChannelScheduler.QUANTUM * 1000L / Math.max(millis, 1);
+		long throttled = ChannelScheduler.QUANTUM * 1000L / ChannelScheduler.STALL_MILLIS;
+		assertTrue("healthy flow moved " + bytesPerSecond + " bytes/s",
+				bytesPerSecond > 10 * throttled);
+	}
+
+	private static Thread writer(final ChannelScheduler scheduler, final OutputStream out, final int length) {
+		return new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					scheduler.write(new ChannelScheduler.Flow(), out, new byte[length], 0, length);
+				} catch (IOException ignored) {
+				}
+			}
+		});
+	}
+
+	/**
+	 * Notes down each write, optionally holding up the first.
+	 */
+	private static class Recorder extends OutputStream {
+		final String name;
+		final CountDownLatch release;
+		final List<String> packets;
+		final CountDownLatch writing = new CountDownLatch(1);
+
+		Recorder(String name, CountDownLatch release) {
+			this(name, release, new ArrayList<String>());
+		}
+
+		Recorder(String name, CountDownLatch release, List<String> packets) {
+			this.name = name;
+			this.release = release;
+			this.packets = packets;
+		}
+
+		@Override
+		public void write(int b) {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			synchronized (packets) {
+				packets.add(name);
+			}
+			writing.countDown();
+			if (release != null) {
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {
+				}
+			}
+		}
+	}
+}
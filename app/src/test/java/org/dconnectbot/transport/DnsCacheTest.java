@@ -0,0 +1,52 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+
+@RunWith(AndroidJUnit4.class)
+public class DnsCacheTest {
+	@Test
+	public void resolve_ReturnsCopiesOfCachedAddresses() throws UnknownHostException {
+		DnsCache.invalidate("127.0.0.1");
+		InetAddress[] first = DnsCache.resolve("127.0.0.1", 0);
+		InetAddress[] second = DnsCache.resolve("127.0.0.1", DnsCache.TTL - 1);
+
+		assertArrayEquals(first, second);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void resolve_CallersCannotChangeCache() throws UnknownHostException {
+		DnsCache.invalidate("127.0.0.1");
+		InetAddress[] first = DnsCache.resolve("127.0.0.1", 0);
+		InetAddress[] expected = first.clone();
+		first[0] = InetAddress.getByName("192.0.2.1");
+
+		assertArrayEquals(expected, DnsCache.resolve("127.0.0.1", 1));
+	}
+}
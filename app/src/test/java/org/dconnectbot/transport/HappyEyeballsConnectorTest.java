@@ -0,0 +1,77 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class HappyEyeballsConnectorTest {
+	@Test
+	public void sortAddresses_AlternatesFamilies() throws IOException {
+		InetAddress v4a = InetAddress.getByName("192.0.2.1");
+		InetAddress v4b = InetAddress.getByName("192.0.2.2");
+		InetAddress v4c = InetAddress.getByName("192.0.2.3");
+		InetAddress v6a = InetAddress.getByName("2001:db8::1");
+		InetAddress v6b = InetAddress.getByName("2001:db8::2");
+		InetAddress[] resolved = { v4a, v4b, v4c, v6a, v6b };
+
+		assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v4c),
+				HappyEyeballsConnector.sortAddresses(resolved, true));
+		assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v4c),
+				HappyEyeballsConnector.sortAddresses(resolved, false));
+	}
+
+	@Test
+	public void connect_ReachesListeningHost() throws IOException {
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		try {
+			Socket socket = HappyEyeballsConnector.connect("127.0.0.1", server.getLocalPort(), 5000);
+			assertTrue(socket.isConnected());
+			socket.close();
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	public void connect_FailsWhenNothingListens() throws IOException {
+		ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		int port = server.getLocalPort();
+		server.close();
+
+		try {
+			HappyEyeballsConnector.connect("127.0.0.1", port, 5000);
+			fail("connected to a closed port");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class KeepAliveTest {
+	@Test
+	public void answer_MeasuresRoundTripAndBacksOff() throws Exception {
+		final CountDownLatch answered = new CountDownLatch(3);
+		KeepAlive keepAlive = new KeepAlive("answering.example.com", new KeepAlive.Probe() {
+			@Override
+			public void ping() {
+				sleep(20);
+				answered.countDown();
+			}
+		}, new DeadListener(), 20, 1000);
+
+		keepAlive.start();
+		assertTrue(answered.await(5, TimeUnit.SECONDS));
+		keepAlive.stop();
+
+		assertTrue(keepAlive.getRoundTripMillis() >= 20);
+		assertTrue(keepAlive.getInterval() > 20);
+	}
+
+	@Test
+	public void missedReplies_ReportDeadPeer() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		DeadListener listener = new DeadListener();
+		KeepAlive keepAlive = new KeepAlive("silent.example.com", new KeepAlive.Probe() {
+			@Override
+			public void ping() {
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {
+				}
+			}
+		}, listener, 10, 20);
+
+		long start = System.nanoTime();
+		keepAlive.start();
+		assertTrue(listener.dead.await(5, TimeUnit.SECONDS));
+		long waited = (System.nanoTime() - start) / 1000000L;
+		release.countDown();
+
+		assertTrue("waited " + waited, waited >= KeepAlive.MAX_MISSED * 20);
+		assertEquals(-1, keepAlive.getRoundTripMillis());
+	}
+
+	@Test
+	public void closedConnection_IsNotDeadPeer() throws Exception {
+		final AtomicInteger probes = new AtomicInteger();
+		DeadListener listener = new DeadListener();
+		KeepAlive keepAlive = new KeepAlive("closed.example.com", new KeepAlive.Probe() {
+			@Override
+			public void ping() throws IOException {
+				probes.incrementAndGet();
+				throw new IOException("closed");
+			}
+		}, listener, 10, 20);
+
+		keepAlive.start();
+		assertFalse(listener.dead.await(300, TimeUnit.MILLISECONDS));
+		assertEquals(1, probes.get());
+	}
+
+	@Test
+	public void sharedConnection_ProbedOnceAndReportedToAll() throws Exception {
+		final AtomicInteger probes = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		KeepAlive.Probe probe = new KeepAlive.Probe() {
+			@Override
+			public void ping() {
+				probes.incrementAndGet();
+				try {
+					release.await();
+				} catch (InterruptedException ignored) {
+				}
+			}
+		};
+		Object connection = new Object();
+		DeadListener first = new DeadListener();
+		DeadListener second = new DeadListener();
+
+		KeepAlive keepAlive = KeepAlive.join(connection, "shared.example.com", probe, first, 10, 20);
+		assertSame(keepAlive, KeepAlive.join(connection, "shared.example.com", probe, second, 10, 20));
+
+		assertTrue(first.dead.await(5, TimeUnit.SECONDS));
+		assertTrue(second.dead.await(5, TimeUnit.SECONDS));
+		release.countDown();
+		assertEquals(1, probes.get());
+
+		keepAlive.leave(first);
+		keepAlive.leave(second);
+	}
+
+	@Test
+	public void leave_StopsOnceLastListenerLeaves() throws Exception {
+		final AtomicInteger probes = new AtomicInteger();
+		KeepAlive.Probe probe = new KeepAlive.Probe() {
+			@Override
+			public void ping() {
+				probes.incrementAndGet();
+			}
+		};
+		Object connection = new Object();
+		DeadListener first = new DeadListener();
+		DeadListener second = new DeadListener();
+
+		KeepAlive keepAlive = KeepAlive.join(connection, "leaving.example.com", probe, first, 10, 1000);
+		KeepAlive.join(connection, "leaving.example.com", probe, second, 10, 1000);
+
+		keepAlive.leave(first);
+		sleep(100);
+		assertTrue(probes.get() > 0);
+
+		keepAlive.leave(second);
+		sleep(50);
+		int stoppedAt = probes.get();
+		sleep(200);
+		assertEquals(stoppedAt, probes.get());
+
+		// a bridge coming later gets a keepalive of its own
+		KeepAlive later = KeepAlive.join(connection, "leaving.example.com", probe, first, 10, 1000);
+		assertNotSame(keepAlive, later);
+		later.leave(first);
+	}
+
+	private static class DeadListener implements KeepAlive.Listener {
+		final CountDownLatch dead = new CountDownLatch(1);
+
+		@Override
+		public void onPeerDead() {
+			dead.countDown();
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ignored) {
+		}
+	}
+}
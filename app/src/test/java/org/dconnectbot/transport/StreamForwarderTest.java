@@ -0,0 +1,291 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class StreamForwarderTest {
+	private ServerSocket echo;
+	private volatile String requestedHost;
+	private volatile int requestedPort;
+
+	@Before
+	public void startEchoServer() throws IOException {
+		echo = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					final Socket socket;
+					try {
+						socket = echo.accept();
+					} catch (IOException e) {
+						return;
+					}
+					new Thread(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								InputStream in = socket.getInputStream();
+								OutputStream out = socket.getOutputStream();
+								byte[] buffer = new byte[1024];
+								int n;
+								while ((n = in.read(buffer)) >= 0)
+									out.write(buffer, 0, n);
+								socket.close();
+							} catch (IOException ignored) {
+							}
+						}
+					}).start();
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void stopEchoServer() throws IOException {
+		echo.close();
+	}
+
+	@Test
+	public void local_CarriesAndCountsBothWays() throws Exception {
+		StreamForwarder forwarder = new StreamForwarder(tunnel(), loopback(),
+				new StreamForwarder.Destination("example.com", 80), 4096, 4);
+		forwarder.start();
+
+		Socket client = connect(forwarder);
+		byte[] sent = new byte[100000];
+		for (int i = 0; i < sent.length; i++)
+			sent[i] = (byte) i;
+		byte[] received = exchange(client, sent);
+		client.close();
+
+		assertArrayEquals(sent, received);
+		assertEquals("example.com", requestedHost);
+		assertEquals(80, requestedPort);
+
+		ForwardStats stats = forwarder.getStats();
+		awaitClosed(stats);
+		assertEquals(sent.length, stats.getBytesOut());
+		assertEquals(sent.length, stats.getBytesIn());
+		assertEquals(1, stats.getTotalConnections());
+		assertEquals(0, stats.getFailedConnections());
+		forwarder.close();
+	}
+
+	@Test
+	public void local_QueuesBeyondChannelLimit() throws Exception {
+		StreamForwarder forwarder = new StreamForwarder(tunnel(), loopback(),
+				new StreamForwarder.Destination("example.com", 80), 4096, 1);
+		forwarder.start();
+		ForwardStats stats = forwarder.getStats();
+
+		Socket first = connect(forwarder);
+		exchange(first, new byte[] { 1 });
+		Socket second = connect(forwarder);
+		second.getOutputStream().write(2);
+
+		long end = System.currentTimeMillis() + 5000;
+		while (stats.getWaitingConnections() != 1 && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+		assertEquals(1, stats.getActiveConnections());
+		assertEquals(1, stats.getWaitingConnections());
+
+		// the second gets its channel once the first is done
+		first.close();
+		assertEquals(2, second.getInputStream().read());
+		assertEquals(1, stats.getActiveConnections());
+		assertEquals(0, stats.getWaitingConnections());
+
+		second.close();
+		forwarder.close();
+	}
+
+	@Test
+	public void local_KeepsToRateLimit() throws Exception {
+		StreamForwarder forwarder = new StreamForwarder(tunnel(), loopback(),
+				new StreamForwarder.Destination("example.com", 80), 4096, 4);
+		forwarder.setRateLimit(32 * 1024);
+		forwarder.start();
+
+		// a quarter second's worth goes at once, the rest at the rate
+		long start = System.nanoTime();
+		Socket client = connect(forwarder);
+		exchange(client, new byte[48 * 1024]);
+		long elapsed = (System.nanoTime() - start) / 1000000L;
+		client.close();
+
+		assertTrue("took " + elapsed + " ms", elapsed >= 1000);
+		forwarder.close();
+	}
+
+	@Test
+	public void socks5_ConnectsWhereClientAsks() throws Exception {
+		SocksForwarder forwarder = new SocksForwarder(tunnel(), loopback(), 4096, 4);
+		forwarder.start();
+
+		Socket client = connect(forwarder);
+		OutputStream out = client.getOutputStream();
+		DataInputStream in = new DataInputStream(client.getInputStream());
+
+		out.write(new byte[] { 5, 1, 0 });
+		byte[] method = new byte[2];
+		in.readFully(method);
+		assertArrayEquals(new byte[] { 5, 0 }, method);
+
+		byte[] name = "internal.example.com".getBytes("US-ASCII");
+		out.write(new byte[] { 5, 1, 0, 3, (byte) name.length });
+		out.write(name);
+		out.write(new byte[] { 0x1f, (byte) 0x90 });
+		byte[] reply = new byte[10];
+		in.readFully(reply);
+		assertEquals(0, reply[1]);
+
+		assertArrayEquals("hello".getBytes(), exchange(client, "hello".getBytes()));
+		assertEquals("internal.example.com", requestedHost);
+		assertEquals(8080, requestedPort);
+
+		client.close();
+		forwarder.close();
+	}
+
+	@Test
+	public void socks4a_ConnectsWhereClientAsks() throws Exception {
+		SocksForwarder forwarder = new SocksForwarder(tunnel(), loopback(), 4096, 4);
+		forwarder.start();
+
+		Socket client = connect(forwarder);
+		OutputStream out = client.getOutputStream();
+		out.write(new byte[] { 4, 1, 0, 22, 0, 0, 0, 1, 'm', 'e', 0 });
+		out.write("git.example.com".getBytes("US-ASCII"));
+		out.write(0);
+
+		byte[] reply = new byte[8];
+		new DataInputStream(client.getInputStream()).readFully(reply);
+		assertEquals(0x5a, reply[1]);
+		assertEquals("git.example.com", requestedHost);
+		assertEquals(22, requestedPort);
+
+		client.close();
+		forwarder.close();
+	}
+
+	@Test
+	public void socks_IdleClientIsDroppedBeforeChannel() throws Exception {
+		SocksForwarder forwarder = new SocksForwarder(tunnel(), loopback(), 4096, 4);
+		forwarder.setHandshakeTimeout(100);
+		forwarder.start();
+
+		Socket idle = connect(forwarder);
+		idle.setSoTimeout(5000);
+		assertEquals(-1, idle.getInputStream().read());
+
+		ForwardStats stats = forwarder.getStats();
+		assertEquals(1, stats.getFailedConnections());
+		assertEquals(0, stats.getWaitingConnections());
+		assertNull(requestedHost);
+
+		idle.close();
+		forwarder.close();
+	}
+
+	/**
+	 * Channels that remember where they were asked to go and all lead to
+	 * the echo server.
+	 */
+	private StreamForwarder.Tunnel tunnel() {
+		return new StreamForwarder.Tunnel() {
+			@Override
+			public StreamForwarder.Channel open(String host, int port) throws IOException {
+				requestedHost = host;
+				requestedPort = port;
+				final Socket socket = new Socket(InetAddress.getLoopbackAddress(), echo.getLocalPort());
+				return new StreamForwarder.Channel() {
+					@Override
+					public InputStream getInputStream() throws IOException {
+						return socket.getInputStream();
+					}
+
+					@Override
+					public OutputStream getOutputStream() throws IOException {
+						return socket.getOutputStream();
+					}
+
+					@Override
+					public void close() throws IOException {
+						socket.close();
+					}
+				};
+			}
+		};
+	}
+
+	private static InetSocketAddress loopback() {
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+	}
+
+	private static Socket connect(StreamForwarder forwarder) throws IOException {
+		return new Socket(InetAddress.getLoopbackAddress(), forwarder.getLocalPort());
+	}
+
+	private static byte[] exchange(final Socket client, final byte[] data) throws Exception {
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					client.getOutputStream().write(data);
+				} catch (IOException ignored) {
+				}
+			}
+		});
+		writer.start();
+
+		byte[] received = new byte[data.length];
+		new DataInputStream(client.getInputStream()).readFully(received);
+		writer.join();
+		return received;
+	}
+
+	private static void awaitClosed(ForwardStats stats) throws InterruptedException {
+		long end = System.currentTimeMillis() + 5000;
+		while (stats.getActiveConnections() > 0 && System.currentTimeMillis() < end)
+			Thread.sleep(10);
+	}
+}
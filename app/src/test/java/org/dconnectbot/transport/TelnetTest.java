@@ -0,0 +1,168 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class TelnetTest {
+	private static final byte IAC = (byte) 255;
+	private static final byte WILL = (byte) 251;
+	private static final byte DO = (byte) 253;
+	private static final byte SB = (byte) 250;
+	private static final byte SE = (byte) 240;
+	private static final byte NOP = (byte) 241;
+
+	private static final byte ECHO = 1;
+	private static final byte SGA = 3;
+	private static final byte TTYPE = 24;
+
+	@Test
+	public void read_StripsNegotiationInEveryChunking() throws IOException {
+		Capture capture = capture(200);
+		// the last one is more than the handler buffers at first
+		for (int chunk : new int[] { 1, 2, 3, 7, 64, 4096, 16384 }) {
+			ByteArrayOutputStream replies = new ByteArrayOutputStream();
+			byte[] data = replay(capture.stream, chunk, capture.data.length, chunk, replies);
+			assertArrayEquals("chunk " + chunk, capture.data, data);
+		}
+	}
+
+	@Test
+	public void read_AnswersNegotiation() throws IOException {
+		byte[] stream = {
+				IAC, DO, TTYPE, IAC, WILL, ECHO, 'o', 'k',
+				IAC, SB, TTYPE, 1, IAC, SE, '!',
+		};
+		ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		byte[] data = replay(stream, 3, 3, 16, replies);
+
+		assertArrayEquals(new byte[] { 'o', 'k', '!' }, data);
+		assertArrayEquals(new byte[] {
+				IAC, WILL, TTYPE, IAC, DO, ECHO,
+				IAC, SB, TTYPE, 0, 'a', 'n', 's', 'i', IAC, SE,
+		}, replies.toByteArray());
+	}
+
+	/**
+	 * Throughput of a captured serial console session through Telnet.read,
+	 * in socket sized reads like the relay does.
+	 */
+	@Test
+	@Ignore("benchmark, run by hand")
+	public void benchmark_ReadThroughput() throws IOException {
+		Capture capture = capture(40000);
+
+		long best = Long.MAX_VALUE;
+		for (int pass = 0; pass < 5; pass++) {
+			long start = System.nanoTime();
+			replay(capture.stream, 1460, capture.data.length, 4096, new ByteArrayOutputStream());
+			best = Math.min(best, System.nanoTime() - start);
+		}
+
+		System.out.println(String.format("Telnet.read: %.1f MB/s",
+				capture.stream.length / (best / 1e9) / (1024 * 1024)));
+	}
+
+	/**
+	 * Read everything a telnet server sent through a fresh transport.
+	 *
+	 * @param chunk most bytes the socket hands over per read
+	 * @param expected number of data bytes in the stream
+	 * @param bufferSize size of the buffer read into
+	 */
+	private static byte[] replay(byte[] stream, final int chunk, int expected, int bufferSize,
+			OutputStream replies) throws IOException {
+		InputStream socket = new ByteArrayInputStream(stream) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, chunk));
+			}
+		};
+
+		Telnet telnet = new Telnet();
+		telnet.setStreams(socket, replies);
+
+		byte[] buffer = new byte[bufferSize];
+		ByteArrayOutputStream data = new ByteArrayOutputStream(expected);
+		while (data.size() < expected) {
+			int n = telnet.read(buffer, 0, buffer.length);
+			data.write(buffer, 0, n);
+		}
+		return data.toByteArray();
+	}
+
+	private static class Capture {
+		final byte[] stream;
+		final byte[] data;
+
+		Capture(byte[] stream, byte[] data) {
+			this.stream = stream;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * A console server session: option negotiation at the start, then boot
+	 * and kernel log lines with the odd NOP keepalive and escaped 0xff data
+	 * byte in between.
+	 */
+	private static Capture capture(int lines) {
+		Random random = new Random(11);
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+
+		stream.write(new byte[] {
+				IAC, WILL, ECHO, IAC, WILL, SGA, IAC, DO, TTYPE,
+				IAC, SB, TTYPE, 1, IAC, SE,
+		}, 0, 15);
+
+		for (int i = 0; i < lines; i++) {
+			byte[] line = String.format("[%8d.%06d] eth0: link up, %d Mbps, full duplex, rx %d\r\n",
+					i / 10, random.nextInt(1000000), 100 << random.nextInt(4),
+					random.nextInt()).getBytes();
+			stream.write(line, 0, line.length);
+			data.write(line, 0, line.length);
+
+			if (random.nextInt(50) == 0) {
+				stream.write(IAC);
+				stream.write(NOP);
+			}
+			if (random.nextInt(200) == 0) {
+				stream.write(IAC);
+				stream.write(IAC);
+				data.write(IAC);
+			}
+		}
+
+		return new Capture(stream.toByteArray(), data.toByteArray());
+	}
+}
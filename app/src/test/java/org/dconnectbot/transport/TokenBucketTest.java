@@ -0,0 +1,63 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.transport;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class TokenBucketTest {
+	private static final long SECOND = 1000000000L;
+
+	@Test
+	public void burst_GoesAtOnce() {
+		TokenBucket bucket = new TokenBucket(1000, 0);
+		assertEquals(0, bucket.reserve(250, 0));
+		assertEquals(SECOND / 10, bucket.reserve(100, 0));
+	}
+
+	@Test
+	public void readsLargerThanRate_KeepTheRate() {
+		TokenBucket bucket = new TokenBucket(1000, 0);
+
+		// each read is two seconds' worth, and the taker waits out its debt
+		long now = 0;
+		long wait = bucket.reserve(2000, now);
+		assertEquals(1750 * SECOND / 1000, wait);
+		for (int i = 0; i < 10; i++) {
+			now += wait;
+			wait = bucket.reserve(2000, now);
+			assertEquals(2 * SECOND, wait);
+		}
+	}
+
+	@Test
+	public void idle_FillsOnlyTheBucket() {
+		TokenBucket bucket = new TokenBucket(1000, 0);
+		bucket.reserve(250, 0);
+
+		// an hour's idling still lets only a quarter second's worth through
+		long hour = 3600 * SECOND;
+		assertEquals(0, bucket.reserve(250, hour));
+		assertEquals(SECOND / 1000, bucket.reserve(1, hour));
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.util;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class EncryptorTest {
+	private static final int ITERATIONS = 1000;
+
+	@Test
+	public void decrypt_ReadsKeysSavedBefore() throws Exception {
+		// saved with the key derivation as it was before buffers were reused
+		byte[] salt = {(byte) 0xac, 0x49, 0x65, 0x25, (byte) 0xe0, 0x12, 0x77, (byte) 0xcc};
+		byte[] ciphertext = {0x74, (byte) 0xdf, 0x03, (byte) 0xfc, 0x1a, 0x24, 0x73, (byte) 0xd6,
+				(byte) 0xd4, 0x58, 0x77, (byte) 0xf5, 0x6f, 0x41, 0x24, (byte) 0xcf};
+
+		assertArrayEquals("hello world".getBytes("UTF-8"),
+				Encryptor.decrypt(salt, ITERATIONS, "secret", ciphertext));
+	}
+
+	@Test
+	public void encrypt_RoundTrips() throws Exception {
+		byte[] cleartext = "a longer message than a single block".getBytes("UTF-8");
+		byte[] salt = new byte[8];
+
+		byte[] ciphertext = Encryptor.encrypt(salt, ITERATIONS, "a password longer than one digest", cleartext);
+		assertArrayEquals(cleartext,
+				Encryptor.decrypt(salt, ITERATIONS, "a password longer than one digest", ciphertext));
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.util;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.trilead.ssh2.KnownHosts;
+
+import org.dconnectbot.bean.HostBean;
+import org.dconnectbot.bean.PortForwardBean;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class HostDatabaseTest {
+	private static final int KNOWN_HOSTS = 1000;
+	private static final int CONNECTS = 50;
+
+	private HostDatabase db;
+	private HostBean host;
+
+	@Before
+	public void setUp() {
+		Context context = ApplicationProvider.getApplicationContext();
+		HostDatabase.resetInMemoryInstance(context);
+		db = HostDatabase.get(context);
+
+		host = db.saveHost(new HostBean("work", "ssh", "alice", "work.example.com", 22,
+				"secret", "alice@example.com"));
+	}
+
+	@Test
+	public void savePortForwards_SavesAllAndUpdates() {
+		PortForwardBean web = new PortForwardBean(host.getId(), "web", HostDatabase.PORTFORWARD_LOCAL,
+				"8080", "localhost:80");
+		PortForwardBean ssh = new PortForwardBean(host.getId(), "ssh", HostDatabase.PORTFORWARD_LOCAL,
+				"2222", "localhost:22");
+		assertTrue(db.savePortForwards(Arrays.asList(web, ssh)));
+		assertTrue(web.getId() >= 0);
+
+		web.setRateLimit(64);
+		assertTrue(db.savePortForwards(Arrays.asList(web)));
+
+		List<PortForwardBean> saved = db.getPortForwardsForHost(host);
+		assertEquals(2, saved.size());
+		for (PortForwardBean portForward : saved) {
+			if (portForward.getId() == web.getId())
+				assertEquals(64, portForward.getRateLimit());
+		}
+	}
+
+	@Test
+	public void savePortForwards_SavesNoneOnFailure() {
+		PortForwardBean web = new PortForwardBean(host.getId(), "web", HostDatabase.PORTFORWARD_LOCAL,
+				"8080", "localhost:80");
+		PortForwardBean missing = new PortForwardBean(1000, host.getId(), "gone",
+				HostDatabase.PORTFORWARD_LOCAL, 2222, "localhost", 22);
+
+		assertFalse(db.savePortForwards(Arrays.asList(web, missing)));
+		assertEquals(-1, web.getId());
+		assertEquals(0, db.getPortForwardsForHost(host).size());
+	}
+
+	@Test
+	public void setColorsForScheme_SetsEveryColor() {
+		int[] colors = Colors.defaults.clone();
+		colors[1] = 0xff123456;
+		db.setColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME, colors);
+		assertArrayEquals(colors, db.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME));
+
+		db.setColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME, Colors.defaults);
+		assertArrayEquals(Colors.defaults, db.getColorsForScheme(HostDatabase.DEFAULT_COLOR_SCHEME));
+	}
+
+	@Test
+	public void verifyKnownHost_MatchesRsaKeyUnderAnySignatureAlgorithm() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		byte[] key = PubkeyUtils.extractOpenSSHPublic(generator.generateKeyPair());
+		db.saveKnownHost("work.example.com", 22, "ssh-rsa", key);
+		db.saveHost(new HostBean("home", "ssh", "alice", "home.example.com", 22, null, null));
+		db.saveKnownHost("home.example.com", 22, "rsa-sha2-512", key);
+
+		// the same key blob is offered for ssh-rsa, rsa-sha2-256 and
+		// rsa-sha2-512 signatures, whichever name it was saved under
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, db.verifyKnownHost("work.example.com", 22, key));
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, db.verifyKnownHost("home.example.com", 22, key));
+	}
+
+	@Test
+	public void verifyKnownHost_LooksUpOneHostOfMany() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		byte[] key = PubkeyUtils.extractOpenSSHPublic(generator.generateKeyPair());
+		byte[] otherKey = PubkeyUtils.extractOpenSSHPublic(generator.generateKeyPair());
+		String hostname = saveKnownHosts(key);
+
+		assertEquals(KnownHosts.HOSTKEY_IS_OK, db.verifyKnownHost(hostname, 22, key));
+		assertEquals(KnownHosts.HOSTKEY_HAS_CHANGED, db.verifyKnownHost(hostname, 22, otherKey));
+		assertEquals(KnownHosts.HOSTKEY_IS_NEW, db.verifyKnownHost(hostname, 2222, key));
+		assertEquals(Arrays.asList("ssh-rsa"), db.getHostKeyAlgorithmsForHost(hostname, 22));
+
+		Cursor plan = db.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN SELECT _id FROM "
+				+ HostDatabase.TABLE_HOSTS + " WHERE " + HostDatabase.FIELD_HOST_HOSTNAME + " = ? AND "
+				+ HostDatabase.FIELD_HOST_PORT + " = ?", new String[]{hostname, "22"});
+		StringBuilder details = new StringBuilder();
+		while (plan.moveToNext())
+			details.append(plan.getString(plan.getColumnCount() - 1));
+		plan.close();
+		assertTrue(details.toString(), details.toString().contains("hostshostnameportindex"));
+	}
+
+	/**
+	 * Time to check one host's key among many, reading every known host as
+	 * each connect used to against looking up the one host.
+	 */
+	@Test
+	@Ignore("benchmark, run by hand")
+	public void benchmark_VerifyKnownHost() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		byte[] key = PubkeyUtils.extractOpenSSHPublic(generator.generateKeyPair());
+		String hostname = saveKnownHosts(key);
+		String matchName = hostname + ":22";
+
+		long start = System.nanoTime();
+		for (int i = 0; i < CONNECTS; i++)
+			db.getKnownHosts().verifyHostkey(matchName, "ssh-rsa", key);
+		long before = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < CONNECTS; i++)
+			db.verifyKnownHost(hostname, 22, key);
+		long after = System.nanoTime() - start;
+
+		System.out.println(String.format(Locale.US,
+				"Host key verification with %d known hosts: %.2f ms before, %.2f ms after",
+				KNOWN_HOSTS, before / 1e6 / CONNECTS, after / 1e6 / CONNECTS));
+	}
+
+	/**
+	 * Save {@link #KNOWN_HOSTS} hosts, all known by the same key.
+	 *
+	 * @return the name of one in the middle
+	 */
+	private String saveKnownHosts(byte[] key) {
+		for (int i = 0; i < KNOWN_HOSTS; i++) {
+			String hostname = String.format(Locale.US, "host%d.example.com", i);
+			db.saveHost(new HostBean(hostname, "ssh", "alice", hostname, 22, null, null));
+			db.saveKnownHost(hostname, 22, "ssh-rsa", key);
+		}
+		return String.format(Locale.US, "host%d.example.com", KNOWN_HOSTS / 2);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * ConnectBot: simple, powerful, open-source SSH client for Android
+ * Copyright 2007 Kenny Root, Jeffrey Sharkey
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.dconnectbot.util;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.dconnectbot.bean.PubkeyBean;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(AndroidJUnit4.class)
+public class KeyPairCacheTest {
+	private static KeyPair first;
+	private static KeyPair second;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(1024);
+		first = generator.generateKeyPair();
+		second = generator.generateKeyPair();
+	}
+
+	@Test
+	public void convertToKeyPair_DecodesOnce() throws Exception {
+		KeyPairCache cache = new KeyPairCache(KeyPairCache.MAX_KEYS);
+		PubkeyBean pubkey = bean(1, first, 0);
+
+		KeyPair pair = cache.convertToKeyPair(pubkey);
+		assertArrayEquals(first.getPrivate().getEncoded(), pair.getPrivate().getEncoded());
+		assertSame(pair, cache.convertToKeyPair(pubkey));
+
+		// a key changed since is decoded again
+		KeyPair changed = cache.convertToKeyPair(bean(1, second, 0));
+		assertArrayEquals(second.getPrivate().getEncoded(), changed.getPrivate().getEncoded());
+	}
+
+	@Test
+	public void convertToKeyPair_HonoursLifetimeAndBound() throws Exception {
+		KeyPairCache cache = new KeyPairCache(1);
+		PubkeyBean shortLived = bean(1, first, 1);
+
+		KeyPair pair = cache.convertToKeyPair(shortLived);
+		Thread.sleep(1100);
+		assertNotSame(pair, cache.convertToKeyPair(shortLived));
+
+		pair = cache.convertToKeyPair(shortLived);
+		cache.convertToKeyPair(bean(2, second, 0));
+		assertNotSame(pair, cache.convertToKeyPair(shortLived));
+	}
+
+	private static PubkeyBean bean(long id, KeyPair pair, int lifetime) throws Exception {
+		PubkeyBean pubkey = new PubkeyBean();
+		pubkey.setId(id);
+		pubkey.setNickname("key" + id);
+		pubkey.setType(PubkeyDatabase.KEY_TYPE_RSA);
+		pubkey.setPrivateKey(PubkeyUtils.getEncodedPrivate(pair.getPrivate(), null));
+		pubkey.setPublicKey(pair.getPublic().getEncoded());
+		pubkey.setLifetime(lifetime);
+		return pubkey;
+	}
+}